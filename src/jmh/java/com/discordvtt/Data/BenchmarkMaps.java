@@ -0,0 +1,51 @@
+package com.discordvtt.Data;
+
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.SpecialText;
+
+import java.awt.*;
+import java.util.Random;
+
+public class BenchmarkMaps {
+
+    /**
+     * BenchmarkMaps:
+     *
+     * Builds the maps the benchmarks run on. Cells are scattered at random, but from fixed seeds, so that every run (and every version) measures the same map.
+     */
+
+    //A few of the sorts of cells maps are drawn with: opaque walls and floors, translucent overlays, and blank tiles with only a background
+    public static final SpecialText[] PALETTE = {
+            SpecialText.intern('#', Color.GRAY.getRGB(), new Color(40, 40, 40).getRGB()),
+            SpecialText.intern('.', new Color(120, 100, 80).getRGB(), new Color(30, 25, 20).getRGB()),
+            SpecialText.intern('~', new Color(80, 120, 255).getRGB(), new Color(20, 40, 120, 160).getRGB()),
+            SpecialText.intern('"', new Color(60, 200, 60).getRGB(), 0),
+            SpecialText.intern(' ', Color.WHITE.getRGB(), new Color(200, 0, 0, 90).getRGB()),
+            SpecialText.intern('@', Color.YELLOW.getRGB(), 0)
+    };
+
+    /**
+     * @param size The map's width and height
+     * @param density The fraction of backdrop cells drawn on. The token layer gets a fiftieth as many, and the hide layer stays empty.
+     */
+    public static GameMap create(int size, double density){
+        GameMap gameMap = new GameMap();
+        gameMap.initialize(size, size);
+        scatter(gameMap.getBackdrop(), density, 1);
+        scatter(gameMap.getTokenLayer(), density / 50, 2);
+        return gameMap;
+    }
+
+    /**
+     * Draws PALETTE entries onto random cells of a layer.
+     *
+     * @param density The chance of each cell being drawn on
+     */
+    public static void scatter(Layer layer, double density, long seed){
+        Random random = new Random(seed);
+        for (int row = 0; row < layer.getRows(); row++)
+            for (int col = 0; col < layer.getCols(); col++)
+                if (random.nextDouble() < density)
+                    layer.editLayer(col, row, PALETTE[random.nextInt(PALETTE.length)]);
+    }
+}
@@ -0,0 +1,89 @@
+package com.discordvtt.Data;
+
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.LayerChunkSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameMapBenchmark {
+
+    /**
+     * GameMapBenchmark:
+     *
+     * Resizing maps, and saving and opening them through FileIO.
+     */
+
+    @Param({"256", "2048"})
+    public int mapSize;
+
+    @Param({"0.05", "0.5", "1.0"})
+    public double density;
+
+    private GameMap gameMap;
+    private FileIO io = new FileIO();
+    private File savedMap;
+    private File scratchMap;
+    private GameMap opened;
+
+    @Setup
+    public void setUp() throws IOException {
+        gameMap = BenchmarkMaps.create(mapSize, density);
+        savedMap = File.createTempFile("benchmark", ".vttmap");
+        scratchMap = File.createTempFile("benchmark-scratch", ".vttmap");
+        io.writeGameMap(gameMap, savedMap.getPath(), progress -> {});
+    }
+
+    @TearDown
+    public void tearDown(){
+        savedMap.delete();
+        scratchMap.delete();
+    }
+
+    //Opened maps keep reading from the file until they let go of it
+    @TearDown(Level.Invocation)
+    public void closeOpened() throws IOException {
+        if (opened != null) opened.close();
+        opened = null;
+    }
+
+    //Grows the map on all sides by a chunk, then shrinks it back
+    @Benchmark
+    public GameMap resizeGrowAndShrink(){
+        gameMap.resize(mapSize + 64, mapSize + 64, 32, 32);
+        gameMap.resize(mapSize, mapSize, -32, -32);
+        return gameMap;
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        io.writeGameMap(gameMap, scratchMap.getPath(), progress -> {});
+        return scratchMap;
+    }
+
+    //Opening only reads the chunk index; this is how long it takes before the editor can show the map
+    @Benchmark
+    public GameMap open(){
+        opened = io.openLevel(savedMap);
+        return opened;
+    }
+
+    //Opening, and then decoding every chunk, as if the whole map had been scrolled through
+    @Benchmark
+    public void openAndLoadAll(Blackhole blackhole){
+        opened = io.openLevel(savedMap);
+        for (Layer layer : new Layer[]{opened.getBackdrop(), opened.getTokenLayer(), opened.getHideLayer()})
+            for (int row = 0; row < layer.getRows(); row += LayerChunkSource.CHUNK_SIZE)
+                for (int col = 0; col < layer.getCols(); col += LayerChunkSource.CHUNK_SIZE)
+                    blackhole.consume(layer.isCellEmpty(col, row));
+    }
+}
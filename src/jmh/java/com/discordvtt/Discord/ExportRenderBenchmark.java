@@ -0,0 +1,61 @@
+package com.discordvtt.Discord;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import com.discordvtt.Data.Coordinate;
+import com.discordvtt.Data.GameMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportRenderBenchmark {
+
+    /**
+     * ExportRenderBenchmark:
+     *
+     * Rendering an area of the map to text for posting on Discord, at the size the RenderArea tool uses, and the whole map at once.
+     */
+
+    @Param({"0.05", "0.5", "1.0"})
+    public double density;
+
+    @Param({"false", "true"})
+    public boolean includeRuler;
+
+    private GameMap gameMap;
+    private MapTextRenderer renderer = new MapTextRenderer();
+    private StringBuilder wholeMap = new StringBuilder();
+    private boolean includeDots;
+    private Coordinate origin = new Coordinate(100, 100);
+    private Coordinate viewBounds = new Coordinate(50, 26);
+
+    @Setup
+    public void setUp(){
+        gameMap = BenchmarkMaps.create(256, density);
+    }
+
+    @Benchmark
+    public String render(){
+        return renderer.render(gameMap, origin, viewBounds, true, includeRuler);
+    }
+
+    //Like ticking the ExportWindow's "Include Dots" box on and off
+    @Benchmark
+    public String renderToggledDots(){
+        includeDots = !includeDots;
+        return renderer.render(gameMap, origin, viewBounds, includeDots, includeRuler);
+    }
+
+    @Benchmark
+    public int renderWholeMap() throws IOException {
+        wholeMap.setLength(0);
+        renderer.render(wholeMap, gameMap, 0, 0, gameMap.getBackdrop().getCols(), gameMap.getBackdrop().getRows(), true, includeRuler, false);
+        return wholeMap.length();
+    }
+}
@@ -0,0 +1,60 @@
+package com.discordvtt.Editor.DrawTools;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import com.discordvtt.Data.GameMap;
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.SpecialText;
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.*;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ArtFillBenchmark {
+
+    /**
+     * ArtFillBenchmark:
+     *
+     * Paint bucket fills over a floor scattered with walls. The more walls, the smaller and more ragged the filled area gets.
+     */
+
+    @Param({"256", "1024"})
+    public int layerSize;
+
+    @Param({"0.0", "0.2", "0.4"})
+    public double wallDensity;
+
+    private ArtFill artFill = new ArtFill();
+    private GameMap gameMap;
+    private SpecialText floor = BenchmarkMaps.PALETTE[1];
+    private SpecialText water = BenchmarkMaps.PALETTE[2];
+
+    @Setup
+    public void setUp(){
+        artFill.onActivate(new JPanel()); //Sets up the "Edge Only" box, which is left unchecked
+        gameMap = new GameMap();
+        gameMap.initialize(layerSize, layerSize);
+        Layer layer = gameMap.getBackdrop();
+        layer.fillLayer(floor);
+        Layer walls = new Layer(layerSize, layerSize, "walls", 0, 0, 0);
+        BenchmarkMaps.scatter(walls, wallDensity, 1);
+        for (int row = 0; row < layerSize; row++)
+            for (int col = 0; col < layerSize; col++)
+                if (!walls.isCellEmpty(col, row)) layer.editLayer(col, row, BenchmarkMaps.PALETTE[0]);
+        layer.editLayer(layerSize / 2, layerSize / 2, floor);
+    }
+
+    //Floods the floor around the middle with water, then drains it again, so every invocation sees the same layer
+    @Benchmark
+    public GameMap fill(){
+        int middle = layerSize / 2;
+        artFill.onDrawStart(gameMap, null, middle, middle, water);
+        artFill.onDrawStart(gameMap, null, middle, middle, floor);
+        return gameMap;
+    }
+}
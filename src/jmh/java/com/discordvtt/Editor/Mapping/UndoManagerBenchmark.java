@@ -0,0 +1,83 @@
+package com.discordvtt.Editor.Mapping;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import com.discordvtt.Data.GameMap;
+import com.discordvtt.Data.MapJournal;
+import com.discordvtt.Engine.Layer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoManagerBenchmark {
+
+    /**
+     * UndoManagerBenchmark:
+     *
+     * Recording strokes into the undo history (and optionally the MapJournal), and undoing and redoing them.
+     */
+
+    @Param({"16", "1024", "65536"})
+    public int strokeCells; //Painted as a square, so best kept to square numbers
+
+    @Param({"false", "true"})
+    public boolean journaled;
+
+    private GameMap gameMap;
+    private UndoManager undoManager;
+    private MapJournal journal;
+    private File mapFile;
+    private int stroke = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        gameMap = BenchmarkMaps.create(1024, 0.5);
+        undoManager = new UndoManager(gameMap, null);
+        if (journaled){
+            mapFile = File.createTempFile("benchmark", ".vttmap");
+            journal = MapJournal.create(mapFile.getPath(), gameMap);
+            undoManager.setJournal(journal);
+        }
+        paintStroke();
+        undoManager.recordGameMap();
+    }
+
+    @TearDown
+    public void tearDown(){
+        if (journal != null){
+            journal.close();
+            new File(mapFile.getPath() + MapJournal.EXTENSION).delete();
+            mapFile.delete();
+        }
+    }
+
+    private void paintStroke(){
+        stroke++;
+        Layer backdrop = gameMap.getBackdrop();
+        int side = (int)Math.sqrt(strokeCells);
+        for (int row = 0; row < side; row++)
+            for (int col = 0; col < side; col++)
+                backdrop.editLayer(col, row, BenchmarkMaps.PALETTE[(stroke + col + row) % BenchmarkMaps.PALETTE.length]);
+    }
+
+    @Benchmark
+    public UndoManager paintAndRecord(){
+        paintStroke();
+        undoManager.recordGameMap();
+        return undoManager;
+    }
+
+    @Benchmark
+    public UndoManager undoAndRedo(){
+        undoManager.doUndo();
+        undoManager.doRedo();
+        return undoManager;
+    }
+}
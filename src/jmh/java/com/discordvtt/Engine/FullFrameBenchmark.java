@@ -0,0 +1,62 @@
+package com.discordvtt.Engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class FullFrameBenchmark {
+
+    /**
+     * FullFrameBenchmark:
+     *
+     * The setup shared by benchmarks that compose whole frames with a windowless LayerManager: a screen some multiple of the default 59 x 31,
+     * with whatever Layers the benchmark stacks onto it, and a camera that moves back and forth by a cell every frame so that nothing can be reused.
+     */
+
+    LayerManager manager;
+    int width;
+    int height;
+    int cameraX = 0;
+    int cameraY = 0;
+    int frame = 0;
+
+    /**
+     * @return How many times wider and taller than the default screen the screen is.
+     */
+    abstract int screenScale();
+
+    /**
+     * Adds the benchmark's Layers to the manager, and points cameraX and cameraY to where the camera should be.
+     */
+    abstract void addLayers();
+
+    @Setup
+    public void setUp(){
+        width = 59 * screenScale();
+        height = 31 * screenScale();
+        manager = new LayerManager(width, height);
+        addLayers();
+        manager.setCameraPos(cameraX, cameraY);
+        manager.flush();
+        manager.composeNow();
+    }
+
+    @TearDown
+    public void tearDown(){
+        manager.dispose();
+    }
+
+    //Moving the camera redraws the whole screen
+    @Benchmark
+    public boolean composeFullFrame(){
+        frame++;
+        manager.setCameraPos(cameraX + (frame & 1), cameraY);
+        return manager.composeNow();
+    }
+}
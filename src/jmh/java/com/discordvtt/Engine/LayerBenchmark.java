@@ -0,0 +1,48 @@
+package com.discordvtt.Engine;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayerBenchmark {
+
+    /**
+     * LayerBenchmark:
+     *
+     * Whole-layer operations, in each storage mode.
+     */
+
+    @Param({"256", "2048"})
+    public int layerSize;
+
+    @Param({"0.05", "0.5", "1.0"})
+    public double density;
+
+    @Param({"0", "1", "2"})
+    public int storageMode; //Layer.STORAGE_PACKED, STORAGE_PALETTE, or STORAGE_CHUNKED
+
+    private Layer layer;
+
+    @Setup
+    public void setUp(){
+        layer = new Layer(layerSize, layerSize, "benchmark", 0, 0, 0, storageMode);
+        BenchmarkMaps.scatter(layer, density, 1);
+    }
+
+    //Replaces one of the palette's entries with a new one and back again, so every invocation sees the same layer
+    @Benchmark
+    public Layer findAndReplace(){
+        SpecialText find = BenchmarkMaps.PALETTE[0];
+        SpecialText replace = SpecialText.intern('%', find.getFgArgb(), find.getBkgArgb());
+        layer.findAndReplace(find, replace);
+        layer.findAndReplace(replace, find);
+        return layer;
+    }
+}
@@ -0,0 +1,39 @@
+package com.discordvtt.Engine;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+public class LayerCullingBenchmark extends FullFrameBenchmark {
+
+    /**
+     * LayerCullingBenchmark:
+     *
+     * Composing full frames of a world map with many small prefab and overlay Layers placed around it, most of them off screen.
+     */
+
+    @Param({"0", "16", "64"})
+    public int prefabCount;
+
+    private static final int MAP_SIZE = 1024;
+    private static final int PREFAB_SIZE = 24;
+
+    @Override
+    int screenScale() { return 2; }
+
+    @Override
+    void addLayers(){
+        Layer world = new Layer(MAP_SIZE, MAP_SIZE, "world", 0, 0, 0, Layer.STORAGE_CHUNKED);
+        BenchmarkMaps.scatter(world, 0.5, 0);
+        manager.addLayer(world);
+        Random random = new Random(1);
+        for (int i = 0; i < prefabCount; i++){
+            Layer prefab = new Layer(PREFAB_SIZE, PREFAB_SIZE, "prefab" + i, random.nextInt(MAP_SIZE - PREFAB_SIZE), random.nextInt(MAP_SIZE - PREFAB_SIZE), 1 + i);
+            BenchmarkMaps.scatter(prefab, 0.3, i + 1);
+            manager.addLayer(prefab);
+        }
+        cameraX = MAP_SIZE / 2;
+        cameraY = MAP_SIZE / 2;
+    }
+}
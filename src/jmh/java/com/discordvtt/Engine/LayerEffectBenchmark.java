@@ -0,0 +1,35 @@
+package com.discordvtt.Engine;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import com.discordvtt.Engine.Layers.NegatingLayer;
+import com.discordvtt.Engine.Layers.ShakingLayer;
+import org.openjdk.jmh.annotations.*;
+
+public class LayerEffectBenchmark extends FullFrameBenchmark {
+
+    /**
+     * LayerEffectBenchmark:
+     *
+     * Composing full frames of a map with NegatingLayers and ShakingLayers stacked on top of it, each one covering the whole screen.
+     */
+
+    @Param({"0", "1", "4", "16"})
+    public int effectCount;
+
+    private static final int MAP_SIZE = 256;
+
+    @Override
+    int screenScale() { return 2; }
+
+    @Override
+    void addLayers(){
+        Layer map = new Layer(MAP_SIZE, MAP_SIZE, "map", 0, 0, 0);
+        BenchmarkMaps.scatter(map, 0.5, 0);
+        manager.addLayer(map);
+        for (int i = 0; i < effectCount; i++){
+            Layer effect = (i % 2 == 0) ? new NegatingLayer(width, height, "negate" + i, 0, 0, 1 + i) : new ShakingLayer(width, height, "shake" + i, 0, 0, 1 + i);
+            effect.fixedScreenPos = true;
+            manager.addLayer(effect);
+        }
+    }
+}
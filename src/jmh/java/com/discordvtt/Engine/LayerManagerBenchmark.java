@@ -0,0 +1,67 @@
+package com.discordvtt.Engine;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+public class LayerManagerBenchmark extends FullFrameBenchmark {
+
+    /**
+     * LayerManagerBenchmark:
+     *
+     * Composing frames out of a stack of Layers, with a windowless LayerManager that only composes when told to.
+     */
+
+    @Param({"256", "2048"})
+    public int mapSize;
+
+    @Param({"3", "8"})
+    public int layerCount;
+
+    @Param({"0.05", "0.5", "1.0"})
+    public double density;
+
+    @Param({"1", "4"})
+    public int screenScale; //At 4, a full frame is big enough to be composed in parallel.
+
+    private Layer topLayer;
+
+    @Override
+    int screenScale() { return screenScale; }
+
+    @Override
+    void addLayers(){
+        for (int i = 0; i < layerCount; i++){
+            topLayer = new Layer(mapSize, mapSize, "layer" + i, 0, 0, i, Layer.STORAGE_CHUNKED);
+            BenchmarkMaps.scatter(topLayer, density, i);
+            manager.addLayer(topLayer);
+        }
+        cameraX = (mapSize - width) / 2;
+        cameraY = (mapSize - height) / 2;
+    }
+
+    //A brush stroke's worth of edits, which only redraws the cells they damaged
+    @Benchmark
+    public boolean composeDamagedFrame(){
+        frame++;
+        SpecialText text = BenchmarkMaps.PALETTE[frame % BenchmarkMaps.PALETTE.length];
+        int col = cameraX + width / 2;
+        int row = cameraY + height / 2;
+        for (int i = 0; i < 16; i++)
+            topLayer.editLayer(col + (i & 3), row + (i >> 2), text);
+        return manager.composeNow();
+    }
+
+    @Benchmark
+    public boolean composeUnchangedFrame(){
+        return manager.composeNow();
+    }
+
+    @Benchmark
+    public void projectSpecialTextToScreen(Blackhole blackhole){
+        int startPos = layerCount - 1;
+        for (int row = 0; row < height; row++)
+            for (int col = 0; col < width; col++)
+                blackhole.consume(manager.projectSpecialTextToScreen(col, row, startPos));
+    }
+}
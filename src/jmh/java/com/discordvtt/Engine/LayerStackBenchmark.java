@@ -0,0 +1,52 @@
+package com.discordvtt.Engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayerStackBenchmark {
+
+    /**
+     * LayerStackBenchmark:
+     *
+     * Finding, adding, and removing Layers in a stack of per-token and per-effect Layers.
+     */
+
+    @Param({"10", "100", "1000"})
+    public int layerCount;
+
+    private LayerStack stack;
+    private Layer[] layers;
+    private int next = 0;
+
+    @Setup
+    public void setUp(){
+        stack = new LayerStack();
+        layers = new Layer[layerCount];
+        for (int i = 0; i < layerCount; i++){
+            layers[i] = new Layer(1, 1, "token" + i, 0, 0, i % 5);
+            stack.add(layers[i]);
+        }
+    }
+
+    @Benchmark
+    public Layer getByName(){
+        next = (next + 1) % layerCount;
+        return stack.getFirst(layers[next].getName());
+    }
+
+    //Takes a Layer out and puts it back on top of its importance
+    @Benchmark
+    public Layer[] removeAndAdd(){
+        next = (next + 1) % layerCount;
+        stack.removeNamed(layers[next].getName());
+        stack.add(layers[next]);
+        return stack.snapshot();
+    }
+}
@@ -0,0 +1,77 @@
+package com.discordvtt.Engine;
+
+import com.discordvtt.Data.BenchmarkMaps;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ViewWindowPaintBenchmark {
+
+    /**
+     * ViewWindowPaintBenchmark:
+     *
+     * Painting a composed frame, headlessly: the ViewWindow is never shown, and paints into an offscreen BufferedImage instead.
+     * The same frame is also painted by an ImageRenderTarget, for comparison.
+     */
+
+    @Param({"0.05", "0.5", "1.0"})
+    public double density;
+
+    @Param({"12", "24"})
+    public int cellHeight; //In pixels. Cells are 3/5 as wide as they are tall.
+
+    private ViewWindow window;
+    private LayerManager manager;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private FrameBuffer frame;
+    private ImageRenderTarget imageTarget;
+
+    @Setup
+    public void setUp(){
+        window = new ViewWindow();
+        window.setSize(window.RESOLUTION_WIDTH * cellHeight * 3 / 5, window.RESOLUTION_HEIGHT * cellHeight);
+        window.recalculate();
+        manager = new LayerManager(window);
+        manager.getScheduler().stop(); //The benchmark composes the frame itself
+        CellBufferRenderTarget cells = new CellBufferRenderTarget();
+        manager.addRenderTarget(cells);
+        for (int i = 0; i < 3; i++){
+            Layer layer = new Layer(window.RESOLUTION_WIDTH, window.RESOLUTION_HEIGHT, "layer" + i, 0, 0, i);
+            BenchmarkMaps.scatter(layer, density, i);
+            manager.addLayer(layer);
+        }
+        manager.flush();
+        manager.composeNow();
+        frame = cells.copyFrame();
+        imageTarget = new ImageRenderTarget(window.HOR_SEPARATION, window.VER_SEPARATION);
+        image = new BufferedImage(window.getWidth(), window.getHeight(), BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown(){
+        graphics.dispose();
+        manager.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint(){
+        window.paintComponent(graphics);
+        return image;
+    }
+
+    @Benchmark
+    public ImageRenderTarget paintImageTarget(){
+        imageTarget.frameComposed(frame);
+        return imageTarget;
+    }
+}
@@ -0,0 +1,719 @@
+package com.discordvtt.Data;
+
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.LayerChunkSource;
+import com.discordvtt.Engine.SpecialText;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class ChunkedMapFile {
+
+    /**
+     * ChunkedMapFile:
+     *
+     * The version 3 to 5 .vttmap format: a container of separately compressed 32x32 chunks, with an index up front saying where each one is.
+     *
+     * Opening one reads only the index, and keeps the file open. Each layer is handed a LayerChunkSource that reads and decodes chunks straight out of the file,
+     * so a chunk is only ever decoded once the camera gets near it (see ChunkedCellStorage). A huge map shows its first screen about as fast as a tiny one.
+     *
+     * Saving writes every chunk anew, except the chunks that were never decoded since the map was opened. Those are copied over byte for byte.
+     * The map then reads those chunks out of the new file instead, and lets go of the old one before it is replaced.
+     * The file is read through a FileChannel rather than memory-mapped, since a mapping can't be let go of on demand, and Windows won't replace a mapped file.
+     *
+     * The format (everything big-endian):
+     *
+     *  Header:
+     *   > magic, version                 : "VTTM", then one byte, 3 to 5
+     *   > map id, journal sequence       : longs, from version 4 on. Which map this is, and the last edit of its MapJournal it includes.
+     *   > layer count                    : int
+     *   > each layer (backdrop, tokens, hide):
+     *     > name                         : int length, then UTF-8 bytes
+     *     > x, y, importance             : ints
+     *     > flags                        : One byte (1 = fixedScreenPos, 2 = visible)
+     *     > cols, rows                   : ints
+     *     > palette size, then entries   : int, then each entry's character (2 bytes), font ARGB and background ARGB (4 bytes each)
+     *     > chunk count, then entries    : int, then each chunk's x and y (in chunks), offset and length (in bytes).
+     *                                      All ints, except the offset, which is a long from version 5 on so that maps can grow past 2 GB.
+     *
+     *  Chunks, immediately after the header. Offsets count from the first byte after the header.
+     *   > Each chunk is deflated on its own. Inflated, it is a series of (run length, palette reference) varint pairs covering its cells row by row.
+     *     Reference 0 is an empty cell, and n is palette entry n - 1. Chunks with nothing in them aren't stored at all.
+     */
+
+    public static final int VERSION = 5;
+    public static final int FIRST_VERSION = 3;
+
+    private static final byte[] MAGIC = {'V', 'T', 'T', 'M'};
+    private static final int FLAG_FIXED_SCREEN_POS = 1;
+    private static final int FLAG_VISIBLE = 2;
+
+    private static final int CHUNK_SIZE = LayerChunkSource.CHUNK_SIZE;
+    private static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+    private static final int MAX_ENCODED_CHUNK = CHUNK_CELLS * 5; //Every cell its own run: at most 2 bytes of run length and 3 of reference
+    private static final int HEADER_READ = 1 << 16; //How much of the file is read to start with when looking for the end of the header
+
+    /**
+     * Opens a .vttmap file and reads its index. Cells are read and decoded later, as they are needed, so the file stays open while the map uses it.
+     *
+     * The file must not be overwritten in place while the map is open; replace it with a new file instead (as save() does).
+     */
+    public static GameMap open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            //The header's length isn't stored anywhere, so it's read in bigger and bigger pieces until it's all there
+            int readLength = (int)Math.min(size, HEADER_READ);
+            while (true) {
+                ByteBuffer header = ByteBuffer.allocate(readLength);
+                readFully(channel, header, 0);
+                header.flip();
+                try {
+                    GameMap gameMap = readHeader(header, file, channel, size);
+                    System.out.printf("[ChunkedMapFile.open] Opened %1$s (%2$d bytes)\n", file.getName(), size);
+                    return gameMap;
+                } catch (BufferUnderflowException e) {
+                    if (readLength >= size || readLength == Integer.MAX_VALUE)
+                        throw new IOException("The .vttmap file is cut short or corrupt", e);
+                    readLength = (int)Math.min(size, Math.min(Integer.MAX_VALUE, readLength * 2L));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            channel.close();
+            throw new IOException("The .vttmap file is cut short or corrupt", e);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Reads the header, and attaches each layer to the chunks following it. Throws a BufferUnderflowException if the header goes on past what was read.
+    private static GameMap readHeader(ByteBuffer header, File file, FileChannel channel, long size) throws IOException {
+        byte[] magic = new byte[MAGIC.length + 1];
+        header.get(magic);
+        int version = magic[MAGIC.length];
+        if (!GameMapCodec.isCodecFile(magic) || version < FIRST_VERSION || version > VERSION)
+            throw new IOException("Not a .vttmap v3 to v5 file");
+        long mapId = (version >= 4) ? header.getLong() : 0;
+        long journalSequence = (version >= 4) ? header.getLong() : 0;
+        int layerCount = header.getInt();
+        if (layerCount < 3)
+            throw new IOException("Expected 3 layers, found " + layerCount);
+        Layer[] layers = new Layer[layerCount];
+        LayerIndex[] indices = new LayerIndex[layerCount];
+        for (int i = 0; i < layerCount; i++){
+            byte[] name = new byte[header.getInt()];
+            header.get(name);
+            int x = header.getInt();
+            int y = header.getInt();
+            int importance = header.getInt();
+            int flags = header.get();
+            int cols = header.getInt();
+            int rows = header.getInt();
+            layers[i] = new Layer(cols, rows, new String(name, StandardCharsets.UTF_8), x, y, importance, Layer.STORAGE_CHUNKED);
+            layers[i].fixedScreenPos = (flags & FLAG_FIXED_SCREEN_POS) != 0;
+            layers[i].setVisible((flags & FLAG_VISIBLE) != 0);
+            indices[i] = readIndex(header, version);
+        }
+        ChunkFile chunkFile = new ChunkFile(file, channel, header.position()); //Chunk offsets count from the end of the header
+        long dataLength = size - header.position();
+        for (int i = 0; i < layerCount; i++){
+            LayerIndex index = indices[i];
+            for (int chunk = 0; chunk < index.offsets.length; chunk++)
+                if (index.offsets[chunk] < 0 || index.lengths[chunk] < 0 || index.offsets[chunk] + index.lengths[chunk] > dataLength)
+                    throw new IOException("Chunk index of layer '" + layers[i].getName() + "' points past the end of the file");
+        }
+        for (int i = 0; i < layerCount; i++)
+            layers[i].attachChunkSource(new FileChunkSource(chunkFile, indices[i]));
+        chunkFile.opened();
+        GameMap gameMap = new GameMap();
+        gameMap.setLayers(layers[0], layers[1], layers[2]);
+        gameMap.setOpenFile(chunkFile);
+        gameMap.setMapId(mapId);
+        gameMap.setJournalSequence(journalSequence);
+        return gameMap;
+    }
+
+    //Reads from a channel at a position until the buffer is full.
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("The .vttmap file is cut short");
+            position += read;
+        }
+    }
+
+    /**
+     * Reads just enough of a saved map to tell which journal edits it includes.
+     *
+     * @return The map's journal sequence, or -1 if the file can't be read or is a different map.
+     */
+    static long readJournalSequence(File file, long mapId){
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[MAGIC.length + 1];
+            in.readFully(magic);
+            if (!GameMapCodec.isCodecFile(magic) || magic[MAGIC.length] < 4 || in.readLong() != mapId) return -1;
+            return in.readLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static LayerIndex readIndex(ByteBuffer header, int version){
+        SpecialText[] palette = new SpecialText[header.getInt()];
+        for (int i = 0; i < palette.length; i++)
+            palette[i] = new SpecialText(header.getChar(), header.getInt(), header.getInt()); //Interned by the ChunkedCellStorage, once the layer is attached to it
+        int chunkCount = header.getInt();
+        LayerIndex index = new LayerIndex(palette, chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++){
+            index.chunkXs[chunk] = header.getInt();
+            index.chunkYs[chunk] = header.getInt();
+            index.offsets[chunk] = (version >= 5) ? header.getLong() : header.getInt();
+            index.lengths[chunk] = header.getInt();
+        }
+        return index;
+    }
+
+    public static void write(GameMap gameMap, OutputStream out) throws IOException {
+        write(gameMap, out, progress -> {});
+    }
+
+    /**
+     * @param progress Told how far along the save is, from 0 to 1, every so often.
+     */
+    public static void write(GameMap gameMap, OutputStream out, DoubleConsumer progress) throws IOException {
+        write(gameMap, out, progress, new HashMap<>());
+    }
+
+    /**
+     * Saves a GameMap to a file, replacing it once the new file is completely written, so a failed save leaves the old file as it was.
+     *
+     * Chunks copied over from the file the map was opened from are read out of the new file from then on, and the old file is let go of before it's replaced.
+     * The map being saved (or a copy of it) was likely opened from that very file, and Windows won't replace a file that's still open without being shared.
+     *
+     * @param progress Told how far along the save is, from 0 to 1, every so often.
+     */
+    public static void save(GameMap gameMap, File file, DoubleConsumer progress) throws IOException {
+        //A name of its own, since if it can't be moved into place, the map goes on reading chunks out of it and a later save mustn't overwrite it
+        File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        HashMap<FileChunkSource, long[]> copied = new HashMap<>();
+        long headerLength;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)) {
+            headerLength = write(gameMap, out, progress, copied);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        ChunkFile saved = null;
+        if (!copied.isEmpty()){
+            saved = new ChunkFile(file, FileChannel.open(temp.toPath(), StandardOpenOption.READ), headerLength); //Follows the file when it's moved into place
+            for (Map.Entry<FileChunkSource, long[]> entry : copied.entrySet())
+                entry.getKey().moveTo(saved, entry.getValue());
+        }
+        //Whatever else is still reading the old file (another map opened from it, or a copy of this one) reads what it has left into memory
+        for (ChunkFile open : ChunkFile.openOn(file))
+            open.close();
+        try {
+            FileIO.replaceFile(temp, file);
+        } catch (IOException e) {
+            if (saved == null) temp.delete(); //Otherwise the map is reading chunks out of it now
+            throw e;
+        }
+        if (saved != null) saved.opened();
+    }
+
+    /**
+     * @param copied Filled with where each copied chunk ended up, for every source chunks were copied from. Offsets count from the end of the header, and are -1 for chunks that weren't copied.
+     * @return The length of the header
+     */
+    private static long write(GameMap gameMap, OutputStream out, DoubleConsumer progress, HashMap<FileChunkSource, long[]> copied) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.write(MAGIC);
+        header.writeByte(VERSION);
+        header.writeLong(gameMap.getMapId());
+        header.writeLong(gameMap.getJournalSequence());
+        Layer[] layers = {gameMap.getBackdrop(), gameMap.getTokenLayer(), gameMap.getHideLayer()};
+        header.writeInt(layers.length);
+        ArrayList<ChunkOut> chunks = new ArrayList<>();
+        ChunkEncoder encoder = new ChunkEncoder();
+        ProgressCounter counter = new ProgressCounter(layers, progress);
+        long dataLength = 0;
+        for (Layer layer : layers)
+            dataLength = writeLayer(header, layer, chunks, dataLength, encoder, counter, copied);
+        encoder.end();
+        header.flush();
+
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes.toByteArray());
+        while (headerBuffer.hasRemaining()) channel.write(headerBuffer);
+        for (ChunkOut chunk : chunks){
+            ByteBuffer bytes = (chunk.encoded != null) ? chunk.encoded : chunk.source.rawChunk(chunk.chunk); //Copied chunks are only read in once it's their turn, rather than all held at once
+            while (bytes.hasRemaining()) channel.write(bytes);
+        }
+        out.flush();
+        progress.accept(1);
+        return headerBytes.size();
+    }
+
+    /**
+     * A chunk waiting to be written after the header: either freshly encoded, or to be copied out of the file its layer was opened from.
+     */
+    private static class ChunkOut {
+        final ByteBuffer encoded;
+        final FileChunkSource source;
+        final int chunk;
+
+        ChunkOut(ByteBuffer encoded, FileChunkSource source, int chunk){
+            this.encoded = encoded;
+            this.source = source;
+            this.chunk = chunk;
+        }
+    }
+
+    /**
+     * Counts chunk rows as they're written, for reporting progress.
+     */
+    private static class ProgressCounter {
+        private final DoubleConsumer progress;
+        private final long total;
+        private long done = 0;
+
+        ProgressCounter(Layer[] layers, DoubleConsumer progress){
+            this.progress = progress;
+            long chunkRows = 0;
+            for (Layer layer : layers) chunkRows += (layer.getRows() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            total = Math.max(chunkRows, 1);
+        }
+
+        void rowDone(){
+            progress.accept((double)++done / total);
+        }
+    }
+
+    //Writes a layer's part of the header, adding its chunks onto the list of chunks to write after the header.
+    private static long writeLayer(DataOutputStream header, Layer layer, ArrayList<ChunkOut> chunks, long dataLength, ChunkEncoder encoder, ProgressCounter counter, HashMap<FileChunkSource, long[]> copied) throws IOException {
+        byte[] name = layer.getName().getBytes(StandardCharsets.UTF_8);
+        header.writeInt(name.length);
+        header.write(name);
+        header.writeInt(layer.getX());
+        header.writeInt(layer.getY());
+        header.writeInt(layer.getImportance());
+        header.writeByte((layer.fixedScreenPos ? FLAG_FIXED_SCREEN_POS : 0) | (layer.getVisible() ? FLAG_VISIBLE : 0));
+        header.writeInt(layer.getCols());
+        header.writeInt(layer.getRows());
+
+        //Chunks that were never decoded are copied straight out of the file they came from. Their palette references stay valid by starting this palette off with that file's palette.
+        FileChunkSource source = (layer.getChunkSource() instanceof FileChunkSource) ? (FileChunkSource)layer.getChunkSource() : null;
+        encoder.startLayer(source != null ? source.getPalette() : new SpecialText[0]);
+        long[] copiedOffsets = null;
+        if (source != null){
+            copiedOffsets = new long[source.getChunkCount()];
+            Arrays.fill(copiedOffsets, -1);
+            copied.put(source, copiedOffsets);
+        }
+
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        int chunkCount = 0;
+        int chunkCols = (layer.getCols() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int chunkRows = (layer.getRows() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int chunkRow = 0; chunkRow < chunkRows; chunkRow++){
+            for (int chunkCol = 0; chunkCol < chunkCols; chunkCol++){
+                ChunkOut chunk;
+                int length;
+                int pending = (source != null) ? layer.getPendingChunk(chunkCol, chunkRow) : -1;
+                if (pending >= 0){
+                    chunk = new ChunkOut(null, source, pending);
+                    length = source.getChunkLength(pending);
+                    copiedOffsets[pending] = dataLength;
+                } else if (layer.isAreaEmpty(chunkCol * CHUNK_SIZE, chunkRow * CHUNK_SIZE, CHUNK_SIZE, CHUNK_SIZE))
+                    continue;
+                else {
+                    chunk = new ChunkOut(encoder.encode(layer, chunkCol, chunkRow), null, 0);
+                    length = chunk.encoded.remaining();
+                }
+                index.writeInt(chunkCol);
+                index.writeInt(chunkRow);
+                index.writeLong(dataLength);
+                index.writeInt(length);
+                dataLength += length;
+                chunks.add(chunk);
+                chunkCount++;
+            }
+            counter.rowDone();
+        }
+
+        ArrayList<SpecialText> palette = encoder.getPalette();
+        header.writeInt(palette.size());
+        for (SpecialText text : palette){
+            header.writeChar(text.getCharacter());
+            header.writeInt(text.getFgArgb());
+            header.writeInt(text.getBkgArgb());
+        }
+        header.writeInt(chunkCount);
+        index.flush();
+        indexBytes.writeTo(header);
+        return dataLength;
+    }
+
+    /**
+     * Where a layer's palette and chunks are, as read from the header.
+     */
+    private static class LayerIndex {
+        final SpecialText[] palette;
+        final int[] chunkXs;
+        final int[] chunkYs;
+        final long[] offsets;
+        final int[] lengths;
+
+        LayerIndex(SpecialText[] palette, int chunkCount){
+            this.palette = palette;
+            chunkXs = new int[chunkCount];
+            chunkYs = new int[chunkCount];
+            offsets = new long[chunkCount];
+            lengths = new int[chunkCount];
+        }
+    }
+
+    /**
+     * An open .vttmap file that layers read their chunks out of.
+     *
+     * Every open ChunkFile is kept track of by the path it was opened from, so that saving over a file can first make everything let go of it.
+     * Otherwise, it's closed once none of its FileChunkSources read from it anymore, or left to the garbage collector along with them.
+     */
+    private static class ChunkFile implements Closeable {
+        private static final HashMap<File, ArrayList<WeakReference<ChunkFile>>> OPEN_FILES = new HashMap<>();
+
+        private final File path;
+        private final FileChannel channel;
+        private final long dataStart;
+        private final ArrayList<WeakReference<FileChunkSource>> sources = new ArrayList<>();
+        private boolean closed = false;
+
+        ChunkFile(File path, FileChannel channel, long dataStart){
+            this.path = keyOf(path);
+            this.channel = channel;
+            this.dataStart = dataStart;
+        }
+
+        private static File keyOf(File file){
+            try {
+                return file.getCanonicalFile();
+            } catch (IOException e) {
+                return file.getAbsoluteFile();
+            }
+        }
+
+        //Starts keeping track of this file, once its sources are all attached.
+        void opened(){
+            synchronized (OPEN_FILES) {
+                OPEN_FILES.computeIfAbsent(path, key -> new ArrayList<>()).add(new WeakReference<>(this));
+            }
+        }
+
+        //The ChunkFiles still open on a file.
+        static ArrayList<ChunkFile> openOn(File file){
+            ArrayList<ChunkFile> open = new ArrayList<>();
+            synchronized (OPEN_FILES) {
+                ArrayList<WeakReference<ChunkFile>> files = OPEN_FILES.get(keyOf(file));
+                if (files == null) return open;
+                for (WeakReference<ChunkFile> reference : files)
+                    if (reference.get() != null) open.add(reference.get());
+            }
+            return open;
+        }
+
+        synchronized void addSource(FileChunkSource source){
+            sources.add(new WeakReference<>(source));
+        }
+
+        //Called once a source stops reading from this file. The file is closed when that was the last one.
+        void sourceLeft(){
+            synchronized (this) {
+                for (WeakReference<FileChunkSource> reference : sources){
+                    FileChunkSource source = reference.get();
+                    if (source != null && source.readsFrom(this)) return;
+                }
+            }
+            closeChannel();
+        }
+
+        //Has every source still reading this file read the rest of its chunks into memory, and then closes it.
+        @Override
+        public void close() throws IOException {
+            ArrayList<FileChunkSource> open = new ArrayList<>();
+            synchronized (this) {
+                for (WeakReference<FileChunkSource> reference : sources)
+                    if (reference.get() != null) open.add(reference.get());
+            }
+            for (FileChunkSource source : open)
+                source.load(this);
+            closeChannel();
+        }
+
+        private void closeChannel(){
+            synchronized (OPEN_FILES) {
+                if (closed) return;
+                closed = true;
+                ArrayList<WeakReference<ChunkFile>> files = OPEN_FILES.get(path);
+                if (files != null){
+                    files.removeIf(reference -> reference.get() == null || reference.get() == this);
+                    if (files.isEmpty()) OPEN_FILES.remove(path);
+                }
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        //Reads bytes that start some way into the chunk data. Safe to call from several threads at once, since nothing moves the channel's position.
+        ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer bytes = ByteBuffer.allocate(length);
+            readFully(channel, bytes, dataStart + offset);
+            bytes.flip();
+            return bytes;
+        }
+    }
+
+    /**
+     * Reads and decodes a layer's chunks out of a ChunkFile.
+     *
+     * Once the map is saved, the source moves onto the new file (see moveTo()). Chunks that weren't copied into it are read into memory first,
+     * since a copy of the layer may still be waiting to decode them.
+     */
+    private static class FileChunkSource implements LayerChunkSource {
+        private final LayerIndex index;
+        private volatile ChunkLocations locations;
+
+        FileChunkSource(ChunkFile file, LayerIndex index){
+            this.index = index;
+            locations = new ChunkLocations(file, index.offsets, new ByteBuffer[index.offsets.length]);
+            file.addSource(this);
+        }
+
+        @Override
+        public SpecialText[] getPalette() { return index.palette; }
+
+        @Override
+        public int getChunkCount() { return index.offsets.length; }
+
+        @Override
+        public int getChunkX(int chunk) { return index.chunkXs[chunk]; }
+
+        @Override
+        public int getChunkY(int chunk) { return index.chunkYs[chunk]; }
+
+        int getChunkLength(int chunk) { return index.lengths[chunk]; }
+
+        //The chunk's bytes, still compressed. Each call gets its own buffer, so different threads don't trip over each other's positions.
+        ByteBuffer rawChunk(int chunk) throws IOException {
+            while (true) {
+                ChunkLocations current = locations;
+                try {
+                    return current.read(chunk, index.lengths[chunk]);
+                } catch (ClosedChannelException e) {
+                    if (locations == current) throw e; //Otherwise the source moved to a new file while this was reading from the old one
+                }
+            }
+        }
+
+        /**
+         * Moves onto a newly saved file, letting go of the old one.
+         *
+         * @param offsets Where each chunk is in the new file, or -1 for the ones that aren't in it
+         */
+        void moveTo(ChunkFile file, long[] offsets) throws IOException {
+            ChunkLocations old;
+            synchronized (this) {
+                old = locations;
+                ByteBuffer[] loaded = new ByteBuffer[offsets.length];
+                for (int chunk = 0; chunk < offsets.length; chunk++)
+                    if (offsets[chunk] < 0)
+                        loaded[chunk] = old.loaded(chunk, index.lengths[chunk]);
+                file.addSource(this);
+                locations = new ChunkLocations(file, offsets, loaded);
+            }
+            if (old.file != null) old.file.sourceLeft();
+        }
+
+        //Reads every chunk still in a file into memory, if this source is reading from that file.
+        synchronized void load(ChunkFile file) throws IOException {
+            ChunkLocations old = locations;
+            if (old.file != file) return;
+            ByteBuffer[] loaded = new ByteBuffer[index.offsets.length];
+            for (int chunk = 0; chunk < loaded.length; chunk++)
+                loaded[chunk] = old.loaded(chunk, index.lengths[chunk]);
+            locations = new ChunkLocations(null, index.offsets, loaded);
+        }
+
+        boolean readsFrom(ChunkFile file){
+            return locations.file == file;
+        }
+
+        @Override
+        public boolean readChunk(int chunk, int[] refs) {
+            byte[] encoded = new byte[MAX_ENCODED_CHUNK];
+            Inflater inflater = new Inflater();
+            try {
+                ByteBuffer raw = rawChunk(chunk);
+                inflater.setInput(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+                int length = inflater.inflate(encoded);
+                if (!inflater.finished())
+                    throw new DataFormatException("chunk inflates past " + MAX_ENCODED_CHUNK + " bytes");
+                int[] position = {0};
+                int cell = 0;
+                while (cell < CHUNK_CELLS){
+                    int runLength = readVarInt(encoded, length, position);
+                    int ref = readVarInt(encoded, length, position);
+                    if (runLength <= 0 || cell + runLength > CHUNK_CELLS || ref < 0 || ref > index.palette.length)
+                        throw new DataFormatException("bad run");
+                    for (int i = 0; i < runLength; i++) refs[cell++] = ref;
+                }
+                return true;
+            } catch (DataFormatException e) {
+                System.out.printf("[ChunkedMapFile.readChunk] Chunk (%1$d,%2$d) is corrupt and was left empty: %3$s\n", getChunkX(chunk), getChunkY(chunk), e.getMessage());
+                return false;
+            } catch (IOException e) {
+                System.out.printf("[ChunkedMapFile.readChunk] Chunk (%1$d,%2$d) couldn't be read and was left empty: %3$s\n", getChunkX(chunk), getChunkY(chunk), e.getMessage());
+                return false;
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Where a FileChunkSource's chunks are: in a file, or for some of them (or all, with no file), already read into memory.
+     */
+    private static class ChunkLocations {
+        final ChunkFile file;
+        final long[] offsets;
+        final ByteBuffer[] loaded;
+
+        ChunkLocations(ChunkFile file, long[] offsets, ByteBuffer[] loaded){
+            this.file = file;
+            this.offsets = offsets;
+            this.loaded = loaded;
+        }
+
+        ByteBuffer read(int chunk, int length) throws IOException {
+            return (loaded[chunk] != null) ? loaded[chunk].duplicate() : file.read(offsets[chunk], length);
+        }
+
+        //The chunk's bytes, kept in memory
+        ByteBuffer loaded(int chunk, int length) throws IOException {
+            return (loaded[chunk] != null) ? loaded[chunk] : file.read(offsets[chunk], length);
+        }
+    }
+
+    private static int readVarInt(byte[] bytes, int length, int[] position) throws DataFormatException {
+        int value = 0;
+        for (int shift = 0; shift < 35 && position[0] < length; shift += 7){
+            int b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new DataFormatException("malformed varint");
+    }
+
+    /**
+     * Turns chunks of a layer into compressed bytes, building up the layer's palette as it goes. Reused from chunk to chunk, and layer to layer.
+     */
+    private static class ChunkEncoder {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] encoded = new byte[MAX_ENCODED_CHUNK];
+        private final byte[] compressed = new byte[MAX_ENCODED_CHUNK + 64];
+        private final int[] refs = new int[CHUNK_CELLS];
+        private ArrayList<SpecialText> palette;
+        private HashMap<SpecialText, Integer> paletteRefs;
+
+        void startLayer(SpecialText[] startingPalette){
+            palette = new ArrayList<>();
+            paletteRefs = new HashMap<>();
+            for (SpecialText text : startingPalette) refOf(text);
+        }
+
+        ArrayList<SpecialText> getPalette() { return palette; }
+
+        private int refOf(SpecialText text){
+            Integer ref = paletteRefs.get(text);
+            if (ref == null){
+                palette.add(text);
+                ref = palette.size();
+                paletteRefs.put(text, ref);
+            }
+            return ref;
+        }
+
+        ByteBuffer encode(Layer layer, int chunkCol, int chunkRow){
+            SpecialText previous = null;
+            int previousRef = 0;
+            for (int cell = 0; cell < CHUNK_CELLS; cell++){
+                int col = chunkCol * CHUNK_SIZE + cell % CHUNK_SIZE;
+                int row = chunkRow * CHUNK_SIZE + cell / CHUNK_SIZE;
+                SpecialText text = layer.isLayerLocInvalid(col, row) ? null : layer.getSpecialText(col, row);
+                if (text == null)
+                    refs[cell] = 0;
+                else if (text == previous) //Neighboring cells are usually the same, and interned
+                    refs[cell] = previousRef;
+                else {
+                    previous = text;
+                    previousRef = refOf(text);
+                    refs[cell] = previousRef;
+                }
+            }
+
+            int length = 0;
+            int cell = 0;
+            while (cell < CHUNK_CELLS){
+                int runLength = 1;
+                while (cell + runLength < CHUNK_CELLS && refs[cell + runLength] == refs[cell]) runLength++;
+                length = writeVarInt(encoded, length, runLength);
+                length = writeVarInt(encoded, length, refs[cell]);
+                cell += runLength;
+            }
+
+            deflater.reset();
+            deflater.setInput(encoded, 0, length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished())
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            byte[] chunk = new byte[compressedLength];
+            System.arraycopy(compressed, 0, chunk, 0, compressedLength);
+            return ByteBuffer.wrap(chunk);
+        }
+
+        void end(){
+            deflater.end();
+        }
+    }
+
+    private static int writeVarInt(byte[] bytes, int position, int value){
+        while ((value & ~0x7F) != 0){
+            bytes[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte)value;
+        return position;
+    }
+}
@@ -7,6 +7,10 @@ import java.io.*;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.function.DoubleConsumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -150,20 +154,19 @@ public class FileIO {
     }
 
     /**
-     * De-serializes a .vttmap file that is compressed via GZIP.
+     * Opens a .vttmap file.
+     *
+     * Files are saved as a ChunkedMapFile (versions 3 to 5), which is read lazily so that only the chunks that come into view get decoded.
+     * Version 2 files are read in whole by the GameMapCodec, and version 1 files are GZIP'd serialized GameMaps.
+     * They are told apart by their first few bytes, so all of them open the same way.
      *
      * @param savedLevel The GameMap file being opened.
      * @return The now-usable GameMap.
      */
     public GameMap openLevel(File savedLevel){
         try {
-            FileInputStream fileIn = new FileInputStream(savedLevel);
-            GZIPInputStream gzipIn = new GZIPInputStream(fileIn);
-            ObjectInputStream objIn = new ObjectInputStream(gzipIn);
-            GameMap gameMap = (GameMap)objIn.readObject();
-            objIn.close();
-            gzipIn.close();
-            fileIn.close();
+            GameMap gameMap = readLevel(savedLevel);
+            MapJournal.replay(savedLevel.getPath(), gameMap); //Brings back any edits made after the map was last saved, if the editor didn't close cleanly
             return gameMap;
         } catch (IOException | ClassNotFoundException e) {
             JOptionPane.showMessageDialog(new JFrame(), "ERROR: File being accessed is out of date / improper!", "Error", JOptionPane.ERROR_MESSAGE);
@@ -172,6 +175,22 @@ public class FileIO {
         return null;
     }
 
+    private GameMap readLevel(File savedLevel) throws IOException, ClassNotFoundException {
+        try (BufferedInputStream fileIn = new BufferedInputStream(new FileInputStream(savedLevel), 1 << 16)) {
+            byte[] header = new byte[5];
+            fileIn.mark(header.length);
+            int headerLength = fileIn.read(header);
+            fileIn.reset();
+            if (headerLength == header.length && GameMapCodec.isCodecFile(header))
+                return (header[4] >= ChunkedMapFile.FIRST_VERSION) ? ChunkedMapFile.open(savedLevel) : GameMapCodec.read(fileIn);
+            GZIPInputStream gzipIn = new GZIPInputStream(fileIn);
+            ObjectInputStream objIn = new ObjectInputStream(gzipIn);
+            GameMap gameMap = (GameMap)objIn.readObject();
+            objIn.close();
+            return gameMap;
+        }
+    }
+
     /**
      * Serializes a GameMap (saving it) as a .vttmap file
      * @param gamemap GameMap being saved
@@ -179,6 +198,19 @@ public class FileIO {
      * @return chosen file path
      */
     public String serializeGameMap(GameMap gamemap, String startingPath){
+        String path = chooseGameMapSavePath(startingPath);
+        if (!path.equals(""))
+            quickSerializeGameMap(gamemap, path);
+        return path;
+    }
+
+    /**
+     * Runs the FileChooser to pick where to save a .vttmap file.
+     *
+     * @param startingPath file path to start prompt from
+     * @return chosen file path, or "" if nothing was chosen
+     */
+    public String chooseGameMapSavePath(String startingPath){
         String path;
         JFileChooser fileChooser = new JFileChooser(startingPath);
         int fileChooseOption = fileChooser.showSaveDialog(new Component(){});
@@ -187,14 +219,16 @@ public class FileIO {
             if (!path.endsWith(".vttmap")) { // Add '.vttmap' to file if user didn't.
                 path += ".vttmap";
             }
-            quickSerializeGameMap(gamemap, path);
             return path;
         }
         return "";
     }
 
     /**
-     * Performs a serialization of a GameMap without opening a FileChooser.
+     * Performs a serialization of a GameMap without opening a FileChooser, as a ChunkedMapFile.
+     *
+     * The map is written to a temporary file which then replaces the old one, rather than overwriting it.
+     * The map being saved was likely opened from that very file, and may still be decoding chunks out of it (see ChunkedMapFile.save()).
      *
      * NOTE: the input file path must be the non-relative type.
      *
@@ -203,20 +237,36 @@ public class FileIO {
      */
     public void quickSerializeGameMap(GameMap gamemap, String path){
         try {
-            FileOutputStream out = new FileOutputStream(path);
-            GZIPOutputStream gzipOut = new GZIPOutputStream(out);
-            ObjectOutputStream objOut = new ObjectOutputStream(gzipOut);
-            objOut.writeObject(gamemap);
-            objOut.flush();
-            objOut.close();
-            gzipOut.close();
-            out.close();
-            System.out.println("[FileIO.serializeGameMap] Saved level to: " + path);
+            writeGameMap(gamemap, path, progress -> {});
         } catch (java.io.IOException e) {
+            JOptionPane.showMessageDialog(new JFrame(), "ERROR: Could not save " + new File(path).getName() + ":\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             e.printStackTrace();
         }
     }
 
+    /**
+     * Writes a GameMap to a .vttmap file, as a ChunkedMapFile. quickSerializeGameMap() without the error handling, for the MapSaver.
+     *
+     * The file is only replaced once the new one is completely written, so a failed save leaves the old file as it was.
+     *
+     * @param gamemap The GameMap being written
+     * @param path The 'full' file path being saved to.
+     * @param progress Told how far along the save is, from 0 to 1
+     */
+    public void writeGameMap(GameMap gamemap, String path, DoubleConsumer progress) throws IOException {
+        ChunkedMapFile.save(gamemap, new File(path), progress);
+        System.out.println("[FileIO.writeGameMap] Saved level to: " + path);
+    }
+
+    //Moves a finished temporary file over the one it replaces, atomically where the file system allows it.
+    static void replaceFile(File temp, File target) throws IOException {
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     private Object openSerializedFile(File gameFile){
         try {
             FileInputStream fileIn = new FileInputStream(gameFile);
@@ -2,7 +2,11 @@ package com.discordvtt.Data;
 
 import com.discordvtt.Engine.Layer;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Random;
 
 public class GameMap implements Serializable {
 
@@ -12,6 +16,12 @@ public class GameMap implements Serializable {
     private Layer tokenLayer;
     private Layer hideLayer;
 
+    //Which edits of the MapJournal this map already has: the last one applied, and which map the journal is for.
+    private transient long journalSequence = 0;
+    private transient long mapId = 0;
+
+    private transient Closeable openFile; //The .vttmap file the layers read their chunks out of, if the map was opened from one
+
     public Layer getBackdrop() {
         return backdrop;
     }
@@ -22,11 +32,23 @@ public class GameMap implements Serializable {
 
     public Layer getHideLayer() { return hideLayer; }
 
+    /**
+     * @return A copy of this GameMap that can be read from another thread (like by the MapSaver) while this one keeps being edited.
+     * Chunked layers copy cheaply, since their copies share whatever hasn't been loaded from file yet.
+     */
     public GameMap copy(){
         GameMap copy = new GameMap();
-        copy.backdrop = backdrop.copy();
-        copy.tokenLayer = tokenLayer.copy();
-        copy.hideLayer = hideLayer.copy();
+        copy.backdrop = copyLayer(backdrop);
+        copy.tokenLayer = copyLayer(tokenLayer);
+        copy.hideLayer = copyLayer(hideLayer);
+        copy.journalSequence = journalSequence;
+        copy.mapId = getMapId();
+        return copy;
+    }
+
+    private static Layer copyLayer(Layer layer){
+        Layer copy = layer.copy();
+        copy.setVisible(layer.getVisible()); //Layer.copy() always makes the copy visible, but the hide layer's visibility is saved with the map
         return copy;
     }
 
@@ -34,29 +56,76 @@ public class GameMap implements Serializable {
         backdrop.transpose(other.getBackdrop());
         tokenLayer.transpose(other.getTokenLayer());
         hideLayer.transpose(other.getHideLayer());
+        journalSequence = other.journalSequence;
+        mapId = other.getMapId();
+    }
+
+    long getJournalSequence() { return journalSequence; }
+
+    void setJournalSequence(long journalSequence) { this.journalSequence = journalSequence; }
+
+    //A random number telling maps apart, so that a journal is never replayed onto a map it wasn't written for.
+    long getMapId() {
+        while (mapId == 0) mapId = new Random().nextLong();
+        return mapId;
+    }
+
+    void setMapId(long mapId) { this.mapId = mapId; }
+
+    //Maps opened from a file that didn't save an id have none until they're given one
+    boolean hasMapId() { return mapId != 0; }
+
+    /**
+     * Gives the map a new id, for when it's saved as a different file. The two files then each have a journal of their own.
+     */
+    public void renewMapId() {
+        mapId = 0;
+        getMapId();
+    }
+
+    void setOpenFile(Closeable openFile) { this.openFile = openFile; }
+
+    /**
+     * Lets go of the .vttmap file the map was opened from, after reading every chunk still in it into memory. The map can still be used afterwards.
+     * Does nothing if the map wasn't opened from a .vttmap file, or has already let go of it.
+     */
+    public void close() throws IOException {
+        Closeable file = openFile;
+        openFile = null;
+        if (file != null) file.close();
     }
 
     public void initialize(int width, int height){
-        backdrop = new Layer(width, height, "backdrop", 0, 0, LayerImportances.BACKDROP);
-        tokenLayer = new Layer(width, height, "tokenLayer", 0, 0, LayerImportances.TOKENS);
-        hideLayer = new Layer(width, height, "hide", 0, 0, LayerImportances.HIDE);
+        backdrop = new Layer(width, height, "backdrop", 0, 0, LayerImportances.BACKDROP, Layer.STORAGE_CHUNKED);
+        tokenLayer = new Layer(width, height, "tokenLayer", 0, 0, LayerImportances.TOKENS, Layer.STORAGE_CHUNKED);
+        hideLayer = new Layer(width, height, "hide", 0, 0, LayerImportances.HIDE, Layer.STORAGE_CHUNKED);
+    }
+
+    //Used by the GameMapCodec when reading a map back in
+    void setLayers(Layer backdrop, Layer tokenLayer, Layer hideLayer){
+        this.backdrop = backdrop;
+        this.tokenLayer = tokenLayer;
+        this.hideLayer = hideLayer;
+    }
+
+    //Maps are drawn with only a few distinct SpecialTexts and are mostly empty space, so their layers store palette indices in chunks that only exist where something is drawn.
+    private void useChunkedStorage(){
+        backdrop.setStorageMode(Layer.STORAGE_CHUNKED);
+        tokenLayer.setStorageMode(Layer.STORAGE_CHUNKED);
+        hideLayer.setStorageMode(Layer.STORAGE_CHUNKED);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        useChunkedStorage(); //Older map files were saved before layers had storage modes
     }
 
     public void initialize() { initialize(51, 27); }
 
     public void resize(int newWidth, int newHeight, int offsetX, int offsetY){
-        //Due to pointer-y things, the following workaround must exist:
-        GameMap newMap = new GameMap(); //We create a new GameMap that this GameMap will eventually take on its properties
-        newMap.initialize(newWidth, newHeight); //We have to do this since the layer in the LayerManager doesn't change if we write over a new object onto this object's fields
-        Coordinate offset = new Coordinate(offsetX, offsetY);
-        //System.out.printf("[GameMap.resize] Offset: %1$s\n", offset);
-        //After making a new-sized GameMap, we now insert this GameMap's layers into it
-        newMap.getBackdrop().insert(backdrop, offset);
-        newMap.getTokenLayer().insert(tokenLayer, offset);
-        newMap.getHideLayer().insert(hideLayer, offset);
-        //Lastly, now that we have built our new layers, we make this GameMap take on those layers as its own.
-        backdrop.transpose(newMap.getBackdrop());
-        tokenLayer.transpose(newMap.getTokenLayer());
-        hideLayer.transpose(newMap.getHideLayer());
+        //The layers are resized in place, since the LayerManager holds onto these exact Layer objects. With chunked storage, growing the map this way is nearly free.
+        backdrop.resizeLayer(newWidth, newHeight, offsetX, offsetY);
+        tokenLayer.resizeLayer(newWidth, newHeight, offsetX, offsetY);
+        hideLayer.resizeLayer(newWidth, newHeight, offsetX, offsetY);
     }
 }
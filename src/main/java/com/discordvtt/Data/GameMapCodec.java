@@ -0,0 +1,230 @@
+package com.discordvtt.Data;
+
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.SpecialText;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class GameMapCodec {
+
+    /**
+     * GameMapCodec:
+     *
+     * Reads and writes GameMaps in the version 2 .vttmap format, a plain binary format that doesn't depend on Java serialization.
+     * Both directions stream straight between the Layers and the file, so neither end ever builds a copy of the whole map.
+     *
+     * The format:
+     *
+     *  Header (uncompressed):
+     *   > magic   : The four bytes "VTTM"
+     *   > version : One byte, currently 2
+     *
+     *  Body (deflated):
+     *   > layer count, and then for each layer (backdrop, tokens, hide):
+     *     > name                                     : UTF
+     *     > x, y, importance                         : signed varints
+     *     > flags                                    : One byte (1 = fixedScreenPos, 2 = visible)
+     *     > storage mode, cols, rows                 : varints
+     *     > palette size, then each palette entry    : character (2 bytes), font ARGB (4 bytes), background ARGB (4 bytes)
+     *     > runs, until every cell is covered        : run length, palette reference (0 for empty cells, otherwise palette entry + 1). Both varints.
+     *
+     *  Cells are run-length encoded row by row, so the empty space and big floors that make up most maps take up a couple of bytes per run.
+     *
+     * Version 1 files are the GZIP'd Java serialization of a GameMap. They start with the GZIP magic number instead, which is how FileIO tells the two apart.
+     */
+
+    public static final int VERSION = 2;
+
+    private static final byte[] MAGIC = {'V', 'T', 'T', 'M'};
+    private static final int FLAG_FIXED_SCREEN_POS = 1;
+    private static final int FLAG_VISIBLE = 2;
+
+    /**
+     * @param header The first bytes of a file
+     * @return Whether those bytes start a version 2 (or later) .vttmap file.
+     */
+    public static boolean isCodecFile(byte[] header){
+        if (header.length < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++)
+            if (header[i] != MAGIC[i]) return false;
+        return true;
+    }
+
+    public static void write(GameMap gameMap, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        DeflaterOutputStream deflated = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), 1 << 16);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(deflated, 1 << 16));
+        Layer[] layers = {gameMap.getBackdrop(), gameMap.getTokenLayer(), gameMap.getHideLayer()};
+        writeVarInt(data, layers.length);
+        for (Layer layer : layers)
+            writeLayer(data, layer);
+        data.flush();
+        deflated.finish();
+        out.flush();
+    }
+
+    public static GameMap read(InputStream in) throws IOException {
+        byte[] header = new byte[MAGIC.length + 1];
+        new DataInputStream(in).readFully(header);
+        if (!isCodecFile(header))
+            throw new IOException("Not a .vttmap v2 file");
+        if (header[MAGIC.length] > VERSION)
+            throw new IOException("The .vttmap file is from a newer version (" + header[MAGIC.length] + ")");
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), 1 << 16));
+        int layerCount = readVarInt(data);
+        if (layerCount < 3)
+            throw new IOException("Expected 3 layers, found " + layerCount);
+        Layer[] layers = new Layer[layerCount];
+        for (int i = 0; i < layerCount; i++)
+            layers[i] = readLayer(data);
+        GameMap gameMap = new GameMap();
+        gameMap.setLayers(layers[0], layers[1], layers[2]);
+        return gameMap;
+    }
+
+    private static void writeLayer(DataOutputStream data, Layer layer) throws IOException {
+        data.writeUTF(layer.getName());
+        writeSignedVarInt(data, layer.getX());
+        writeSignedVarInt(data, layer.getY());
+        writeSignedVarInt(data, layer.getImportance());
+        data.writeByte((layer.fixedScreenPos ? FLAG_FIXED_SCREEN_POS : 0) | (layer.getVisible() ? FLAG_VISIBLE : 0));
+        writeVarInt(data, layer.getStorageMode());
+        int cols = layer.getCols();
+        int rows = layer.getRows();
+        writeVarInt(data, cols);
+        writeVarInt(data, rows);
+
+        //The palette has to come before the runs, so the runs are gathered up first. They're only a pair of ints each, and there are far fewer runs than cells.
+        HashMap<SpecialText, Integer> paletteRefs = new HashMap<>();
+        ArrayList<SpecialText> palette = new ArrayList<>();
+        IntList runs = new IntList();
+        int total = cols * rows;
+        int cell = 0;
+        while (cell < total) {
+            int col = cell % cols;
+            int row = cell / cols;
+            boolean empty = layer.isCellEmpty(col, row);
+            char c = empty ? 0 : layer.getCharAt(col, row);
+            int fg = empty ? 0 : layer.getFgArgbAt(col, row);
+            int bg = empty ? 0 : layer.getBkgArgbAt(col, row);
+            int length = 1;
+            while (cell + length < total) {
+                int nextCol = (cell + length) % cols;
+                int nextRow = (cell + length) / cols;
+                if (layer.isCellEmpty(nextCol, nextRow) != empty) break;
+                if (!empty && (layer.getCharAt(nextCol, nextRow) != c || layer.getFgArgbAt(nextCol, nextRow) != fg || layer.getBkgArgbAt(nextCol, nextRow) != bg)) break;
+                length++;
+            }
+            int ref = 0;
+            if (!empty) {
+                SpecialText text = new SpecialText(c, fg, bg); //Only a key for the file's palette, so it isn't interned
+                Integer existing = paletteRefs.get(text);
+                if (existing == null) {
+                    palette.add(text);
+                    existing = palette.size();
+                    paletteRefs.put(text, existing);
+                }
+                ref = existing;
+            }
+            runs.add(length);
+            runs.add(ref);
+            cell += length;
+        }
+
+        writeVarInt(data, palette.size());
+        for (SpecialText text : palette) {
+            data.writeChar(text.getCharacter());
+            data.writeInt(text.getFgArgb());
+            data.writeInt(text.getBkgArgb());
+        }
+        for (int i = 0; i < runs.size(); i++)
+            writeVarInt(data, runs.get(i));
+    }
+
+    private static Layer readLayer(DataInputStream data) throws IOException {
+        String name = data.readUTF();
+        int x = readSignedVarInt(data);
+        int y = readSignedVarInt(data);
+        int importance = readSignedVarInt(data);
+        int flags = data.readUnsignedByte();
+        int storageMode = readVarInt(data);
+        int cols = readVarInt(data);
+        int rows = readVarInt(data);
+        Layer layer = new Layer(cols, rows, name, x, y, importance, storageMode);
+        layer.fixedScreenPos = (flags & FLAG_FIXED_SCREEN_POS) != 0;
+        layer.setVisible((flags & FLAG_VISIBLE) != 0);
+
+        int paletteSize = readVarInt(data);
+        SpecialText[] palette = new SpecialText[paletteSize + 1]; //Reference 0 stays null, for empty cells
+        for (int i = 1; i <= paletteSize; i++)
+            palette[i] = new SpecialText(data.readChar(), data.readInt(), data.readInt()); //Layers intern whatever they store
+
+        long total = (long)cols * rows;
+        long cell = 0;
+        while (cell < total) {
+            int length = readVarInt(data);
+            int ref = readVarInt(data);
+            if (length <= 0 || cell + length > total || ref > paletteSize)
+                throw new IOException("Corrupt cell data in layer '" + name + "'");
+            if (ref != 0) {
+                SpecialText text = palette[ref];
+                for (long i = cell; i < cell + length; i++)
+                    layer.editLayer((int)(i % cols), (int)(i / cols), text);
+            }
+            cell += length;
+        }
+        return layer;
+    }
+
+    static void writeVarInt(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    static void writeSignedVarInt(DataOutputStream data, int value) throws IOException {
+        writeVarInt(data, (value << 1) ^ (value >> 31)); //Zig-zag, so small negative numbers stay small
+    }
+
+    static int readVarInt(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int readSignedVarInt(DataInputStream data) throws IOException {
+        int raw = readVarInt(data);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    //A growable list of ints, so that gathering runs doesn't box every one of them.
+    private static class IntList {
+        private int[] values = new int[256];
+        private int size = 0;
+
+        void add(int value){
+            if (size == values.length){
+                int[] grown = new int[values.length * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) { return values[index]; }
+
+        int size() { return size; }
+    }
+}
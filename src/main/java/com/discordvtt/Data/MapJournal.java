@@ -0,0 +1,462 @@
+package com.discordvtt.Data;
+
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.SpecialText;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+public class MapJournal {
+
+    /**
+     * MapJournal:
+     *
+     * A write-ahead log of a GameMap's edits, kept next to its .vttmap file, so that whatever was drawn since the last save survives a crash.
+     *
+     * Each committed stroke is appended to the end of the journal as one small record, numbered one after the map's last.
+     * A saved map remembers the number of the last record it includes, so opening a map (FileIO.openLevel()) replays only the records that came after it.
+     * Once a save has landed, the records it covers are compacted out of the journal.
+     *
+     * The journal is only there for when the editor doesn't close cleanly. Closing the editor, or moving on to another map or file, discards it (see discard()),
+     * so that edits which were never saved don't come back the next time the map is opened.
+     * Maps from before maps had ids (.vttmap v3 and older) have none saved, so they take on the id of the journal next to them.
+     *
+     * The journal's format:
+     *   > magic, version         : "VTTJ", then one byte
+     *   > map id                 : long. The journal only applies to the map with this id.
+     *   > records, until the end : body length (int), body, CRC32 of the body (int)
+     *
+     * A record's body is its sequence number (long), followed by operations:
+     *   > cells  : 1, layer, palette size then each entry (character, font ARGB, background ARGB), cell count, then each cell's column and row
+     *              as the difference from the cell before it (signed varints) and its palette reference (0 for empty cells, otherwise palette entry + 1)
+     *   > resize : 2, layer, width, height, then offset x and y (signed varints)
+     *   > fill   : 3, layer, then 0 to clear every cell, or 1 followed by the character, font ARGB and background ARGB to fill every cell with
+     * Layers are numbered 0 for the backdrop, 1 for the tokens, and 2 for the hide layer.
+     *
+     * A record cut short or garbled by a crash ends the journal; the records before it still count.
+     */
+
+    public static final String EXTENSION = ".journal";
+
+    private static final byte[] MAGIC = {'V', 'T', 'T', 'J'};
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 8;
+    private static final int MAX_RECORD_LENGTH = 1 << 28;
+
+    private static final int OP_CELLS = 1;
+    private static final int OP_RESIZE = 2;
+    private static final int OP_FILL = 3;
+
+    private final File mapFile;
+    private final File file;
+    private final GameMap gameMap;
+    private DataOutputStream out;
+    private long length; //Of the whole journal, including its header
+
+    //A record is put together here first, since its length and checksum come before and after it
+    private final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(1024);
+    private final DataOutputStream body = new DataOutputStream(bodyBytes);
+    private final HashMap<SpecialText, Integer> paletteRefs = new HashMap<>();
+    private final ArrayList<SpecialText> palette = new ArrayList<>();
+    private long recordSequence = -1; //Of the record being put together, or -1 if there isn't one
+
+    private MapJournal(File mapFile, GameMap gameMap){
+        this.mapFile = mapFile;
+        file = new File(mapFile.getPath() + EXTENSION);
+        this.gameMap = gameMap;
+    }
+
+    /**
+     * Carries on the journal of a map that was just opened, after FileIO has replayed it.
+     * If the journal there belongs to some other map (or there isn't one), a new one is started instead.
+     *
+     * @param mapPath The 'full' file path of the map
+     */
+    public static MapJournal open(String mapPath, GameMap gameMap) throws IOException {
+        MapJournal journal = new MapJournal(new File(mapPath), gameMap);
+        long intactLength = readRecords(journal.file, gameMap.getMapId(), null);
+        if (intactLength < 0)
+            journal.startOver();
+        else
+            journal.openForAppending(intactLength); //Anything after the intact part was torn by a crash, and is written over
+        return journal;
+    }
+
+    /**
+     * Starts a new journal for a map that is being saved somewhere for the first time, replacing whatever journal was there.
+     *
+     * @param mapPath The 'full' file path of the map
+     */
+    public static MapJournal create(String mapPath, GameMap gameMap) throws IOException {
+        MapJournal journal = new MapJournal(new File(mapPath), gameMap);
+        journal.startOver();
+        return journal;
+    }
+
+    /**
+     * Applies the records in a map's journal that the map doesn't include yet.
+     *
+     * @param mapPath The 'full' file path of the map
+     * @return The number of records applied
+     */
+    static int replay(String mapPath, GameMap gameMap){
+        File file = new File(mapPath + EXTENSION);
+        if (!file.exists()) return 0;
+        int[] replayed = {0};
+        try {
+            if (!gameMap.hasMapId()){
+                long journalId = readMapId(file);
+                if (journalId == 0) return 0;
+                gameMap.setMapId(journalId); //Then its journal keeps matching it until it's saved with an id of its own
+            }
+            readRecords(file, gameMap.getMapId(), (sequence, in, record, recordLength) -> {
+                if (sequence <= gameMap.getJournalSequence()) return;
+                applyRecord(gameMap, in);
+                gameMap.setJournalSequence(sequence);
+                replayed[0]++;
+            });
+        } catch (IOException e) { //The map itself is fine, so it still opens with whatever could be recovered
+            System.out.printf("[MapJournal.replay] Stopped replaying %1$s after %2$d edits\n", file.getPath(), replayed[0]);
+            e.printStackTrace();
+        }
+        if (replayed[0] > 0)
+            System.out.printf("[MapJournal.replay] Recovered %1$d unsaved edits of %2$s\n", replayed[0], mapPath);
+        return replayed[0];
+    }
+
+    /**
+     * Starts a record of one stroke. Everything appended until endRecord() is replayed all together, or not at all.
+     */
+    public void beginRecord(){
+        if (out == null) return;
+        bodyBytes.reset();
+        recordSequence = gameMap.getJournalSequence() + 1;
+        try {
+            body.writeLong(recordSequence);
+        } catch (IOException e) { //Writing into a ByteArrayOutputStream doesn't actually fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Notes that some cells of a layer were changed to the given contents.
+     *
+     * @param layer One of the journaled map's layers
+     * @param count How many of the cells in the arrays to append
+     * @param texts What each cell holds now. null for empty cells.
+     */
+    public void appendCells(Layer layer, int count, int[] cols, int[] rows, SpecialText[] texts){
+        int layerIndex = indexOf(layer);
+        if (recordSequence < 0 || layerIndex < 0 || count == 0) return;
+        paletteRefs.clear();
+        palette.clear();
+        for (int i = 0; i < count; i++){
+            if (texts[i] != null && !paletteRefs.containsKey(texts[i])){
+                palette.add(texts[i]);
+                paletteRefs.put(texts[i], palette.size());
+            }
+        }
+        try {
+            body.writeByte(OP_CELLS);
+            body.writeByte(layerIndex);
+            GameMapCodec.writeVarInt(body, palette.size());
+            for (SpecialText text : palette){
+                body.writeChar(text.getCharacter());
+                body.writeInt(text.getFgArgb());
+                body.writeInt(text.getBkgArgb());
+            }
+            GameMapCodec.writeVarInt(body, count);
+            int lastCol = 0;
+            int lastRow = 0;
+            for (int i = 0; i < count; i++){
+                GameMapCodec.writeSignedVarInt(body, cols[i] - lastCol);
+                GameMapCodec.writeSignedVarInt(body, rows[i] - lastRow);
+                GameMapCodec.writeVarInt(body, (texts[i] == null) ? 0 : paletteRefs.get(texts[i]));
+                lastCol = cols[i];
+                lastRow = rows[i];
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Notes that a layer was resized. The arguments are those of Layer.resizeLayer().
+     */
+    public void appendResize(Layer layer, int width, int height, int offsetX, int offsetY){
+        int layerIndex = indexOf(layer);
+        if (recordSequence < 0 || layerIndex < 0) return;
+        try {
+            body.writeByte(OP_RESIZE);
+            body.writeByte(layerIndex);
+            GameMapCodec.writeVarInt(body, width);
+            GameMapCodec.writeVarInt(body, height);
+            GameMapCodec.writeSignedVarInt(body, offsetX);
+            GameMapCodec.writeSignedVarInt(body, offsetY);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Notes that a whole layer was cleared or filled.
+     *
+     * @param fill What every cell holds now, or null if the layer was cleared
+     */
+    public void appendFill(Layer layer, SpecialText fill){
+        int layerIndex = indexOf(layer);
+        if (recordSequence < 0 || layerIndex < 0) return;
+        try {
+            body.writeByte(OP_FILL);
+            body.writeByte(layerIndex);
+            body.writeByte(fill == null ? 0 : 1);
+            if (fill != null){
+                body.writeChar(fill.getCharacter());
+                body.writeInt(fill.getFgArgb());
+                body.writeInt(fill.getBkgArgb());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes out the record begun by beginRecord().
+     * It's handed to the operating system right away, so it survives the editor crashing, but isn't forced onto the disk.
+     */
+    public void endRecord(){
+        if (recordSequence < 0) return;
+        long sequence = recordSequence;
+        recordSequence = -1;
+        if (out == null || bodyBytes.size() <= 8) return; //Nothing was appended
+        try {
+            writeRecord(out, bodyBytes.toByteArray(), bodyBytes.size());
+            out.flush();
+            length += bodyBytes.size() + 8;
+            gameMap.setJournalSequence(sequence);
+        } catch (IOException e) {
+            fail("write to", e);
+        }
+    }
+
+    /**
+     * @return Whether there are records which the saved map might not include yet.
+     */
+    public boolean hasRecords(){
+        return length > HEADER_LENGTH;
+    }
+
+    public long getLength() { return length; }
+
+    /**
+     * Drops the records which the map file now includes, such as after it was saved. Records of edits made while the save was going on are kept.
+     */
+    public void compact(){
+        if (out == null) return;
+        long savedSequence = ChunkedMapFile.readJournalSequence(mapFile, gameMap.getMapId());
+        if (savedSequence < 0) return; //The save didn't land, or has since been overwritten by another map
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            out.close();
+            out = null;
+            long[] keptLength = {HEADER_LENGTH};
+            try (DataOutputStream kept = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                writeHeader(kept, gameMap.getMapId());
+                readRecords(file, gameMap.getMapId(), (sequence, in, record, recordLength) -> {
+                    if (sequence <= savedSequence) return;
+                    writeRecord(kept, record, recordLength);
+                    keptLength[0] += recordLength + 8;
+                });
+            }
+            FileIO.replaceFile(temp, file);
+            System.out.printf("[MapJournal.compact] Journal trimmed from %1$d to %2$d bytes\n", length, keptLength[0]);
+            openForAppending(keptLength[0]);
+        } catch (IOException e) {
+            temp.delete();
+            fail("compact", e);
+        }
+    }
+
+    /**
+     * Stops journaling. The journal file stays, so that a later open can carry on from it, as if the editor had crashed.
+     */
+    public void close(){
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+    }
+
+    /**
+     * Stops journaling and deletes the journal, for when the map is closed cleanly. Whatever wasn't saved into the map file is given up.
+     */
+    public void discard(){
+        close();
+        if (file.exists() && !file.delete())
+            System.out.printf("[MapJournal.discard] Could not delete %1$s\n", file.getPath());
+    }
+
+    /**
+     * @return The 'full' file path of the map this journal is for.
+     */
+    public String getMapPath(){
+        return mapFile.getPath();
+    }
+
+    private void startOver() throws IOException {
+        try (DataOutputStream header = new DataOutputStream(new FileOutputStream(file))) {
+            writeHeader(header, gameMap.getMapId());
+        }
+        openForAppending(HEADER_LENGTH);
+    }
+
+    private void openForAppending(long intactLength) throws IOException {
+        if (file.length() > intactLength){
+            try (RandomAccessFile torn = new RandomAccessFile(file, "rw")) {
+                torn.setLength(intactLength);
+            }
+        }
+        length = intactLength;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+    }
+
+    //Journaling is only a safety net, so if the disk stops cooperating, editing carries on without it.
+    private void fail(String action, IOException e){
+        System.out.printf("[MapJournal] Failed to %1$s %2$s; edits are no longer journaled\n", action, file.getPath());
+        e.printStackTrace();
+        close();
+    }
+
+    private int indexOf(Layer layer){
+        if (layer == gameMap.getBackdrop()) return 0;
+        if (layer == gameMap.getTokenLayer()) return 1;
+        if (layer == gameMap.getHideLayer()) return 2;
+        return -1;
+    }
+
+    private static Layer layerAt(GameMap gameMap, int index) throws IOException {
+        switch (index) {
+            case 0: return gameMap.getBackdrop();
+            case 1: return gameMap.getTokenLayer();
+            case 2: return gameMap.getHideLayer();
+            default: throw new IOException("Unknown layer " + index);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, long mapId) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(mapId);
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record, int recordLength) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, recordLength);
+        out.writeInt(recordLength);
+        out.write(record, 0, recordLength);
+        out.writeInt((int)crc.getValue());
+    }
+
+    //The map id a journal was written for, or 0 if it isn't a journal.
+    private static long readMapId(File file){
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[MAGIC.length + 1];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++)
+                if (magic[i] != MAGIC[i]) return 0;
+            return (magic[MAGIC.length] == VERSION) ? in.readLong() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private interface RecordVisitor {
+        /**
+         * @param in The rest of the record, after its sequence number
+         * @param record The whole record, for copying it as is. Only valid during the call.
+         */
+        void visit(long sequence, DataInputStream in, byte[] record, int recordLength) throws IOException;
+    }
+
+    /**
+     * Goes through the intact records of a journal, in order.
+     *
+     * @param visitor Shown each record. May be null.
+     * @return The length of the intact part of the journal, or -1 if it isn't a journal of the map with this id
+     */
+    private static long readRecords(File file, long mapId, RecordVisitor visitor) throws IOException {
+        if (!file.exists()) return -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length + 1];
+            try {
+                in.readFully(magic);
+                for (int i = 0; i < MAGIC.length; i++)
+                    if (magic[i] != MAGIC[i]) return -1;
+                if (magic[MAGIC.length] != VERSION || in.readLong() != mapId) return -1;
+            } catch (EOFException e) {
+                return -1;
+            }
+            long intactLength = HEADER_LENGTH;
+            CRC32 crc = new CRC32();
+            byte[] record = new byte[1024];
+            while (true) {
+                int recordLength;
+                try {
+                    recordLength = in.readInt();
+                    if (recordLength < 8 || recordLength > MAX_RECORD_LENGTH) break;
+                    if (recordLength > record.length) record = new byte[Math.max(recordLength, record.length * 2)];
+                    in.readFully(record, 0, recordLength);
+                    crc.reset();
+                    crc.update(record, 0, recordLength);
+                    if (in.readInt() != (int)crc.getValue()) break;
+                } catch (EOFException e) {
+                    break;
+                }
+                if (visitor != null) {
+                    DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record, 0, recordLength));
+                    visitor.visit(recordIn.readLong(), recordIn, record, recordLength);
+                }
+                intactLength += recordLength + 8;
+            }
+            return intactLength;
+        }
+    }
+
+    private static void applyRecord(GameMap gameMap, DataInputStream in) throws IOException {
+        while (in.available() > 0) {
+            int op = in.readUnsignedByte();
+            Layer layer = layerAt(gameMap, in.readUnsignedByte());
+            if (op == OP_CELLS) {
+                int paletteSize = GameMapCodec.readVarInt(in);
+                SpecialText[] palette = new SpecialText[paletteSize + 1]; //Reference 0 stays null, for empty cells
+                for (int i = 1; i <= paletteSize; i++)
+                    palette[i] = new SpecialText(in.readChar(), in.readInt(), in.readInt()); //Layers intern whatever they store
+                int count = GameMapCodec.readVarInt(in);
+                int col = 0;
+                int row = 0;
+                for (int i = 0; i < count; i++) {
+                    col += GameMapCodec.readSignedVarInt(in);
+                    row += GameMapCodec.readSignedVarInt(in);
+                    int ref = GameMapCodec.readVarInt(in);
+                    if (ref > paletteSize) throw new IOException("Bad palette reference in journal");
+                    layer.editLayer(col, row, palette[ref]);
+                }
+            } else if (op == OP_RESIZE) {
+                int width = GameMapCodec.readVarInt(in);
+                int height = GameMapCodec.readVarInt(in);
+                layer.resizeLayer(width, height, GameMapCodec.readSignedVarInt(in), GameMapCodec.readSignedVarInt(in));
+            } else if (op == OP_FILL) {
+                if (in.readUnsignedByte() == 0)
+                    layer.clearLayer();
+                else
+                    layer.fillLayer(new SpecialText(in.readChar(), in.readInt(), in.readInt()));
+            } else
+                throw new IOException("Unknown journal operation " + op);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.discordvtt.Data;
+
+import javax.swing.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MapSaver {
+
+    /**
+     * MapSaver:
+     *
+     * Saves GameMaps without holding up the Event Dispatch Thread (or drawing).
+     *
+     * Saving takes a snapshot of the map (GameMap.copy()) right away, which is all that happens on the calling thread.
+     * The snapshot is encoded, compressed, and written on a background thread, so editing can carry on meanwhile without tearing the saved file.
+     * The file is written next to the old one and then moved over it, so a failed save never leaves a half-written map behind.
+     *
+     * Saves run one at a time, in order. If a file is saved again before an earlier save of it has started, the earlier one is skipped.
+     * The SaveListener hears about progress and the outcome on the Event Dispatch Thread.
+     */
+
+    public interface SaveListener {
+        /**
+         * @param progress How far along the save is, from 0 to 1
+         */
+        void onSaveProgress(String path, double progress);
+
+        void onSaveFinished(String path);
+
+        void onSaveFailed(String path, Exception e);
+    }
+
+    private static final int PROGRESS_STEPS = 100; //Progress is only reported when it moves a whole percent, to not flood the Event Dispatch Thread
+
+    //Not a daemon, so that a save in progress still finishes if the editor is closed. The thread ends once it has been idle for a bit, so it doesn't keep the program open.
+    private final ThreadPoolExecutor saver = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "Map Saver"));
+
+    public MapSaver(){
+        saver.allowCoreThreadTimeOut(true);
+    }
+
+    private final ConcurrentHashMap<String, Long> latestSaves = new ConcurrentHashMap<>();
+    private final AtomicLong saveCount = new AtomicLong();
+
+    /**
+     * Starts saving a GameMap. Must be called from the thread that edits the map (normally the Event Dispatch Thread), so that the snapshot is consistent.
+     *
+     * @param gameMap The GameMap to save
+     * @param path The 'full' file path being saved to.
+     * @param listener Told about the save's progress and outcome. May be null.
+     * @return A Future that completes once the save is over. If the save failed, get() throws the reason why, wrapped in an ExecutionException.
+     */
+    public Future<?> save(GameMap gameMap, String path, SaveListener listener){
+        GameMap snapshot = gameMap.copy();
+        long saveId = saveCount.incrementAndGet();
+        latestSaves.put(path, saveId);
+        return saver.submit(() -> {
+            if (latestSaves.get(path) != saveId) return null; //A newer save of this file is queued up right behind
+            try {
+                int[] reportedStep = {-1};
+                new FileIO().writeGameMap(snapshot, path, progress -> {
+                    int step = (int)(progress * PROGRESS_STEPS);
+                    if (step != reportedStep[0]){
+                        reportedStep[0] = step;
+                        if (listener != null) SwingUtilities.invokeLater(() -> listener.onSaveProgress(path, (double)step / PROGRESS_STEPS));
+                    }
+                });
+                if (listener != null) SwingUtilities.invokeLater(() -> listener.onSaveFinished(path));
+            } catch (Exception e) {
+                System.out.printf("[MapSaver.save] Failed to save %1$s\n", path);
+                e.printStackTrace();
+                if (listener != null) SwingUtilities.invokeLater(() -> listener.onSaveFailed(path, e));
+                throw e; //So that whoever waits on the Future hears about it too
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package com.discordvtt.Discord;
+
+import javax.security.auth.login.LoginException;
+
+public class DiscordConnection {
+
+    /**
+     * DiscordConnection:
+     *
+     * The editor's one bot connection, shared by every window that publishes, made the first time something is published.
+     *
+     * The bot token is read from the DISCORDVTT_TOKEN environment variable (or the discordvtt.token system property) so that it never ends up in a map file.
+     * Setting the discordvtt.localDiscord system property to true publishes to a LocalMessageSink instead, for trying things out without a bot.
+     */
+
+    private static final String TOKEN_VARIABLE = "DISCORDVTT_TOKEN";
+
+    private static MapPublisher publisher;
+
+    /**
+     * @return Whether publishing will need a token that isn't known yet
+     */
+    public static synchronized boolean needsToken(){
+        return publisher == null && !Boolean.getBoolean("discordvtt.localDiscord") && findToken() == null;
+    }
+
+    /**
+     * Connects to Discord if that hasn't happened yet, which blocks until the bot is logged in. Don't call this on the Event Dispatch Thread.
+     *
+     * @param token The bot token to log in with, if one isn't set in the environment. May be null otherwise.
+     * @return The MapPublisher sending through the connection
+     */
+    public static synchronized MapPublisher getPublisher(String token) throws LoginException, InterruptedException {
+        if (publisher != null) return publisher;
+        if (Boolean.getBoolean("discordvtt.localDiscord"))
+            publisher = new MapPublisher(new LocalMessageSink());
+        else {
+            String foundToken = findToken();
+            if (foundToken == null) foundToken = token;
+            if (foundToken == null || foundToken.isEmpty()) throw new LoginException("No bot token given; set the " + TOKEN_VARIABLE + " environment variable");
+            publisher = new MapPublisher(JdaMessageSink.connect(foundToken));
+        }
+        return publisher;
+    }
+
+    private static String findToken(){
+        String token = System.getenv(TOKEN_VARIABLE);
+        if (token == null || token.isEmpty()) token = System.getProperty("discordvtt.token");
+        return (token == null || token.isEmpty()) ? null : token;
+    }
+}
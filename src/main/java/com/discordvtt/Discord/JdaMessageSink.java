@@ -0,0 +1,72 @@
+package com.discordvtt.Discord;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.TextChannel;
+
+import javax.security.auth.login.LoginException;
+import java.util.concurrent.CompletableFuture;
+
+public class JdaMessageSink implements MessageSink {
+
+    /**
+     * JdaMessageSink:
+     *
+     * Posts messages to Discord through a JDA bot connection.
+     * JDA already waits out Discord's rate limits by itself, so requests are only ever delayed, not refused. The MapPublisher keeps the number of them low.
+     */
+
+    private final JDA jda;
+
+    public JdaMessageSink(JDA jda){
+        this.jda = jda;
+    }
+
+    /**
+     * Logs the bot in, waiting until it is ready to send messages.
+     *
+     * @param token The bot's token
+     */
+    public static JdaMessageSink connect(String token) throws LoginException, InterruptedException {
+        JDA jda = new JDABuilder(token).build();
+        jda.awaitReady();
+        return new JdaMessageSink(jda);
+    }
+
+    @Override
+    public CompletableFuture<Long> send(long channelId, String content) {
+        try {
+            return getChannel(channelId).sendMessage(content).submit().thenApply(Message::getIdLong);
+        } catch (RuntimeException e) { //JDA checks things like message length and permissions up front, and throws instead of failing the request
+            return failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> edit(long channelId, long messageId, String content) {
+        try {
+            return getChannel(channelId).editMessageById(messageId, content).submit().thenApply(message -> null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    public JDA getJda() { return jda; }
+
+    public void shutdown(){
+        jda.shutdown();
+    }
+
+    private TextChannel getChannel(long channelId){
+        TextChannel channel = jda.getTextChannelById(channelId);
+        if (channel == null) throw new IllegalArgumentException("The bot can't see a text channel with ID " + channelId);
+        return channel;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable cause){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+}
@@ -0,0 +1,73 @@
+package com.discordvtt.Discord;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class LocalMessageSink implements MessageSink {
+
+    /**
+     * LocalMessageSink:
+     *
+     * A stand-in for Discord that keeps messages in memory, for trying out publishing without a bot or a network connection.
+     * It counts every request made of it, so that it's easy to see how many calls to Discord a session of editing would have cost.
+     *
+     * Requests finish immediately. Like Discord, it refuses messages that are too long and edits of messages that don't exist.
+     */
+
+    private final Map<Long, String> contents = new HashMap<>(); //Message ID -> contents
+    private final Map<Long, Long> channels = new HashMap<>(); //Message ID -> channel ID
+    private long nextMessageId = 1;
+
+    private int sendCount = 0;
+    private int editCount = 0;
+
+    @Override
+    public synchronized CompletableFuture<Long> send(long channelId, String content) {
+        sendCount++;
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (content.length() > MAX_MESSAGE_LENGTH)
+            future.completeExceptionally(new IllegalArgumentException("Message is " + content.length() + " characters long"));
+        else {
+            long messageId = nextMessageId++;
+            contents.put(messageId, content);
+            channels.put(messageId, channelId);
+            future.complete(messageId);
+        }
+        return future;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> edit(long channelId, long messageId, String content) {
+        editCount++;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (content.length() > MAX_MESSAGE_LENGTH)
+            future.completeExceptionally(new IllegalArgumentException("Message is " + content.length() + " characters long"));
+        else if (!contents.containsKey(messageId) || channels.get(messageId) != channelId)
+            future.completeExceptionally(new IllegalArgumentException("Unknown message " + messageId + " in channel " + channelId));
+        else {
+            contents.put(messageId, content);
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * Deletes a message, as if someone on Discord had.
+     */
+    public synchronized void delete(long messageId){
+        contents.remove(messageId);
+        channels.remove(messageId);
+    }
+
+    /**
+     * @return The message's current contents, or null if there isn't one with that ID
+     */
+    public synchronized String getContent(long messageId) { return contents.get(messageId); }
+
+    public synchronized int getSendCount() { return sendCount; }
+
+    public synchronized int getEditCount() { return editCount; }
+
+    public synchronized int getRequestCount() { return sendCount + editCount; }
+}
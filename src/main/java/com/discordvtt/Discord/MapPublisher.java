@@ -0,0 +1,241 @@
+package com.discordvtt.Discord;
+
+import com.discordvtt.Data.Coordinate;
+import com.discordvtt.Data.GameMap;
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.LayerListener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MapPublisher {
+
+    /**
+     * MapPublisher:
+     *
+     * Keeps areas of GameMaps posted in Discord channels up to date. Each area is a Publication: one message that is sent once, then edited whenever the map changes.
+     *
+     * Discord only allows a handful of requests to a channel every few seconds, and a busy map changes far more often than that, so updates are held back:
+     *  > Changes are coalesced per message. However many edits happen in the meantime, a message gets at most one request at a time, showing the latest map.
+     *  > Updates wait until the map has been left alone for a moment (the quiet period), so that a token being dragged around is sent once, where it ends up.
+     *  > Updates to a message are spaced at least the minimum interval apart. With the default of 15 seconds, a message costs at most 4 requests a minute, however busy combat gets.
+     *  > The map is rendered before anything is sent, and nothing is sent if the text came out the same as what's already posted (like when the changes were outside the area).
+     *
+     * All of this happens on the publisher's own thread, so the Event Dispatch Thread is only ever held up by noting that something changed.
+     */
+
+    private static final long DEFAULT_QUIET_MILLIS = 1000;
+    private static final long DEFAULT_MINIMUM_INTERVAL_MILLIS = 15000;
+
+    private final MessageSink sink;
+    private final ScheduledExecutorService publisherThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Map Publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MapTextRenderer renderer = new MapTextRenderer();
+    private final CopyOnWriteArrayList<Publication> publications = new CopyOnWriteArrayList<>();
+
+    private volatile long quietNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_QUIET_MILLIS);
+    private volatile long minimumIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MINIMUM_INTERVAL_MILLIS);
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong messagesEdited = new AtomicLong();
+    private final AtomicLong unchangedRenders = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    public MapPublisher(MessageSink sink){
+        this.sink = sink;
+    }
+
+    /**
+     * Starts posting an area of a GameMap to a channel. The first message goes out right away, and is kept updated until the Publication is stopped.
+     *
+     * @param gameMap The GameMap to post. Its layers are watched for changes.
+     * @param channelId The channel to post to
+     * @param origin The map position of the top-left corner of the area
+     * @param viewBounds The width and height of the area
+     */
+    public Publication publish(GameMap gameMap, long channelId, Coordinate origin, Coordinate viewBounds, boolean includeDots, boolean includeRuler){
+        Publication publication = new Publication(gameMap, channelId);
+        publication.settings = new RenderSettings(origin, viewBounds, includeDots, includeRuler);
+        publications.add(publication);
+        publication.listenToLayers(true);
+        publication.lastChangeNanos = System.nanoTime() - quietNanos; //The first message shouldn't wait
+        publication.schedule(0);
+        return publication;
+    }
+
+    /**
+     * @param quietMillis How long the map needs to go unchanged before an update is sent
+     */
+    public void setQuietPeriod(long quietMillis) { quietNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, quietMillis)); }
+
+    /**
+     * @param minimumIntervalMillis How long to wait at least between two requests for the same message
+     */
+    public void setMinimumInterval(long minimumIntervalMillis) { minimumIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minimumIntervalMillis)); }
+
+    public long getMessagesSent() { return messagesSent.get(); }
+
+    public long getMessagesEdited() { return messagesEdited.get(); }
+
+    public long getUnchangedRenders() { return unchangedRenders.get(); }
+
+    public long getFailedRequests() { return failedRequests.get(); }
+
+    public MessageSink getSink() { return sink; }
+
+    /**
+     * Stops every Publication and the publisher's thread. Requests already on their way to Discord still finish.
+     */
+    public void shutdown(){
+        for (Publication publication : publications)
+            publication.stop();
+        publisherThread.shutdown();
+    }
+
+    public class Publication implements LayerListener {
+
+        private final GameMap gameMap;
+        private final long channelId;
+
+        //The area to render. Replaced as a whole, so that the publisher thread never sees half of a change.
+        private volatile RenderSettings settings;
+
+        private volatile boolean dirty = true;
+        private volatile long lastChangeNanos;
+        private volatile boolean stopped = false;
+        private volatile boolean scheduled = false; //Whether an update() is waiting on the publisher thread. Only set while holding this Publication's lock.
+
+        //Only touched on the publisher thread
+        private boolean requestInFlight = false;
+        private long lastRequestNanos = System.nanoTime() - minimumIntervalNanos;
+        private String postedText;
+        private volatile long messageId = 0; //0 until the first message is sent
+
+        private Publication(GameMap gameMap, long channelId){
+            this.gameMap = gameMap;
+            this.channelId = channelId;
+        }
+
+        /**
+         * Moves the published area, or changes how it's drawn. The message is updated the same way as when the map changes.
+         */
+        public void setArea(Coordinate origin, Coordinate viewBounds, boolean includeDots, boolean includeRuler){
+            settings = new RenderSettings(origin, viewBounds, includeDots, includeRuler);
+            markDirty();
+        }
+
+        /**
+         * Notes that the message may be out of date. This can be called from any thread, as often as needed; the work happens later on the publisher thread.
+         */
+        public void markDirty(){
+            lastChangeNanos = System.nanoTime();
+            dirty = true;
+            if (!scheduled) schedule(TimeUnit.NANOSECONDS.toMillis(quietNanos));
+        }
+
+        @Override
+        public void onLayerDamaged(Layer layer) {
+            markDirty(); //Runs for every edited cell, so it only ever notes the change
+        }
+
+        /**
+         * Stops updating the message. The message itself stays in the channel, as last sent.
+         */
+        public void stop(){
+            stopped = true;
+            listenToLayers(false);
+            publications.remove(this);
+        }
+
+        public boolean isStopped() { return stopped; }
+
+        public long getChannelId() { return channelId; }
+
+        /**
+         * @return The ID of the message being kept updated, or 0 if it hasn't been sent yet
+         */
+        public long getMessageId() { return messageId; }
+
+        private void listenToLayers(boolean listen){
+            for (Layer layer : new Layer[]{gameMap.getBackdrop(), gameMap.getTokenLayer(), gameMap.getHideLayer()}){
+                if (listen) layer.addLayerListener(this);
+                else layer.removeLayerListener(this);
+            }
+        }
+
+        private synchronized void schedule(long delayMillis){
+            if (scheduled || stopped) return;
+            scheduled = true;
+            publisherThread.schedule(this::update, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void update(){
+            synchronized (this) {
+                scheduled = false;
+            }
+            if (stopped || requestInFlight || !dirty) return; //A request that is still on its way checks for changes when it finishes
+            long now = System.nanoTime();
+            long due = Math.max(lastChangeNanos + quietNanos, lastRequestNanos + minimumIntervalNanos);
+            if (due > now){
+                schedule(TimeUnit.NANOSECONDS.toMillis(due - now) + 1);
+                return;
+            }
+            dirty = false; //Cleared before rendering, so that changes made while rendering are picked up by another update
+            RenderSettings area = settings;
+            String text = renderer.render(gameMap, area.origin, area.viewBounds, area.includeDots, area.includeRuler);
+            if (text.equals(postedText)){
+                unchangedRenders.incrementAndGet();
+                return;
+            }
+            if (text.length() > MessageSink.MAX_MESSAGE_LENGTH){
+                System.out.printf("[MapPublisher.update] Render of %1$d characters is too long for a Discord message; not sending it\n", text.length());
+                return;
+            }
+            requestInFlight = true;
+            lastRequestNanos = now;
+            boolean editing = messageId != 0;
+            CompletableFuture<?> request = (editing) ? sink.edit(channelId, messageId, text) : sink.send(channelId, text).thenAccept(id -> messageId = id);
+            request.whenCompleteAsync((result, failure) -> requestFinished(text, editing, failure), publisherThread);
+        }
+
+        private void requestFinished(String text, boolean editing, Throwable failure){
+            requestInFlight = false;
+            if (failure == null){
+                postedText = text;
+                if (editing) messagesEdited.incrementAndGet();
+                else messagesSent.incrementAndGet();
+            } else {
+                failedRequests.incrementAndGet();
+                System.out.printf("[MapPublisher.requestFinished] Couldn't %1$s message in channel %2$d: %3$s\n", (editing) ? "edit" : "send", channelId, failure);
+                if (editing){ //Most likely someone deleted the message, so post a new one
+                    messageId = 0;
+                    postedText = null;
+                    dirty = true;
+                }
+            }
+            if (dirty) schedule(0); //update() works out how much longer to wait
+        }
+    }
+
+    private static class RenderSettings {
+        private final Coordinate origin;
+        private final Coordinate viewBounds;
+        private final boolean includeDots;
+        private final boolean includeRuler;
+
+        private RenderSettings(Coordinate origin, Coordinate viewBounds, boolean includeDots, boolean includeRuler){
+            this.origin = origin;
+            this.viewBounds = viewBounds;
+            this.includeDots = includeDots;
+            this.includeRuler = includeRuler;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.discordvtt.Discord;
+
+import com.discordvtt.Data.Coordinate;
+import com.discordvtt.Data.GameMap;
+import com.discordvtt.Engine.Layer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+public class MapTextRenderer {
+
+    /**
+     * MapTextRenderer:
+     *
+     * Turns an area of a GameMap into plain text that looks right in a Discord message: the ExportWindow shows it for copying by hand, and the MapPublisher posts it.
+     *
+     * The text is written out a line at a time into any Appendable, so an area as large as the whole map can go straight into a file without ever being held in memory at once.
+     * Each line starts as a copy of a template line (the ruler, the border, or a row of dots) and then has the map's cells written over it.
+     * The template lines are made once per area size and kept until the size or options change, and the map is read through Layer's primitive accessors,
+     * so rendering allocates nothing besides the output itself.
+     *
+     * It reads the map from whichever thread calls it. One renderer can be shared between threads, but renders one area at a time.
+     */
+
+    private static final char[] RULER_LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final String CODE_BLOCK_START = "```java\n";
+    private static final String CODE_BLOCK_END = "```";
+    private static final int DOT_SPACING = 6;
+
+    //The template, for the area size and options it was made for
+    private int templateWidth = -1;
+    private int templateHeight = -1;
+    private boolean templateDots;
+    private boolean templateRuler;
+
+    private int marginLeft; //Columns taken by the row numbers and the left side of the box
+    private int lineLength;
+    private char[] letterLine; //The column letters
+    private char[] borderLine; //The top and bottom of the box
+    private char[] dotLine; //A row of the area with dots all along it
+    private char[] plainLine; //A row of the area with dots only every few columns
+
+    private char[] line = new char[0]; //The line being rendered
+
+    /**
+     * Renders an area of a GameMap as a code block of text, ready to be posted in a Discord message.
+     *
+     * @param gameMap The GameMap to render
+     * @param origin The map position of the top-left corner of the area
+     * @param viewBounds The width and height of the area
+     * @param includeDots Whether to mark every sixth row and column with dots, to make counting squares easier
+     * @param includeRuler Whether to draw a border with column letters and row numbers around the area
+     * @return The rendered text, including the code block's backticks
+     */
+    public String render(GameMap gameMap, Coordinate origin, Coordinate viewBounds, boolean includeDots, boolean includeRuler){
+        StringBuilder builder = new StringBuilder(getRenderedLength(viewBounds.getX(), viewBounds.getY(), includeRuler, true));
+        try {
+            render(builder, gameMap, origin.getX(), origin.getY(), viewBounds.getX(), viewBounds.getY(), includeDots, includeRuler, true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //StringBuilders don't throw IOExceptions
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Renders an area of a GameMap a line at a time into an Appendable.
+     *
+     * @param out Where to write the text. Writers and StringBuilders are written to in whole lines; anything else gets each line as a CharSequence.
+     * @param gameMap The GameMap to render
+     * @param col The map column of the area's left edge
+     * @param row The map row of the area's top edge
+     * @param width The width of the area
+     * @param height The height of the area
+     * @param includeDots Whether to mark every sixth row and column with dots, to make counting squares easier
+     * @param includeRuler Whether to draw a border with column letters and row numbers around the area
+     * @param codeBlock Whether to wrap the text in the backticks of a Discord code block
+     * @throws IOException If the Appendable does
+     */
+    public synchronized void render(Appendable out, GameMap gameMap, int col, int row, int width, int height, boolean includeDots, boolean includeRuler, boolean codeBlock) throws IOException {
+        prepareTemplate(Math.max(0, width), Math.max(0, height), includeDots, includeRuler);
+        if (codeBlock) out.append(CODE_BLOCK_START);
+        if (includeRuler){
+            writeLine(out, letterLine);
+            writeLine(out, borderLine);
+        }
+        for (int y = 0; y < templateHeight; y++){
+            char[] template = (includeDots && y % DOT_SPACING == 1) ? dotLine : plainLine;
+            System.arraycopy(template, 0, line, 0, lineLength);
+            if (includeRuler) writeNumber(y, line);
+            drawMapRow(gameMap, col, row + y, templateWidth, line, marginLeft);
+            writeLine(out, line);
+        }
+        if (includeRuler) writeLine(out, borderLine);
+        if (codeBlock) out.append(CODE_BLOCK_END);
+    }
+
+    /**
+     * @return How many characters rendering an area of this size makes
+     */
+    public static int getRenderedLength(int width, int height, boolean includeRuler, boolean codeBlock){
+        width = Math.max(0, width);
+        height = Math.max(0, height);
+        int length = (includeRuler) ? (width + rulerMarginLeft(height) + 1 + 1) * (height + 3) : (width + 1) * height;
+        if (codeBlock) length += CODE_BLOCK_START.length() + CODE_BLOCK_END.length();
+        return length;
+    }
+
+    private void prepareTemplate(int width, int height, boolean includeDots, boolean includeRuler){
+        if (width == templateWidth && height == templateHeight && includeDots == templateDots && includeRuler == templateRuler) return;
+        templateWidth = width;
+        templateHeight = height;
+        templateDots = includeDots;
+        templateRuler = includeRuler;
+        marginLeft = (includeRuler) ? rulerMarginLeft(height) : 0;
+        lineLength = (includeRuler) ? width + marginLeft + 1 : width;
+        if (line.length < lineLength) line = new char[lineLength];
+
+        plainLine = blankLine();
+        dotLine = blankLine();
+        for (int x = 0; x < width; x++){
+            if (includeDots && x % DOT_SPACING == 1) plainLine[marginLeft + x] = '.';
+            if (includeDots) dotLine[marginLeft + x] = '.';
+        }
+        if (!includeRuler) return;
+        letterLine = blankLine();
+        for (int x = 0; x < width; x++)
+            letterLine[marginLeft + x] = RULER_LETTERS[x % RULER_LETTERS.length];
+        borderLine = blankLine();
+        for (int x = marginLeft - 1; x <= marginLeft + width; x++)
+            borderLine[x] = (x == marginLeft - 1 || x == marginLeft + width) ? '+' : '-';
+        for (char[] sides : new char[][]{plainLine, dotLine}){
+            sides[marginLeft - 1] = '|';
+            sides[marginLeft + width] = '|';
+        }
+    }
+
+    private char[] blankLine(){
+        char[] blank = new char[lineLength];
+        Arrays.fill(blank, ' ');
+        return blank;
+    }
+
+    //Row numbers get as many columns as the largest one needs (but at least two), plus one for the side of the box
+    private static int rulerMarginLeft(int height){
+        int digits = 2;
+        for (int largest = height - 1; largest >= 100; largest /= 10)
+            digits++;
+        return digits + 1;
+    }
+
+    private static void writeNumber(int number, char[] line){
+        int digits = 1;
+        for (int rest = number; rest >= 10; rest /= 10)
+            digits++;
+        for (int i = digits - 1; i >= 0; i--){
+            line[i] = (char)('0' + number % 10);
+            number /= 10;
+        }
+    }
+
+    /*
+     * Writes one row of the map over a line, the same way the map looks on Discord:
+     * the vision (hide) layer blanks out whatever it covers, tokens are drawn over the backdrop, and backdrop cells that are entirely see-through are left out.
+     */
+    private static void drawMapRow(GameMap gameMap, int col, int row, int width, char[] line, int offset){
+        Layer hide = gameMap.getHideLayer();
+        Layer tokens = gameMap.getTokenLayer();
+        Layer backdrop = gameMap.getBackdrop();
+        boolean drawTokens = tokens.getVisible() && !tokens.isAreaEmpty(col, row, width, 1);
+        boolean drawBackdrop = backdrop.getVisible() && !backdrop.isAreaEmpty(col, row, width, 1);
+        if (!drawTokens && !drawBackdrop) return; //Most rows of a sparse map are empty
+        boolean hiding = hide.getVisible() && !hide.isAreaEmpty(col, row, width, 1);
+        for (int x = 0; x < width; x++){
+            int mapCol = col + x;
+            if (hiding && !hide.isCellEmpty(mapCol, row)) continue;
+            if (drawTokens && !tokens.isCellEmpty(mapCol, row)){
+                line[offset + x] = tokens.getCharAt(mapCol, row);
+                continue;
+            }
+            if (drawBackdrop && !backdrop.isCellEmpty(mapCol, row)){
+                char character = backdrop.getCharAt(mapCol, row);
+                if (character != ' ' || (backdrop.getBkgArgbAt(mapCol, row) >>> 24) > 0)
+                    line[offset + x] = character;
+            }
+        }
+    }
+
+    private void writeLine(Appendable out, char[] text) throws IOException {
+        if (out instanceof StringBuilder) ((StringBuilder) out).append(text, 0, lineLength);
+        else if (out instanceof Writer) ((Writer) out).write(text, 0, lineLength);
+        else out.append(CharBuffer.wrap(text, 0, lineLength));
+        out.append('\n');
+    }
+}
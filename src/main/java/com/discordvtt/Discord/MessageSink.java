@@ -0,0 +1,27 @@
+package com.discordvtt.Discord;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface MessageSink {
+
+    /**
+     * MessageSink:
+     *
+     * Somewhere that messages can be posted and later edited, identified by channel and message IDs the way Discord does.
+     * The JdaMessageSink talks to Discord itself, while the LocalMessageSink keeps everything in memory for trying things out without a bot.
+     *
+     * Both methods return right away; the returned futures finish once the message was actually sent or edited, on whatever thread the sink likes.
+     */
+
+    int MAX_MESSAGE_LENGTH = 2000; //Discord refuses longer messages
+
+    /**
+     * @return A future of the new message's ID
+     */
+    CompletableFuture<Long> send(long channelId, String content);
+
+    /**
+     * Replaces the contents of a message sent earlier. Fails if the message no longer exists.
+     */
+    CompletableFuture<Void> edit(long channelId, long messageId, String content);
+}
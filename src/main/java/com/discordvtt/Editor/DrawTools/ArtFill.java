@@ -1,12 +1,10 @@
 package com.discordvtt.Editor.DrawTools;
 
-import com.discordvtt.Data.Coordinate;
 import com.discordvtt.Data.GameMap;
 import com.discordvtt.Engine.Layer;
 import com.discordvtt.Engine.SpecialText;
 
 import javax.swing.*;
-import java.util.ArrayList;
 
 /**
  * Created by Jared on 2/25/2018.
@@ -16,7 +14,7 @@ public class ArtFill extends DrawTool {
     /**
      * ArtFill:
      *
-     * A tool that runs a recursive spread function to fill in areas, much like a paint bucket tool in conventional art programs.
+     * A tool that fills in areas, much like a paint bucket tool in conventional art programs. The area itself is found by FloodFill.
      */
 
     private JCheckBox edgesOnlyBox;
@@ -34,57 +32,24 @@ public class ArtFill extends DrawTool {
 
     @Override
     public void onDrawStart(GameMap gameMap, Layer highlight, int col, int row, SpecialText text) {
-        Thread fillThread = new Thread(() -> doFill(gameMap.getBackdrop(), gameMap.getBackdrop().getSpecialText(col, row), text, col, row), "fill");
-        fillThread.start();
+        //Filling only takes a few milliseconds, so it happens right here instead of on its own thread, where it could race with other fills and undo.
+        doFill(gameMap.getBackdrop(), gameMap.getBackdrop().getSpecialText(col, row), text, col, row, edgesOnlyBox.isSelected());
     }
 
-    private ArrayList<Coordinate> currentPoints = new ArrayList<>();
-    private ArrayList<Coordinate> futurePoints = new ArrayList<>();
-    private ArrayList<Coordinate> processedPoints = new ArrayList<>();
-
     /**
-     * The function used to spread points out to fill an area.
+     * Fills in the area around a point, much like a paint bucket.
      * @param layer The layer to draw on (the backdrop)
      * @param fillOn The SpecialText to fill on top of.
      * @param fillWith The SpecialText to fill onto the fillOn SpecialText
+     * @param edgesOnly Whether to only fill the cells along the border of the area
      */
-    private void doFill(Layer layer, SpecialText fillOn, SpecialText fillWith, int col, int row){
+    private void doFill(Layer layer, SpecialText fillOn, SpecialText fillWith, int col, int row, boolean edgesOnly){
         if (areTwoSpecTxtsEqual(fillOn, fillWith)) return;
-        futurePoints.clear();
-        processedPoints.clear();
-        currentPoints.clear();
-        futurePoints.add(new Coordinate(col, row));
-        do {
-            moveFutureToPresentPoints();
-            for (int i = 0; i < currentPoints.size();) {
-                Coordinate point = currentPoints.get(i);
-                int FILL_MAXDIST = 250;
-                if (point.stepDistance(new Coordinate(col, row)) <= FILL_MAXDIST) {
-                    boolean failed;
-                    failed =  !attemptFuturePoint(layer, point.getX() + 1, point.getY(), fillOn);
-                    failed |= !attemptFuturePoint(layer, point.getX() - 1, point.getY(), fillOn);
-                    failed |= !attemptFuturePoint(layer, point.getX(), point.getY() + 1, fillOn);
-                    failed |= !attemptFuturePoint(layer, point.getX(), point.getY() - 1, fillOn);
-                    processedPoints.add(point);
-                    currentPoints.remove(i);
-                    if (failed || !edgesOnlyBox.isSelected())
-                        layer.editLayer(point, fillWith);
-                }
-            }
-        } while (futurePoints.size() > 0);
-        System.out.println("[ArtFill.doFill] process completed!");
-    }
-
-    /**
-     * The name says it all really, but basically it transfers the future points to the current ones and clears both lists.
-     *
-     * Why clear the current points list? That's because once a current point is filled, it's now 'useless' and can be safely thrown away.
-     * Afterwards, new future points won't be placed upon where that now-wiped current point is because that old point already has fillWith plastered on it, and no longer is fillOn.
-     */
-    private void moveFutureToPresentPoints(){
-        currentPoints.clear();
-        for (Coordinate point : futurePoints) if (!currentPoints.contains(point)) currentPoints.add(point);
-        futurePoints.clear();
+        FloodFill region = FloodFill.compute(layer, layer.matcherFor(fillOn), col, row); //Compares palette indices rather than whole SpecialTexts
+        region.forEach((x, y) -> {
+            if (!edgesOnly || region.isEdge(x, y))
+                layer.editLayer(x, y, fillWith);
+        });
     }
 
     /**
@@ -96,28 +61,4 @@ public class ArtFill extends DrawTool {
     private boolean areTwoSpecTxtsEqual(SpecialText text1, SpecialText text2){
         return (text1 == null && text2 == null) || (text1 != null && text1.equals(text2));
     }
-
-    private boolean isPointFillable (Layer layer, int col, int row, SpecialText fillOn){
-        if (layer.isLayerLocInvalid(col, row)) return false;
-        SpecialText txtAtLoc = layer.getSpecialText(col, row);
-        return areTwoSpecTxtsEqual(txtAtLoc, fillOn);
-    }
-
-    /*
-    The boolean return of this method may seem a little counter-intuitive, so let me explain.
-
-    The boolean return, in a general sense, returns true if a future point was created and false if it did not.
-    The return value is used to detect if a spreading point hits the edge of a region, causing a failure in adding a point.
-    However, failures also occur when spreading itself backwards -- it fails because the newly filled in area does not match the SpecialText the function is looking for.
-    To account for this, the algorithm keeps a record of points it filled and whenever the fill is heading backwards, it can catch that and treat the result as "successful" even though it fails to add a point.
-    If that kind of hurts your brain, it might be a little comfortable to think that the algorithm is "borrowing results from previous iterations"
-     */
-    private boolean attemptFuturePoint(Layer layer, int col, int row, SpecialText fillOn){
-        if (isPointFillable(layer, col, row, fillOn)) {
-            if (!processedPoints.contains(new Coordinate(col, row)))
-                futurePoints.add(new Coordinate(col, row));
-            return true;
-        }
-        return processedPoints.contains(new Coordinate(col, row));
-    }
 }
@@ -0,0 +1,130 @@
+package com.discordvtt.Editor.DrawTools;
+
+import com.discordvtt.Engine.Layer;
+
+public class FloodFill {
+
+    /**
+     * FloodFill:
+     *
+     * Finds the region a paint bucket would fill: every cell connected (up, down, left, or right) to a starting cell that matches a CellMatcher.
+     *
+     * It works a horizontal span at a time. Each span is grown left and right as far as it matches, marked, and then the rows above and below it
+     * are scanned for new spans to visit. Which cells belong to the region is kept in a bitset, so no cell is ever looked at twice and no objects are made per cell.
+     *
+     * Finding the region and painting it are separate steps, so that "edge only" fills can tell which cells sit on the region's border.
+     */
+
+    private final int cols;
+    private final int rows;
+    private final long[] region; //One bit per cell, laid out row by row
+    private int size = 0;
+
+    private int[] stack = new int[64]; //Pairs of (col, row) where a span might start
+    private int stackSize = 0;
+
+    private FloodFill(int cols, int rows){
+        this.cols = cols;
+        this.rows = rows;
+        region = new long[(int)(((long)cols * rows + 63) >>> 6)];
+    }
+
+    /**
+     * Finds the region connected to a starting cell.
+     *
+     * @param layer The layer to fill on
+     * @param matcher Which cells may be filled
+     * @param col The starting column
+     * @param row The starting row
+     * @return The region. It is empty if the starting cell is outside the layer or doesn't match.
+     */
+    public static FloodFill compute(Layer layer, Layer.CellMatcher matcher, int col, int row){
+        FloodFill fill = new FloodFill(layer.getCols(), layer.getRows());
+        if (!layer.isLayerLocInvalid(col, row))
+            fill.spread(matcher, col, row);
+        return fill;
+    }
+
+    private void spread(Layer.CellMatcher matcher, int startCol, int startRow){
+        push(startCol, startRow);
+        while (stackSize > 0){
+            int row = stack[--stackSize];
+            int col = stack[--stackSize];
+            if (contains(col, row) || !matcher.matches(col, row)) continue;
+            int left = col;
+            while (left > 0 && !contains(left - 1, row) && matcher.matches(left - 1, row)) left--;
+            int right = col;
+            while (right < cols - 1 && !contains(right + 1, row) && matcher.matches(right + 1, row)) right++;
+            for (int x = left; x <= right; x++) mark(x, row);
+            if (row > 0) scanForSpans(matcher, left, right, row - 1);
+            if (row < rows - 1) scanForSpans(matcher, left, right, row + 1);
+        }
+    }
+
+    //Pushes the start of every run of unvisited, matching cells between left and right (inclusive) on a row.
+    private void scanForSpans(Layer.CellMatcher matcher, int left, int right, int row){
+        boolean inSpan = false;
+        for (int x = left; x <= right; x++){
+            boolean open = !contains(x, row) && matcher.matches(x, row);
+            if (open && !inSpan) push(x, row);
+            inSpan = open;
+        }
+    }
+
+    private void push(int col, int row){
+        if (stackSize + 2 > stack.length){
+            int[] grown = new int[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, stackSize);
+            stack = grown;
+        }
+        stack[stackSize++] = col;
+        stack[stackSize++] = row;
+    }
+
+    private void mark(int col, int row){
+        long index = (long)row * cols + col;
+        region[(int)(index >>> 6)] |= 1L << index;
+        size++;
+    }
+
+    /**
+     * @return Whether a cell is part of the region. Cells outside the layer never are.
+     */
+    public boolean contains(int col, int row){
+        if (col < 0 || col >= cols || row < 0 || row >= rows) return false;
+        long index = (long)row * cols + col;
+        return (region[(int)(index >>> 6)] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return Whether a cell of the region borders something outside of it (including the edge of the layer).
+     */
+    public boolean isEdge(int col, int row){
+        return !contains(col + 1, row) || !contains(col - 1, row) || !contains(col, row + 1) || !contains(col, row - 1);
+    }
+
+    /**
+     * @return The number of cells in the region.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Runs through every cell in the region, row by row.
+     */
+    public void forEach(CellAction action){
+        for (int word = 0; word < region.length; word++){
+            long bits = region[word];
+            while (bits != 0){
+                long index = ((long)word << 6) + Long.numberOfTrailingZeros(bits);
+                action.apply((int)(index % cols), (int)(index / cols));
+                bits &= bits - 1; //Clears the lowest bit
+            }
+        }
+    }
+
+    public interface CellAction {
+        void apply(int col, int row);
+    }
+}
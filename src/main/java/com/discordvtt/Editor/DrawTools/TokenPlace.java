@@ -8,10 +8,12 @@ import java.awt.*;
 
 public class TokenPlace extends DrawTool {
 
+    private static final Color TOKEN_COLOR = new Color(200, 225, 255);
+
     @Override
     public void onDrawStart(GameMap gameMap, Layer highlight, int col, int row, SpecialText text) {
         SpecialText tokenText = new SpecialText(' ');
-        if (!gameMap.getTokenLayer().isLayerLocInvalid(col, row)) tokenText = new SpecialText(text.getCharacter(), new Color(200, 225, 255), text.getBkgColor());
+        if (!gameMap.getTokenLayer().isLayerLocInvalid(col, row)) tokenText = SpecialText.intern(text.getCharacter(), TOKEN_COLOR.getRGB(), text.getBkgArgb());
         gameMap.getTokenLayer().editLayer(col, row, tokenText);
     }
 }
@@ -2,16 +2,27 @@ package com.discordvtt.Editor.Mapping;
 
 import com.discordvtt.Data.Coordinate;
 import com.discordvtt.Data.GameMap;
-import com.discordvtt.Engine.Layer;
-import com.discordvtt.Engine.SpecialText;
+import com.discordvtt.Discord.DiscordConnection;
+import com.discordvtt.Discord.MapPublisher;
+import com.discordvtt.Discord.MapTextRenderer;
 
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ItemListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ExportWindow extends JFrame {
 
@@ -19,13 +30,24 @@ public class ExportWindow extends JFrame {
     private JCheckBox cboxIncludeDots;
     private JCheckBox cboxIncludeRuler;
 
+    private JButton publishButton;
+
     private Coordinate renderOrigin;
     private Coordinate renderViewbounds;
 
+    private MapPublisher.Publication publication; //The Discord message kept up to date with the render, if it's being published
+
+    //Rendering happens on its own thread, so that exporting a large area never holds up the editor.
+    //Only the latest render of the area is shown; ones that were asked for since are skipped if they haven't started yet.
+    private final MapTextRenderer renderer = new MapTextRenderer();
+    private final ThreadPoolExecutor renderThread = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "Export Render"));
+    private final AtomicLong latestRender = new AtomicLong();
+
     public ExportWindow(GameMap gameMap, Coordinate origin, Coordinate viewBounds){
         setSize(new Dimension(300, 300));
         setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
         setLayout(new BorderLayout());
+        renderThread.allowCoreThreadTimeOut(true);
 
         outputArea = new JTextArea();
 
@@ -60,6 +82,24 @@ public class ExportWindow extends JFrame {
         });
         topPanel.add(copyButton);
 
+        JPopupMenu exportMenu = new JPopupMenu();
+        JMenuItem saveMapItem = new JMenuItem("Save Whole Map as Text...");
+        saveMapItem.addActionListener(e -> exportMapToFile(gameMap));
+        exportMenu.add(saveMapItem);
+        JMenuItem copyMapItem = new JMenuItem("Copy Whole Map");
+        copyMapItem.addActionListener(e -> exportMapToClipboard(gameMap));
+        exportMenu.add(copyMapItem);
+        JButton exportButton = new JButton("Export Map");
+        exportButton.addActionListener(e -> exportMenu.show(exportButton, 0, exportButton.getHeight()));
+        topPanel.add(exportButton);
+
+        publishButton = new JButton("Publish");
+        publishButton.addActionListener(e -> {
+            if (publication == null) startPublishing(gameMap);
+            else stopPublishing();
+        });
+        topPanel.add(publishButton);
+
         topPanel.validate();
 
         c.add(topPanel, BorderLayout.PAGE_START);
@@ -75,95 +115,108 @@ public class ExportWindow extends JFrame {
     public void updateRender(GameMap gameMap, Coordinate origin, Coordinate viewBounds){
         renderOrigin = origin;
         renderViewbounds = viewBounds;
-        outputArea.setText(renderToDiscordFriendly(gameMap, renderOrigin, renderViewbounds));
+        boolean includeDots = cboxIncludeDots.isSelected();
+        boolean includeRuler = cboxIncludeRuler.isSelected();
+        long renderNumber = latestRender.incrementAndGet();
+        renderThread.execute(() -> {
+            if (renderNumber != latestRender.get()) return; //Already out of date
+            String text = renderer.render(gameMap, origin, viewBounds, includeDots, includeRuler);
+            SwingUtilities.invokeLater(() -> {
+                if (renderNumber == latestRender.get()) outputArea.setText(text);
+            });
+        });
+        if (publication != null) publication.setArea(renderOrigin, renderViewbounds, cboxIncludeDots.isSelected(), cboxIncludeRuler.isSelected());
     }
 
-    private String renderToDiscordFriendly(GameMap gameMap, Coordinate origin, Coordinate viewBounds){
-        Layer bkg = drawRenderBackground(viewBounds);
-        bkg = drawMapOntoBackground(bkg, gameMap, origin, viewBounds);
-        //Transcribe to text
-        StringBuilder builder = new StringBuilder("```java\n");
-        for (int row = 0; row < bkg.getRows(); row++) {
-            for (int col = 0; col < bkg.getCols(); col++) {
-                SpecialText specialText = bkg.getSpecialText(col, row);
-                if (specialText != null)
-                    builder.append(specialText.getCharacter());
-                else
-                    builder.append(' ');
+    /**
+     * Asks for a text file, then writes the whole map into it a line at a time, without the code block's backticks.
+     */
+    private void exportMapToFile(GameMap gameMap){
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("Text Files", "txt"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File chosenFile = chooser.getSelectedFile();
+        File file = (chosenFile.getName().contains(".")) ? chosenFile : new File(chosenFile.getPath() + ".txt");
+        int cols = gameMap.getBackdrop().getCols();
+        int rows = gameMap.getBackdrop().getRows();
+        boolean includeDots = cboxIncludeDots.isSelected();
+        boolean includeRuler = cboxIncludeRuler.isSelected();
+        renderThread.execute(() -> {
+            try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                renderer.render(writer, gameMap, 0, 0, cols, rows, includeDots, includeRuler, false);
+                System.out.printf("[ExportWindow.exportMapToFile] Exported map to %1$s\n", file.getPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "ERROR: Could not export to " + file.getName() + ":\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
             }
-            builder.append("\n");
-        }
-        builder.append("```");
-        return builder.toString();
+        });
     }
 
-    private Layer drawRenderBackground(Coordinate viewBounds){
-        char[] chars = {'A','B','C','D','E','F','G','H','I','J','K','L','M','N','O','P','Q','R','S','T','U','V','W','X','Y','Z','a','b','c','d','e','f','g','h','i','j','k','l','m','n','o','p','q','r','s','t','u','v','w','x','y','z'};
-        boolean rulerEnabled = cboxIncludeRuler.isSelected();
-        int hor_margin = (rulerEnabled) ? 2 + 1 : 0;
-        int ver_margin = (rulerEnabled) ? 1 + 1 : 0;
-        int layerWidth = (rulerEnabled) ? viewBounds.getX() + hor_margin + 1 : viewBounds.getX() + hor_margin;
-        int layerHeight = (rulerEnabled) ? viewBounds.getY() + ver_margin + 1 : viewBounds.getY() + ver_margin;
-        Layer bkg = new Layer(layerWidth, layerHeight, "", 0,0,0);
-        Coordinate TLCorner = new Coordinate(hor_margin - 1, ver_margin - 1);
-        Coordinate BRCorner = new Coordinate(viewBounds.getX() + hor_margin, viewBounds.getY() + ver_margin);
-        Coordinate TRCorner = new Coordinate(BRCorner.getX(), TLCorner.getY());
-        Coordinate BLCorner = new Coordinate(TLCorner.getX(), BRCorner.getY());
-        if (rulerEnabled) {
-            //Draw horizontal coordinates
-            for (int x = 0; x < viewBounds.getX(); x++) {
-                bkg.editLayer(x + hor_margin, 0, chars[x % chars.length]);
+    /**
+     * Copies the whole map to the clipboard as a code block, rendering it in the background.
+     */
+    private void exportMapToClipboard(GameMap gameMap){
+        int cols = gameMap.getBackdrop().getCols();
+        int rows = gameMap.getBackdrop().getRows();
+        boolean includeDots = cboxIncludeDots.isSelected();
+        boolean includeRuler = cboxIncludeRuler.isSelected();
+        renderThread.execute(() -> {
+            StringBuilder text = new StringBuilder(MapTextRenderer.getRenderedLength(cols, rows, includeRuler, true));
+            try {
+                renderer.render(text, gameMap, 0, 0, cols, rows, includeDots, includeRuler, true);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); //StringBuilders don't throw IOExceptions
             }
-            //Draw vertical coordinates
-            for (int y = 0; y < viewBounds.getY(); y++) {
-                bkg.inscribeString(String.valueOf(y), 0, y + ver_margin);
-            }
-            //Draw box
-            bkg.editLayer(TLCorner, new SpecialText('+'));
-            bkg.editLayer(TRCorner, new SpecialText('+'));
-            bkg.editLayer(BLCorner, new SpecialText('+'));
-            bkg.editLayer(BRCorner, new SpecialText('+'));
-            bkg.fillLayer(new SpecialText('|'), TLCorner.add(new Coordinate(0, 1)), BLCorner.add(new Coordinate(0, -1)));
-            bkg.fillLayer(new SpecialText('|'), TRCorner.add(new Coordinate(0, 1)), BRCorner.add(new Coordinate(0, -1)));
-            bkg.fillLayer(new SpecialText('-'), TLCorner.add(new Coordinate(1, 0)), TRCorner.add(new Coordinate(-1, 0)));
-            bkg.fillLayer(new SpecialText('-'), BLCorner.add(new Coordinate(1, 0)), BRCorner.add(new Coordinate(-1, 0)));
-        }
-        //Draw dots
-        if (!cboxIncludeDots.isSelected()) return bkg;
-        int x = hor_margin + 1;
-        while (x < bkg.getCols()){
-            bkg.fillLayer(new SpecialText('.'), new Coordinate(x, TLCorner.getY() + 1), new Coordinate(x, BLCorner.getY() - 1));
-            x += 6;
-        }
-        int y = ver_margin + 1;
-        while (y < bkg.getCols()){
-            bkg.fillLayer(new SpecialText('.'), new Coordinate(TLCorner.getX() + 1, y), new Coordinate(TRCorner.getX() - 1, y));
-            y += 6;
-        }
-        return bkg;
+            SwingUtilities.invokeLater(() -> Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(text.toString()), null));
+        });
     }
 
-    private Layer drawMapOntoBackground(Layer bkg, GameMap gameMap, Coordinate origin, Coordinate viewBounds){
-        //Coordinate renderMarginOffset = new Coordinate(2 + 1 + 2, 1 + 1 + 2);
-        Coordinate renderMarginOffset = new Coordinate(2 + 1, 1 + 1);
-        for (int x = 0; x < viewBounds.getX(); x++) {
-            for (int y = 0; y < viewBounds.getY(); y++) {
-                Coordinate renderPos = new Coordinate(x, y);
-                Coordinate mapLoc = origin.add(renderPos);
-                if (!gameMap.getHideLayer().getVisible() || gameMap.getHideLayer().getSpecialText(mapLoc) == null){ //The Vision layer filters out hidden sections of the level
-                    SpecialText token = (gameMap.getTokenLayer().getVisible()) ? gameMap.getTokenLayer().getSpecialText(mapLoc) : null;
-                    if (token != null) bkg.editLayer(renderPos.add(renderMarginOffset), token);
-                    else {
-                        SpecialText art = (gameMap.getBackdrop().getVisible()) ? gameMap.getBackdrop().getSpecialText(mapLoc) : null; //I find this variable name amusing.
-                        if (specialTextOpaque(art)) bkg.editLayer(renderPos.add(renderMarginOffset), art);
-                    }
-                }
-            }
+    /**
+     * Asks which channel to post the render to, then keeps a message there updated as the map changes, until publishing is stopped.
+     */
+    private void startPublishing(GameMap gameMap){
+        String channel = JOptionPane.showInputDialog(this, "ID of the Discord channel to post to:", "Publish", JOptionPane.PLAIN_MESSAGE);
+        if (channel == null) return;
+        long channelId;
+        try {
+            channelId = Long.parseLong(channel.trim());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "ERROR: '" + channel + "' is not a channel ID", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
         }
-        return bkg;
+        String token = null;
+        if (DiscordConnection.needsToken()){
+            JPasswordField tokenField = new JPasswordField();
+            if (JOptionPane.showConfirmDialog(this, tokenField, "Bot Token", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+            token = new String(tokenField.getPassword());
+        }
+        publishButton.setText("Connecting...");
+        publishButton.setEnabled(false);
+        String loginToken = token;
+        Thread thread = new Thread(() -> { //Logging in to Discord takes a few seconds
+            try {
+                MapPublisher publisher = DiscordConnection.getPublisher(loginToken);
+                SwingUtilities.invokeLater(() -> {
+                    publication = publisher.publish(gameMap, channelId, renderOrigin, renderViewbounds, cboxIncludeDots.isSelected(), cboxIncludeRuler.isSelected());
+                    publishButton.setText("Stop Publishing");
+                    publishButton.setEnabled(true);
+                });
+            } catch (Exception e) {
+                System.out.printf("[ExportWindow.startPublishing] Could not connect to Discord: %1$s\n", e);
+                SwingUtilities.invokeLater(() -> {
+                    JOptionPane.showMessageDialog(this, "ERROR: Could not connect to Discord:\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    publishButton.setText("Publish");
+                    publishButton.setEnabled(true);
+                });
+            }
+        }, "Discord Login");
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    private boolean specialTextOpaque(SpecialText specialText){
-        return specialText != null && (specialText.getCharacter() != ' ' || specialText.getBkgColor().getAlpha() > 0);
+    private void stopPublishing(){
+        publication.stop();
+        publication = null;
+        publishButton.setText("Publish");
     }
 }
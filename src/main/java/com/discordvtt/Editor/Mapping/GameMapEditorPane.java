@@ -15,6 +15,7 @@ import java.awt.*;
 public class GameMapEditorPane extends JPanel {
 
     private EditorMouseInput mouseInput;
+    private LayerManager manager;
 
     public GameMapEditorPane(GameMap gameMap, JTabbedPane owner){
 
@@ -44,7 +45,7 @@ public class GameMapEditorPane extends JPanel {
         mouseHighlight.fixedScreenPos = true;
 
         //Send layers to LayerManager, which also needs to be instantiated.
-        LayerManager manager = new LayerManager(viewWindow);
+        manager = new LayerManager(viewWindow);
         manager.addLayer(gameMap.getBackdrop());
         manager.addLayer(gameMap.getTokenLayer());
         manager.addLayer(gameMap.getHideLayer());
@@ -98,7 +99,7 @@ public class GameMapEditorPane extends JPanel {
         topToolbar.add(new LayerToggler(gameMap.getHideLayer(), "vision"));
         //topToolbar.add(drawToolManager.generateToolButton(new VisionToggleAll(), "Icons/toggleall.png", "(Vision) Toggle All"));
         JButton toggleButton = drawToolManager.generateGenericToolbarButton("Icons/toggleall.png", "(Vision) Toggle All");
-        toggleButton.addActionListener(e -> toggleVisionLayer(gameMap));
+        toggleButton.addActionListener(e -> toggleVisionLayer(gameMap, undoManager));
         topToolbar.add(toggleButton); //We forgo using the Tools system since it is more intuitive to click the button to toggle everywhere.
         topToolbar.add(drawToolManager.generateToolButton(new VisionRectangle(manager, null), "Icons/showarea.png", "(Vision) Show Area"));
         topToolbar.add(drawToolManager.generateToolButton(new VisionRectangle(manager, new SpecialText(' ', Color.WHITE, MappingTheme.VISION_HIDE_COLOR)), "Icons/hidearea.png", "(Vision) Hide Area"));
@@ -115,12 +116,18 @@ public class GameMapEditorPane extends JPanel {
         bottomToolbar.add(new EditorFindAndReplacePanel(gameMap, undoManager));
         bottomToolbar.add(Box.createHorizontalGlue());
 
-        bottomToolbar.add(new MappingFilePanel(gameMap));
+        bottomToolbar.add(new MappingFilePanel(gameMap, undoManager));
 
         add(bottomToolbar, BorderLayout.PAGE_END);
     }
 
-    private void toggleVisionLayer(GameMap gameMap){
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        manager.dispose(); //The editor is closing, so its render thread and metrics go with it
+    }
+
+    private void toggleVisionLayer(GameMap gameMap, UndoManager undoManager){
         boolean visibleSpaces = false;
         for (int c = 0; c < gameMap.getHideLayer().getCols(); c++) {
             for (int r = 0; r < gameMap.getHideLayer().getRows(); r++) {
@@ -130,5 +137,6 @@ public class GameMapEditorPane extends JPanel {
         }
         if (!visibleSpaces)
             gameMap.getHideLayer().clearLayer();
+        undoManager.recordGameMap();
     }
 }
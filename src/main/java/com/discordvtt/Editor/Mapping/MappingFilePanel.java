@@ -2,16 +2,66 @@ package com.discordvtt.Editor.Mapping;
 
 import com.discordvtt.Data.FileIO;
 import com.discordvtt.Data.GameMap;
+import com.discordvtt.Data.MapJournal;
+import com.discordvtt.Data.MapSaver;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
 
-public class MappingFilePanel extends JPanel {
+public class MappingFilePanel extends JPanel implements MapSaver.SaveListener {
+
+    /**
+     * MappingFilePanel:
+     *
+     * Saves and opens the map being edited.
+     *
+     * Once the map has a file, every edit is also written to a MapJournal next to it, which is periodically compacted into the file by saving in the background.
+     * The journal is discarded when the editor closes or moves on to another file, since it's only needed if the editor never gets to close.
+     */
+
+    private static final int COMPACT_CHECK_MS = 10000;
+    private static final int COMPACT_PERIOD_MS = 120000; //How long journaled edits may go without being saved into the map file
+    private static final long COMPACT_BYTES = 1L << 20; //Or how big the journal may get
 
     String previousFilePath;
 
-    public MappingFilePanel(GameMap gameMap){
+    private MapSaver mapSaver = new MapSaver();
+    private JLabel saveStatusLabel = new JLabel();
+
+    private UndoManager undoManager;
+    private MapJournal journal;
+    private Future<?> lastSave;
+    private long lastCompactionTime = System.currentTimeMillis();
+    private boolean autosaving = true; //Stops after a failed save, until a save works again, so that a bad disk doesn't bring up an error every few minutes
+    private Timer compactTimer;
+
+    //Autosaves report back like any other save, except that a failure only shows in the status label, instead of bringing up a dialog out of nowhere every few minutes
+    private final MapSaver.SaveListener autosaveListener = new MapSaver.SaveListener() {
+        @Override
+        public void onSaveProgress(String path, double progress) {
+            MappingFilePanel.this.onSaveProgress(path, progress);
+        }
+
+        @Override
+        public void onSaveFinished(String path) {
+            MappingFilePanel.this.onSaveFinished(path);
+        }
+
+        @Override
+        public void onSaveFailed(String path, Exception e) {
+            saveStatusLabel.setText("Autosave failed!");
+            saveStatusLabel.setToolTipText(e.getMessage());
+            autosaving = false;
+        }
+    };
+
+    public MappingFilePanel(GameMap gameMap, UndoManager undoManager){
+
+        this.undoManager = undoManager;
+        compactTimer = new Timer(COMPACT_CHECK_MS, e -> compactJournal(gameMap));
 
         setLayout(new FlowLayout(FlowLayout.LEFT));
         setBorder(BorderFactory.createTitledBorder("File"));
@@ -28,6 +78,7 @@ public class MappingFilePanel extends JPanel {
         add(quickSaveButton);
         add(saveButton);
         add(openButton);
+        add(saveStatusLabel);
     }
 
     private String getMapsFolder(FileIO io){ return io.getRootFilePath().concat("Maps");}
@@ -35,16 +86,85 @@ public class MappingFilePanel extends JPanel {
     private void saveMapAs(GameMap gameMap){
         FileIO io = new FileIO();
         String startPath = getMapsFolder(io);
-        previousFilePath = io.serializeGameMap(gameMap, startPath);
+        String path = io.chooseGameMapSavePath(startPath);
+        if (!path.equals("")) {
+            previousFilePath = path;
+            gameMap.renewMapId(); //The map's old file keeps its own id, so neither file's journal can be replayed onto the other
+            lastSave = mapSaver.save(gameMap, path, this);
+            startJournal(gameMap, path, true);
+        }
     }
 
     private void quickSaveMap(GameMap gameMap){
         if (previousFilePath == null || previousFilePath.equals("")){
             saveMapAs(gameMap);
         } else {
-            FileIO io = new FileIO();
-            io.quickSerializeGameMap(gameMap, previousFilePath);
+            lastSave = mapSaver.save(gameMap, previousFilePath, this);
+            if (journal == null) startJournal(gameMap, previousFilePath, false);
+        }
+    }
+
+    private void startJournal(GameMap gameMap, String path, boolean fresh){
+        if (journal != null){
+            if (journal.getMapPath().equals(path))
+                journal.close(); //Carried on right away, or started over if fresh
+            else
+                journal.discard(); //Moving on from that file, so what wasn't saved into it is given up
         }
+        try {
+            journal = (fresh) ? MapJournal.create(path, gameMap) : MapJournal.open(path, gameMap);
+        } catch (IOException e) {
+            System.out.printf("[MappingFilePanel.startJournal] Could not journal edits to %1$s\n", path);
+            e.printStackTrace();
+            journal = null;
+        }
+        undoManager.setJournal(journal);
+    }
+
+    //Saves the map in the background once enough has been journaled. The journal is trimmed once the save lands.
+    private void compactJournal(GameMap gameMap){
+        if (journal == null || !journal.hasRecords() || !autosaving || (lastSave != null && !lastSave.isDone())) return;
+        if (journal.getLength() < COMPACT_BYTES && System.currentTimeMillis() - lastCompactionTime < COMPACT_PERIOD_MS) return;
+        lastSave = mapSaver.save(gameMap, previousFilePath, autosaveListener);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        compactTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        //The editor is closing cleanly, so the journal goes. Edits that weren't saved aren't brought back when the map is next opened.
+        compactTimer.stop();
+        if (journal != null) journal.discard();
+        journal = null;
+        undoManager.setJournal(null);
+    }
+
+    @Override
+    public void onSaveProgress(String path, double progress) {
+        saveStatusLabel.setText(String.format("Saving... %1$d%%", (int)(progress * 100)));
+    }
+
+    @Override
+    public void onSaveFinished(String path) {
+        saveStatusLabel.setText("Saved " + new File(path).getName());
+        saveStatusLabel.setToolTipText(null);
+        autosaving = true;
+        if (journal != null && path.equals(previousFilePath)) {
+            journal.compact();
+            lastCompactionTime = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public void onSaveFailed(String path, Exception e) {
+        saveStatusLabel.setText("Save failed!");
+        autosaving = false;
+        JOptionPane.showMessageDialog(this, "ERROR: Could not save " + new File(path).getName() + ":\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
     }
 
     private void openMap(GameMap gameMap){
@@ -59,6 +179,7 @@ public class MappingFilePanel extends JPanel {
             GameMap loadedMap = io.openLevel(mapFile);
             if (loadedMap != null) {
                 gameMap.setAllData(loadedMap);
+                startJournal(gameMap, previousFilePath, false);
             }
         }
     }
@@ -1,73 +1,523 @@
 package com.discordvtt.Editor.Mapping;
 
 import com.discordvtt.Data.GameMap;
+import com.discordvtt.Data.MapJournal;
+import com.discordvtt.Engine.Layer;
+import com.discordvtt.Engine.LayerChangeRecorder;
+import com.discordvtt.Engine.SpecialText;
 
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 /**
  * Created by Jared on 3/20/2018.
  */
-public class UndoManager {
+public class UndoManager implements LayerChangeRecorder {
 
     /**
      * UndoManager:
      *
-     * Stores a list of previous GameMap's and substitutes them into the current GameMap when called upon to do so.
+     * Records what each stroke (everything done between pressing and releasing the mouse, or a find-and-replace) changed on the GameMap, so that it can be undone.
      *
-     * Calling 'undo' moves a pointer backwards through its list of GameMap's
+     * The GameMap's layers report every cell just before it changes. The first time a stroke touches a cell, the cell's old contents are kept,
+     * and once the stroke ends, each touched cell's new contents are read back. Cells that ended up the way they started are dropped,
+     * and a stroke that changed nothing (like moving the view) isn't kept at all. Undoing or redoing a stroke only touches the cells it changed.
+     * Clearing or filling a whole layer is the exception: the layer hands over its old contents as they are, instead of every cell being read.
+     *
+     * Calling 'undo' moves a pointer backwards through the list of strokes
      * Calling 'redo' moves that pointer forwards.
+     *
+     * Rather than keeping a set number of strokes, the oldest strokes are forgotten once the history's estimated size goes over a memory budget.
+     * Opening a different map clears the history, since none of it applies anymore.
+     *
+     * Given a MapJournal, every finished stroke (and every undo and redo) is also appended to it, as the cells' new contents.
      */
 
-    private ArrayList<GameMap> pastGameMap = new ArrayList<>();
-    private GameMap currentGameMap;
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20; //64 MB
 
-    private JFrame editorFrame;
+    private ArrayList<Stroke> history = new ArrayList<>();
+    private int historyPointer = 0; //The number of strokes currently applied. Those after it can be redone.
+    private long historyBytes = 0;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
 
-    private static final int MAX_UNDO_HISTORY = 200;
-    private int historyPointer;
+    private Stroke currentStroke = new Stroke();
+    private boolean applying = false; //Set while undoing or redoing, whose own edits shouldn't be recorded
+
+    private JFrame editorFrame;
+    private MapJournal journal;
 
     public UndoManager(GameMap gamemap, JFrame editorFrame){
-        currentGameMap = gamemap;
         this.editorFrame = editorFrame;
-        System.out.printf("[UndoManager] Level history size: %1$d\n", pastGameMap.size());
-        recordGameMap();
+        gamemap.getBackdrop().setChangeRecorder(this);
+        gamemap.getTokenLayer().setChangeRecorder(this);
+        gamemap.getHideLayer().setChangeRecorder(this);
     }
 
+    /**
+     * @param bytes Roughly how much memory the undo history may take up. The most recent stroke is always kept, however big it is.
+     */
+    public void setMemoryBudget(long bytes){
+        memoryBudget = bytes;
+        trimHistory();
+    }
+
+    public long getMemoryBudget() { return memoryBudget; }
+
+    /**
+     * @param journal Where to write down each change to the map from now on. null to stop journaling.
+     */
+    public void setJournal(MapJournal journal){
+        this.journal = journal;
+    }
+
+    /**
+     * Ends the current stroke, adding it to the history if it changed anything.
+     */
     void recordGameMap(){
-        for (int ii = pastGameMap.size()-1; ii > historyPointer; ii--){ //Get rid of the history ahead of the pointer, now on an older branch of the timeline.
-            pastGameMap.remove(ii);
-        }
-        pastGameMap.add(currentGameMap.copy());
-        if (pastGameMap.size() > MAX_UNDO_HISTORY)
-            pastGameMap.remove(0); //Undo history housekeeping
-        historyPointer = pastGameMap.size()-1;
-        System.out.printf("[UndoManager.recordGameMap] Level history size: %1$d\n", pastGameMap.size());
-        System.out.printf("[UndoManager.recordGameMap] Level history pointer: %1$d\n", historyPointer);
+        Stroke stroke = currentStroke;
+        currentStroke = new Stroke();
+        if (!stroke.finish()) return;
+        journal(stroke, false);
+        for (int ii = history.size()-1; ii >= historyPointer; ii--){ //Get rid of the history ahead of the pointer, now on an older branch of the timeline.
+            historyBytes -= history.remove(ii).bytes;
+        }
+        history.add(stroke);
+        historyBytes += stroke.bytes;
+        historyPointer = history.size();
+        trimHistory();
+        System.out.printf("[UndoManager.recordGameMap] Level history size: %1$d (%2$d KB)\n", history.size(), historyBytes >> 10);
         addFrameAsterisk();
     }
 
+    private void trimHistory(){
+        while (historyBytes > memoryBudget && history.size() > 1){
+            if (historyPointer > 0) { //Undo history housekeeping
+                historyBytes -= history.remove(0).bytes;
+                historyPointer--;
+            } else //Everything is undone, so forget about the furthest redo instead; the rest depend on the first
+                historyBytes -= history.remove(history.size()-1).bytes;
+        }
+    }
+
     void doUndo(){
+        recordGameMap(); //Anything not yet recorded counts as its own stroke
+        if (historyPointer == 0) return;
         historyPointer--;
-        if (historyPointer < 0) historyPointer = 0;
         System.out.printf("[UndoManager.doUndo] Level history pointer: %1$d\n", historyPointer);
-        GameMap pastData = pastGameMap.get(historyPointer);
-        currentGameMap.setAllData(pastData);
+        applying = true;
+        try {
+            history.get(historyPointer).undo();
+        } finally {
+            applying = false;
+        }
+        journal(history.get(historyPointer), true);
         addFrameAsterisk();
     }
 
     void doRedo(){
+        recordGameMap();
+        if (historyPointer == history.size()) return;
+        System.out.printf("[UndoManager.doRedo] Level history pointer: %1$d\n", historyPointer + 1);
+        applying = true;
+        try {
+            history.get(historyPointer).redo();
+        } finally {
+            applying = false;
+        }
+        journal(history.get(historyPointer), false);
         historyPointer++;
-        if (historyPointer > pastGameMap.size()-1) historyPointer = pastGameMap.size()-1;
-        System.out.printf("[UndoManager.doRedo] Level history pointer: %1$d\n", historyPointer);
-        GameMap pastData = pastGameMap.get(historyPointer);
-        currentGameMap.setAllData(pastData);
         addFrameAsterisk();
     }
 
+    @Override
+    public void cellsChanging(Layer layer, int col, int row, int width, int height) {
+        if (!applying) currentStroke.cellsChanging(layer, col, row, width, height);
+    }
+
+    @Override
+    public void layerFilling(Layer layer, Layer before, SpecialText fill) {
+        if (!applying) currentStroke.layerFilling(layer, before, fill);
+    }
+
+    @Override
+    public void layerResizing(Layer layer, int width, int height, int offsetX, int offsetY) {
+        if (!applying) currentStroke.layerResizing(layer, width, height, offsetX, offsetY);
+    }
+
+    @Override
+    public void layerReplaced(Layer layer) {
+        if (applying || (history.isEmpty() && currentStroke.isEmpty())) return;
+        history.clear();
+        historyPointer = 0;
+        historyBytes = 0;
+        currentStroke = new Stroke();
+        System.out.println("[UndoManager.layerReplaced] Map replaced; level history cleared");
+    }
+
+    private void journal(Stroke stroke, boolean undone){
+        if (journal == null) return;
+        journal.beginRecord();
+        stroke.journal(journal, undone);
+        journal.endRecord();
+    }
+
     private void addFrameAsterisk(){
         if (editorFrame != null && !editorFrame.getTitle().contains("*")){
             editorFrame.setTitle(editorFrame.getTitle().concat("*"));
         }
     }
+
+    private static SpecialText intern(SpecialText text){
+        return (text == null) ? null : text.intern(); //Shared copies, so that a change costs a reference instead of a whole SpecialText
+    }
+
+    private static boolean same(SpecialText a, SpecialText b){
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * One undoable change to a layer.
+     */
+    private interface Delta {
+        void undo();
+        void redo();
+        /**
+         * Appends what the layer looks like after undoing or redoing this.
+         */
+        void journal(MapJournal journal, boolean undone);
+        boolean isEmpty();
+        long estimatedBytes();
+    }
+
+    /**
+     * Everything changed in a single stroke, in order.
+     */
+    private static class Stroke {
+        private static final long OVERHEAD_BYTES = 128;
+
+        private final ArrayList<Delta> deltas = new ArrayList<>();
+        private final IdentityHashMap<Layer, CellDelta> openDeltas = new IdentityHashMap<>(); //Layers compare equal by name, so they're told apart by identity here
+        long bytes;
+
+        void cellsChanging(Layer layer, int col, int row, int width, int height){
+            CellDelta delta = openDeltas.get(layer);
+            if (delta == null){
+                delta = new CellDelta(layer);
+                openDeltas.put(layer, delta);
+                deltas.add(delta);
+            }
+            delta.capture(col, row, width, height);
+        }
+
+        void layerFilling(Layer layer, Layer before, SpecialText fill){
+            CellDelta open = openDeltas.remove(layer);
+            if (open != null) open.finish(); //Its cells end up the way they were just before the fill
+            deltas.add(new FillDelta(layer, before, fill));
+        }
+
+        void layerResizing(Layer layer, int width, int height, int offsetX, int offsetY){
+            CellDelta open = openDeltas.remove(layer);
+            if (open != null) open.finish(); //Its cells are in the old coordinates, so it has to end before the resize
+            deltas.add(new ResizeDelta(layer, width, height, offsetX, offsetY));
+        }
+
+        boolean isEmpty() { return deltas.isEmpty(); }
+
+        /**
+         * @return Whether the stroke changed anything.
+         */
+        boolean finish(){
+            for (CellDelta open : openDeltas.values()) open.finish();
+            openDeltas.clear();
+            deltas.removeIf(Delta::isEmpty);
+            bytes = OVERHEAD_BYTES;
+            for (Delta delta : deltas) bytes += delta.estimatedBytes();
+            return !deltas.isEmpty();
+        }
+
+        void undo(){
+            for (int i = deltas.size() - 1; i >= 0; i--) deltas.get(i).undo();
+        }
+
+        void redo(){
+            for (Delta delta : deltas) delta.redo();
+        }
+
+        void journal(MapJournal journal, boolean undone){
+            if (undone) {
+                for (int i = deltas.size() - 1; i >= 0; i--) deltas.get(i).journal(journal, true);
+            } else {
+                for (Delta delta : deltas) delta.journal(journal, false);
+            }
+        }
+    }
+
+    /**
+     * A list of cells, each with its position and contents.
+     */
+    private static class CellList {
+        int size = 0;
+        int[] cols = new int[16];
+        int[] rows = new int[16];
+        SpecialText[] texts = new SpecialText[16];
+
+        void add(int col, int row, SpecialText text){
+            if (size == cols.length){
+                cols = Arrays.copyOf(cols, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+                texts = Arrays.copyOf(texts, size * 2);
+            }
+            cols[size] = col;
+            rows[size] = row;
+            texts[size] = text;
+            size++;
+        }
+
+        void trim(){
+            cols = Arrays.copyOf(cols, size);
+            rows = Arrays.copyOf(rows, size);
+            texts = Arrays.copyOf(texts, size);
+        }
+    }
+
+    /**
+     * Cells of one layer, with what they held before and after the stroke.
+     */
+    private static class CellDelta implements Delta {
+        private static final int BYTES_PER_CELL = 16; //Column, row, and two references
+
+        private final Layer layer;
+        private CellList before = new CellList();
+        private SpecialText[] after;
+        private CellSet touched = new CellSet(); //Only needed while the stroke is going on
+
+        CellDelta(Layer layer){
+            this.layer = layer;
+        }
+
+        void capture(int col, int row, int width, int height){
+            for (int y = row; y < row + height; y++){
+                for (int x = col; x < col + width; x++){
+                    if (touched.add(x, y))
+                        before.add(x, y, intern(layer.getSpecialText(x, y)));
+                }
+            }
+        }
+
+        //Reads back what the cells hold now, dropping those that didn't actually change.
+        void finish(){
+            after = new SpecialText[before.size];
+            int kept = 0;
+            for (int i = 0; i < before.size; i++){
+                SpecialText now = intern(layer.getSpecialText(before.cols[i], before.rows[i]));
+                if (same(before.texts[i], now)) continue;
+                before.cols[kept] = before.cols[i];
+                before.rows[kept] = before.rows[i];
+                before.texts[kept] = before.texts[i];
+                after[kept] = now;
+                kept++;
+            }
+            before.size = kept;
+            before.trim();
+            after = Arrays.copyOf(after, kept);
+            touched = null;
+        }
+
+        @Override
+        public void undo() {
+            for (int i = before.size - 1; i >= 0; i--)
+                layer.editLayer(before.cols[i], before.rows[i], before.texts[i]);
+        }
+
+        @Override
+        public void redo() {
+            for (int i = 0; i < before.size; i++)
+                layer.editLayer(before.cols[i], before.rows[i], after[i]);
+        }
+
+        @Override
+        public void journal(MapJournal journal, boolean undone) {
+            journal.appendCells(layer, before.size, before.cols, before.rows, undone ? before.texts : after);
+        }
+
+        @Override
+        public boolean isEmpty() { return before.size == 0; }
+
+        @Override
+        public long estimatedBytes() { return (long)before.size * BYTES_PER_CELL; }
+    }
+
+    /**
+     * A whole layer cleared or filled at once, keeping the layer's old contents just as it handed them over.
+     */
+    private static class FillDelta implements Delta {
+        private static final int BLOCK = 32;
+        private static final int BYTES_PER_CELL = 2; //Map layers keep a palette index per cell, at most, and usually far fewer
+
+        private final Layer layer;
+        private final Layer before;
+        private final SpecialText fill;
+
+        FillDelta(Layer layer, Layer before, SpecialText fill){
+            this.layer = layer;
+            this.before = before;
+            this.fill = intern(fill);
+        }
+
+        @Override
+        public void undo() {
+            layer.transpose(before); //Copies the old contents, so that they're still intact for undoing again after a redo
+        }
+
+        @Override
+        public void redo() {
+            if (fill == null)
+                layer.clearLayer();
+            else
+                layer.fillLayer(fill);
+        }
+
+        @Override
+        public void journal(MapJournal journal, boolean undone) {
+            if (!undone) {
+                journal.appendFill(layer, fill);
+                return;
+            }
+            //Undoing one has to write down every cell it brings back. Going a block at a time skips past the empty parts.
+            journal.appendFill(layer, null);
+            CellList cells = new CellList();
+            for (int blockRow = 0; blockRow < before.getRows(); blockRow += BLOCK){
+                for (int blockCol = 0; blockCol < before.getCols(); blockCol += BLOCK){
+                    if (before.isAreaEmpty(blockCol, blockRow, BLOCK, BLOCK)) continue;
+                    for (int row = blockRow; row < Math.min(blockRow + BLOCK, before.getRows()); row++)
+                        for (int col = blockCol; col < Math.min(blockCol + BLOCK, before.getCols()); col++)
+                            if (!before.isCellEmpty(col, row)) cells.add(col, row, before.getSpecialText(col, row));
+                }
+            }
+            journal.appendCells(layer, cells.size, cells.cols, cells.rows, cells.texts);
+        }
+
+        @Override
+        public boolean isEmpty() { return fill == null && before.isAreaEmpty(0, 0, before.getCols(), before.getRows()); }
+
+        @Override
+        public long estimatedBytes() { return 64 + (long)before.getCols() * before.getRows() * BYTES_PER_CELL; }
+    }
+
+    /**
+     * A resize of one layer, along with the cells it cut off so that undoing it can put them back.
+     */
+    private static class ResizeDelta implements Delta {
+        private static final int BLOCK = 32;
+        private static final int BYTES_PER_CELL = 12; //Column, row, and a reference
+
+        private final Layer layer;
+        private final int oldCols;
+        private final int oldRows;
+        private final int width;
+        private final int height;
+        private final int offsetX;
+        private final int offsetY;
+        private final CellList cutOff = new CellList();
+
+        ResizeDelta(Layer layer, int width, int height, int offsetX, int offsetY){
+            this.layer = layer;
+            oldCols = layer.getCols();
+            oldRows = layer.getRows();
+            this.width = width;
+            this.height = height;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            //Goes a block at a time, so that the parts staying inside the layer (and empty parts) are skipped without looking at every cell.
+            for (int blockRow = 0; blockRow < oldRows; blockRow += BLOCK){
+                for (int blockCol = 0; blockCol < oldCols; blockCol += BLOCK){
+                    boolean staysInside = blockCol + offsetX >= 0 && blockRow + offsetY >= 0 && blockCol + BLOCK + offsetX <= width && blockRow + BLOCK + offsetY <= height;
+                    if (staysInside || layer.isAreaEmpty(blockCol, blockRow, BLOCK, BLOCK)) continue;
+                    for (int row = blockRow; row < Math.min(blockRow + BLOCK, oldRows); row++){
+                        for (int col = blockCol; col < Math.min(blockCol + BLOCK, oldCols); col++){
+                            int newCol = col + offsetX;
+                            int newRow = row + offsetY;
+                            if ((newCol < 0 || newCol >= width || newRow < 0 || newRow >= height) && !layer.isCellEmpty(col, row))
+                                cutOff.add(col, row, intern(layer.getSpecialText(col, row)));
+                        }
+                    }
+                }
+            }
+            cutOff.trim();
+        }
+
+        @Override
+        public void undo() {
+            layer.resizeLayer(oldCols, oldRows, -offsetX, -offsetY);
+            for (int i = 0; i < cutOff.size; i++)
+                layer.editLayer(cutOff.cols[i], cutOff.rows[i], cutOff.texts[i]);
+        }
+
+        @Override
+        public void redo() {
+            layer.resizeLayer(width, height, offsetX, offsetY);
+        }
+
+        @Override
+        public void journal(MapJournal journal, boolean undone) {
+            if (undone) {
+                journal.appendResize(layer, oldCols, oldRows, -offsetX, -offsetY);
+                journal.appendCells(layer, cutOff.size, cutOff.cols, cutOff.rows, cutOff.texts);
+            } else
+                journal.appendResize(layer, width, height, offsetX, offsetY);
+        }
+
+        @Override
+        public boolean isEmpty() { return width == oldCols && height == oldRows && offsetX == 0 && offsetY == 0; }
+
+        @Override
+        public long estimatedBytes() { return 64 + (long)cutOff.size * BYTES_PER_CELL; }
+    }
+
+    /**
+     * An open-addressed set of cell positions, for telling whether a stroke has touched a cell before.
+     */
+    private static class CellSet {
+        private static final long NO_KEY = Long.MIN_VALUE;
+
+        private long[] keys = newKeys(64);
+        private int size = 0;
+
+        private static long[] newKeys(int length){
+            long[] keys = new long[length];
+            Arrays.fill(keys, NO_KEY);
+            return keys;
+        }
+
+        /**
+         * @return True if the cell wasn't in the set yet.
+         */
+        boolean add(int col, int row){
+            if ((size + 1) * 2 > keys.length) grow();
+            long key = ((long)col << 32) | (row & 0xFFFFFFFFL);
+            int slot = slotOf(keys, key);
+            if (keys[slot] == key) return false;
+            keys[slot] = key;
+            size++;
+            return true;
+        }
+
+        private static int slotOf(long[] keys, long key){
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int)(h ^ (h >>> 32)) & mask;
+            while (keys[slot] != NO_KEY && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow(){
+            long[] grown = newKeys(keys.length * 2);
+            for (long key : keys)
+                if (key != NO_KEY) grown[slotOf(grown, key)] = key;
+            keys = grown;
+        }
+    }
 }
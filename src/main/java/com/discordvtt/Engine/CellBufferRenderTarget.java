@@ -0,0 +1,55 @@
+package com.discordvtt.Engine;
+
+public class CellBufferRenderTarget implements RenderTarget {
+
+    /**
+     * CellBufferRenderTarget:
+     *
+     * Keeps a copy of the latest composed frame's cells, which any thread may read.
+     */
+
+    private FrameBuffer cells;
+    private long framesReceived = 0;
+
+    @Override
+    public synchronized void frameComposed(FrameBuffer frame) {
+        if (cells == null || !cells.isSize(frame.getCols(), frame.getRows()))
+            cells = new FrameBuffer(frame.getCols(), frame.getRows());
+        cells.copyFrom(frame);
+        framesReceived++;
+    }
+
+    /**
+     * @return A copy of the latest frame, or null if no frame was composed yet.
+     */
+    public synchronized FrameBuffer copyFrame(){
+        if (cells == null) return null;
+        FrameBuffer copy = new FrameBuffer(cells.getCols(), cells.getRows());
+        copy.copyFrom(cells);
+        return copy;
+    }
+
+    /**
+     * @return The cell of the latest frame, or null if no frame was composed yet, or the cell is outside of it.
+     */
+    public synchronized SpecialText getSpecialText(int col, int row){
+        if (cells == null || col < 0 || row < 0 || col >= cells.getCols() || row >= cells.getRows()) return null;
+        return cells.getSpecialText(col, row);
+    }
+
+    /**
+     * @return The characters of the latest frame, a line per row. Empty if no frame was composed yet.
+     */
+    public synchronized String toText(){
+        if (cells == null) return "";
+        StringBuilder builder = new StringBuilder((cells.getCols() + 1) * cells.getRows());
+        for (int row = 0; row < cells.getRows(); row++) {
+            for (int col = 0; col < cells.getCols(); col++)
+                builder.append(cells.getChar(col, row));
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    public synchronized long getFramesReceived() { return framesReceived; }
+}
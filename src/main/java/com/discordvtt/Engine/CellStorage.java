@@ -0,0 +1,171 @@
+package com.discordvtt.Engine;
+
+abstract class CellStorage {
+
+    /**
+     * CellStorage:
+     *
+     * The backend that actually holds the contents of a Layer.
+     *
+     * Layer only ever talks to its cells through this class, so the way the cells are laid out in memory can change without the rest of the engine noticing.
+     * Every method here assumes the column and row have already been bounds-checked by the Layer.
+     *
+     * A cell is either empty (what used to be a null SpecialText) or holds a character, a packed ARGB font color and a packed ARGB background color.
+     */
+
+    abstract int getCols();
+
+    abstract int getRows();
+
+    abstract boolean isEmpty(int col, int row);
+
+    abstract char getChar(int col, int row);
+
+    abstract int getFgArgb(int col, int row);
+
+    abstract int getBkgArgb(int col, int row);
+
+    /**
+     * @return False if this storage has no room left to represent the cell, in which case nothing was changed.
+     */
+    abstract boolean set(int col, int row, char c, int fgArgb, int bkgArgb);
+
+    abstract void clear(int col, int row);
+
+    /**
+     * Empties every cell in the storage.
+     */
+    abstract void clearAll();
+
+    /**
+     * @return A new storage of the same kind with its own copy of every cell.
+     */
+    abstract CellStorage copy();
+
+    /**
+     * @return A new, empty storage of the same kind with the given dimensions.
+     */
+    abstract CellStorage createEmpty(int cols, int rows);
+
+    /**
+     * Resizes the storage, moving every cell over by an offset. Cells that land outside of the new size are dropped.
+     *
+     * Storages that can resize in place return themselves; the rest return a new storage, leaving this one untouched.
+     *
+     * @return The resized storage, or null if it ran out of room partway through.
+     */
+    CellStorage resize(int cols, int rows, int offsetX, int offsetY){
+        CellStorage resized = createEmpty(cols, rows);
+        return resized.copyFrom(this, offsetX, offsetY) ? resized : null;
+    }
+
+    /**
+     * Builds a SpecialText out of a cell. Storages that keep SpecialTexts around can hand them out directly instead of making a new one.
+     *
+     * @return The SpecialText at the location, or null if the cell is empty.
+     */
+    SpecialText get(int col, int row){
+        if (isEmpty(col, row)) return null;
+        return new SpecialText(getChar(col, row), getFgArgb(col, row), getBkgArgb(col, row));
+    }
+
+    /**
+     * @return False if this storage has no room left to represent the cell, in which case nothing was changed.
+     */
+    boolean set(int col, int row, SpecialText text){
+        if (text == null) {
+            clear(col, row);
+            return true;
+        }
+        return set(col, row, text.getCharacter(), text.getFgArgb(), text.getBkgArgb());
+    }
+
+    /**
+     * Fills every cell with the same SpecialText (or empties them all if null)
+     *
+     * @return False if this storage has no room left to represent the SpecialText.
+     */
+    boolean fill(SpecialText text){
+        if (text == null) {
+            clearAll();
+            return true;
+        }
+        for (int row = 0; row < getRows(); row++){
+            for (int col = 0; col < getCols(); col++){
+                if (!set(col, row, text.getCharacter(), text.getFgArgb(), text.getBkgArgb())) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares a cell against a SpecialText without building one. A null SpecialText matches an empty cell.
+     */
+    boolean matches(int col, int row, SpecialText text){
+        if (isEmpty(col, row)) return text == null;
+        return text != null && getChar(col, row) == text.getCharacter() && getFgArgb(col, row) == text.getFgArgb() && getBkgArgb(col, row) == text.getBkgArgb();
+    }
+
+    /**
+     * Makes a matcher that repeatedly compares cells against the same SpecialText.
+     * Storages can override this to boil the comparison down to something cheaper, like a single integer compare.
+     */
+    Layer.CellMatcher matcherFor(SpecialText text){
+        return (col, row) -> matches(col, row, text);
+    }
+
+    /**
+     * Copies every cell of another storage into this one, shifted over by an offset. Cells that land outside of this storage are dropped.
+     *
+     * @return False if this storage ran out of room partway through.
+     */
+    boolean copyFrom(CellStorage other, int offsetX, int offsetY){
+        for (int row = 0; row < other.getRows(); row++){
+            int y = row + offsetY;
+            if (y < 0 || y >= getRows()) continue;
+            for (int col = 0; col < other.getCols(); col++){
+                int x = col + offsetX;
+                if (x < 0 || x >= getCols()) continue;
+                if (other.isEmpty(col, row))
+                    clear(x, y);
+                else if (!set(x, y, other.getChar(col, row), other.getFgArgb(col, row), other.getBkgArgb(col, row)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether every cell of a rectangle is empty. The rectangle may reach past the edges of the storage.
+     */
+    boolean isAreaEmpty(int col, int row, int width, int height){
+        int right = Math.min(col + width, getCols());
+        int bottom = Math.min(row + height, getRows());
+        for (int y = Math.max(row, 0); y < bottom; y++){
+            for (int x = Math.max(col, 0); x < right; x++){
+                if (!isEmpty(x, y)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hints that a rectangle is about to be looked at, so that storages which load lazily can get it ready ahead of time.
+     * The rectangle may reach past the edges of the storage.
+     */
+    void prefetch(int col, int row, int width, int height){}
+
+    /**
+     * @return The LayerChunkSource this storage is still loading chunks from, or null if it isn't loading lazily.
+     */
+    LayerChunkSource getChunkSource(){
+        return null;
+    }
+
+    /**
+     * @return The index (in getChunkSource()) of the not-yet-loaded chunk covering these cells, or -1 if they are already loaded.
+     */
+    int getPendingChunk(int chunkCol, int chunkRow){
+        return -1;
+    }
+}
@@ -0,0 +1,612 @@
+package com.discordvtt.Engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class ChunkedCellStorage extends CellStorage {
+
+    /**
+     * ChunkedCellStorage:
+     *
+     * A CellStorage for big, mostly empty layers. Cells are palette indices (like PaletteCellStorage), grouped into 32x32 chunks.
+     *
+     * Chunks are only created when something is drawn into them, and are thrown away again once they are emptied, so memory follows the painted area instead of the layer's size.
+     *
+     * Chunks are keyed by their position in a "world" grid that doesn't move when the layer is resized.
+     * Instead, the storage keeps an origin: the world position of the layer's top-left cell. Resizing only changes the origin and dimensions,
+     * so growing the layer in any direction costs nothing, however big it is. Shrinking also clears whatever fell outside, which costs as much as there are chunks.
+     *
+     * Every cell outside of the layer's bounds is always empty.
+     *
+     * A storage can also be handed a LayerChunkSource, like a map file, to load from lazily. Its chunks stay "pending" until something reads or writes one of their cells,
+     * at which point the chunk is decoded. prefetch() decodes the chunks on screen up front, and queues the ring of chunks around them to be decoded in the background,
+     * so that scrolling around rarely has to wait on one. Chunks that are cleared or fall outside of the layer before anything looks at them are never decoded at all.
+     *
+     * Reads aren't locked, but anything that adds or removes chunks is, since chunks may be loaded from the rendering and prefetching threads.
+     */
+
+    static final int CHUNK_SHIFT = 5;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_TABLE_SIZE = 16;
+
+    private int cols;
+    private int rows;
+    private int originX; //World position of cell (0, 0)
+    private int originY;
+
+    //Replaced as a whole when it grows, so a reader (like a compositor thread) always sees a consistent table.
+    private volatile ChunkTable table = new ChunkTable(INITIAL_TABLE_SIZE);
+
+    //Chunks of a LayerChunkSource that haven't been decoded yet. Null when there are none left.
+    private volatile PendingChunks pending;
+
+    private static final ExecutorService PREFETCHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Chunk Prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ChunkedCellStorage(int cols, int rows){
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * A 32x32 block of palette indices.
+     */
+    private static class Chunk {
+        final short[] cells = new short[CHUNK_SIZE * CHUNK_SIZE];
+        int filled = 0; //The number of non-empty cells, so empty chunks can be spotted right away
+
+        Chunk copy(){
+            Chunk copy = new Chunk();
+            System.arraycopy(cells, 0, copy.cells, 0, cells.length);
+            copy.filled = filled;
+            return copy;
+        }
+    }
+
+    /**
+     * An open-addressed table from chunk position to Chunk.
+     * Removing a chunk leaves its key behind with a null Chunk, so lookups never need to shift anything around. Those slots are dropped when the table grows.
+     */
+    private static class ChunkTable {
+        private static final long NO_KEY = Long.MIN_VALUE;
+
+        final long[] keys;
+        final Chunk[] chunks;
+        int used = 0; //Slots holding a key, including those whose chunk was removed
+
+        ChunkTable(int size){
+            keys = new long[size];
+            chunks = new Chunk[size];
+            Arrays.fill(keys, NO_KEY);
+        }
+
+        private int slotOf(long key){
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int)(h ^ (h >>> 32)) & mask;
+            while (keys[slot] != NO_KEY && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        Chunk get(long key){
+            return chunks[slotOf(key)];
+        }
+    }
+
+    /**
+     * The chunks a LayerChunkSource has that haven't been decoded yet, in an open-addressed table from chunk position to the chunk's index in the source.
+     * The table itself never changes; each chunk's state does, from PENDING (possibly through QUEUED for the prefetcher) to SETTLED once it's decoded or dropped.
+     */
+    private static class PendingChunks {
+        static final int PENDING = 0;
+        static final int QUEUED = 1;
+        static final int SETTLED = 2;
+
+        final LayerChunkSource source;
+        final int[] paletteIndices; //Source palette reference -> SpecialTextPalette index
+        final long[] keys;
+        final int[] sourceChunks;
+        final AtomicIntegerArray states;
+        int remaining; //Chunks not yet SETTLED. Only changed while holding the storage's lock.
+
+        private PendingChunks(LayerChunkSource source, int[] paletteIndices, long[] keys, int[] sourceChunks, AtomicIntegerArray states, int remaining){
+            this.source = source;
+            this.paletteIndices = paletteIndices;
+            this.keys = keys;
+            this.sourceChunks = sourceChunks;
+            this.states = states;
+            this.remaining = remaining;
+        }
+
+        PendingChunks(LayerChunkSource source, int[] paletteIndices){
+            this.source = source;
+            this.paletteIndices = paletteIndices;
+            int size = INITIAL_TABLE_SIZE;
+            while (size < source.getChunkCount() * 2) size <<= 1;
+            keys = new long[size];
+            sourceChunks = new int[size];
+            states = new AtomicIntegerArray(size);
+            Arrays.fill(keys, ChunkTable.NO_KEY);
+            for (int i = 0; i < size; i++) states.set(i, SETTLED); //Slots without a chunk never need loading
+            for (int chunk = 0; chunk < source.getChunkCount(); chunk++){
+                long key = key(source.getChunkX(chunk), source.getChunkY(chunk));
+                int slot = probe(key);
+                if (keys[slot] == key) continue; //A source listing the same chunk twice gets its first copy used
+                keys[slot] = key;
+                sourceChunks[slot] = chunk;
+                states.set(slot, PENDING);
+                remaining++;
+            }
+        }
+
+        private int probe(long key){
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            int slot = (int)(h ^ (h >>> 32)) & mask;
+            while (keys[slot] != ChunkTable.NO_KEY && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /**
+         * @return The slot of a chunk that hasn't been settled yet, or -1 if there is no such chunk.
+         */
+        int slotOf(long key){
+            int slot = probe(key);
+            return (keys[slot] == key && states.get(slot) != SETTLED) ? slot : -1;
+        }
+
+        //A copy with its own states, for a copied storage. Both go on to load chunks from the same source independently.
+        PendingChunks copy(){
+            AtomicIntegerArray copiedStates = new AtomicIntegerArray(states.length());
+            for (int i = 0; i < states.length(); i++)
+                copiedStates.set(i, states.get(i) == SETTLED ? SETTLED : PENDING);
+            return new PendingChunks(source, paletteIndices, keys, sourceChunks, copiedStates, remaining);
+        }
+    }
+
+    private static long key(int chunkX, int chunkY){
+        return ((long)chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+    }
+
+    private static int chunkXOf(long key) { return (int)(key >> 32); }
+
+    private static int chunkYOf(long key) { return (int)key; }
+
+    private static int cellIndex(int worldX, int worldY) { return ((worldY & CHUNK_MASK) << CHUNK_SHIFT) | (worldX & CHUNK_MASK); }
+
+    private Chunk chunkAt(int worldX, int worldY){
+        long key = key(worldX >> CHUNK_SHIFT, worldY >> CHUNK_SHIFT);
+        Chunk chunk = table.get(key);
+        if (chunk == null && pending != null)
+            chunk = loadPending(key);
+        return chunk;
+    }
+
+    //Decodes a chunk if it's still pending, returning whatever chunk ends up at its position.
+    private Chunk loadPending(long key){
+        PendingChunks current = pending;
+        if (current != null && current.slotOf(key) >= 0){
+            synchronized (this) {
+                int slot = current.slotOf(key);
+                if (slot >= 0 && current == pending)
+                    decode(current, slot);
+            }
+        }
+        return table.get(key);
+    }
+
+    //Must hold the lock.
+    private void decode(PendingChunks current, int slot){
+        int[] refs = new int[CHUNK_SIZE * CHUNK_SIZE];
+        if (current.source.readChunk(current.sourceChunks[slot], refs)){
+            Chunk chunk = new Chunk();
+            for (int cell = 0; cell < refs.length; cell++){
+                int index = current.paletteIndices[refs[cell]];
+                chunk.cells[cell] = (short)index;
+                if (index != SpecialTextPalette.EMPTY_INDEX) chunk.filled++;
+            }
+            if (chunk.filled > 0)
+                insertChunk(current.keys[slot], chunk);
+        }
+        settle(current, slot);
+    }
+
+    //Must hold the lock. Marks a chunk as done with, whether it was decoded or dropped.
+    private void settle(PendingChunks current, int slot){
+        current.states.set(slot, PendingChunks.SETTLED);
+        if (--current.remaining == 0 && pending == current)
+            pending = null;
+    }
+
+    /**
+     * Starts loading lazily from a LayerChunkSource. The storage must be freshly made, since the source's chunks are placed relative to the layer's original top-left corner.
+     *
+     * @return False if the source's palette doesn't fit into the SpecialTextPalette, in which case nothing was changed.
+     */
+    synchronized boolean attach(LayerChunkSource source){
+        SpecialText[] palette = source.getPalette();
+        int[] paletteIndices = new int[palette.length + 1];
+        paletteIndices[0] = SpecialTextPalette.EMPTY_INDEX;
+        for (int i = 0; i < palette.length; i++){
+            paletteIndices[i + 1] = SpecialTextPalette.indexOf(palette[i]);
+            if (paletteIndices[i + 1] < 0) return false;
+        }
+        PendingChunks loading = new PendingChunks(source, paletteIndices);
+        pending = (loading.remaining > 0) ? loading : null;
+        return true;
+    }
+
+    /**
+     * Decodes every chunk that is still pending.
+     */
+    synchronized void loadAll(){
+        PendingChunks current = pending;
+        if (current == null) return;
+        for (int slot = 0; slot < current.keys.length && pending == current; slot++)
+            if (current.states.get(slot) != PendingChunks.SETTLED) decode(current, slot);
+    }
+
+    @Override
+    void prefetch(int col, int row, int width, int height){
+        PendingChunks current = pending;
+        if (current == null || width <= 0 || height <= 0) return;
+        int left = Math.max(col, 0);
+        int top = Math.max(row, 0);
+        int right = Math.min(col + width, cols) - 1;
+        int bottom = Math.min(row + height, rows) - 1;
+        if (left > right || top > bottom) return;
+        int chunkLeft = (left + originX) >> CHUNK_SHIFT;
+        int chunkTop = (top + originY) >> CHUNK_SHIFT;
+        int chunkRight = (right + originX) >> CHUNK_SHIFT;
+        int chunkBottom = (bottom + originY) >> CHUNK_SHIFT;
+        for (int chunkY = chunkTop - 1; chunkY <= chunkBottom + 1; chunkY++){
+            for (int chunkX = chunkLeft - 1; chunkX <= chunkRight + 1; chunkX++){
+                long key = key(chunkX, chunkY);
+                int slot = current.slotOf(key);
+                if (slot < 0) continue;
+                boolean onScreen = chunkX >= chunkLeft && chunkX <= chunkRight && chunkY >= chunkTop && chunkY <= chunkBottom;
+                if (onScreen)
+                    loadPending(key);
+                else if (current.states.compareAndSet(slot, PendingChunks.PENDING, PendingChunks.QUEUED))
+                    PREFETCHER.execute(() -> loadPending(key));
+            }
+        }
+    }
+
+    @Override
+    LayerChunkSource getChunkSource(){
+        PendingChunks current = pending;
+        return (current == null) ? null : current.source;
+    }
+
+    @Override
+    int getPendingChunk(int chunkCol, int chunkRow){
+        PendingChunks current = pending;
+        if (current == null || (originX & CHUNK_MASK) != 0 || (originY & CHUNK_MASK) != 0) return -1; //The layer's chunk grid no longer lines up with the source's
+        int slot = current.slotOf(key(chunkCol + (originX >> CHUNK_SHIFT), chunkRow + (originY >> CHUNK_SHIFT)));
+        return (slot < 0) ? -1 : current.sourceChunks[slot];
+    }
+
+    //Settles the pending chunks overlapping a rectangle (in layer coordinates) before its cells are cleared. Must hold the lock.
+    //Chunks entirely inside are dropped without decoding; those only partly inside are decoded.
+    private void settlePendingIn(int left, int top, int width, int height){
+        PendingChunks current = pending;
+        if (current == null) return;
+        for (int slot = 0; slot < current.keys.length && pending == current; slot++){
+            if (current.states.get(slot) == PendingChunks.SETTLED) continue;
+            int chunkLeft = (chunkXOf(current.keys[slot]) << CHUNK_SHIFT) - originX;
+            int chunkTop = (chunkYOf(current.keys[slot]) << CHUNK_SHIFT) - originY;
+            if (chunkLeft >= left + width || chunkLeft + CHUNK_SIZE <= left || chunkTop >= top + height || chunkTop + CHUNK_SIZE <= top) continue; //Doesn't overlap
+            boolean covered = chunkLeft >= left && chunkTop >= top && chunkLeft + CHUNK_SIZE <= left + width && chunkTop + CHUNK_SIZE <= top + height;
+            if (covered)
+                settle(current, slot);
+            else
+                decode(current, slot);
+        }
+    }
+
+    private synchronized Chunk createChunk(int worldX, int worldY){
+        Chunk chunk = new Chunk();
+        insertChunk(key(worldX >> CHUNK_SHIFT, worldY >> CHUNK_SHIFT), chunk);
+        return chunk;
+    }
+
+    //Must hold the lock.
+    private void insertChunk(long key, Chunk chunk){
+        ChunkTable current = table;
+        if ((current.used + 1) * 2 > current.keys.length)
+            current = rebuild(current, current.keys.length * 2);
+        int slot = current.slotOf(key);
+        current.chunks[slot] = chunk;
+        if (current.keys[slot] != key){
+            current.keys[slot] = key;
+            current.used++;
+        }
+    }
+
+    //Moves every remaining chunk into a fresh table, dropping the keys of removed chunks.
+    private ChunkTable rebuild(ChunkTable old, int size){
+        int live = 0;
+        for (Chunk chunk : old.chunks) if (chunk != null) live++;
+        while (size > INITIAL_TABLE_SIZE && (live + 1) * 4 < size) size >>= 1; //Mostly removed chunks, so it doesn't actually need to grow
+        ChunkTable rebuilt = new ChunkTable(size);
+        for (int i = 0; i < old.keys.length; i++){
+            if (old.chunks[i] != null){
+                int slot = rebuilt.slotOf(old.keys[i]);
+                rebuilt.keys[slot] = old.keys[i];
+                rebuilt.chunks[slot] = old.chunks[i];
+                rebuilt.used++;
+            }
+        }
+        table = rebuilt;
+        return rebuilt;
+    }
+
+    private synchronized void removeChunk(int worldX, int worldY){
+        ChunkTable current = table;
+        current.chunks[current.slotOf(key(worldX >> CHUNK_SHIFT, worldY >> CHUNK_SHIFT))] = null;
+    }
+
+    private int paletteIndex(int col, int row){
+        int worldX = col + originX;
+        int worldY = row + originY;
+        Chunk chunk = chunkAt(worldX, worldY);
+        return (chunk == null) ? SpecialTextPalette.EMPTY_INDEX : chunk.cells[cellIndex(worldX, worldY)] & 0xFFFF;
+    }
+
+    private void setIndex(int col, int row, int index){
+        int worldX = col + originX;
+        int worldY = row + originY;
+        Chunk chunk = chunkAt(worldX, worldY);
+        if (chunk == null){
+            if (index == SpecialTextPalette.EMPTY_INDEX) return; //Already empty, and empty chunks aren't stored
+            chunk = createChunk(worldX, worldY);
+        }
+        int cell = cellIndex(worldX, worldY);
+        boolean wasEmpty = chunk.cells[cell] == SpecialTextPalette.EMPTY_INDEX;
+        chunk.cells[cell] = (short)index;
+        if (wasEmpty && index != SpecialTextPalette.EMPTY_INDEX)
+            chunk.filled++;
+        else if (!wasEmpty && index == SpecialTextPalette.EMPTY_INDEX && --chunk.filled == 0)
+            removeChunk(worldX, worldY);
+    }
+
+    /**
+     * @return The number of chunks currently holding something, not counting those still pending.
+     */
+    int getChunkCount(){
+        int count = 0;
+        for (Chunk chunk : table.chunks) if (chunk != null) count++;
+        return count;
+    }
+
+    @Override
+    int getCols() { return cols; }
+
+    @Override
+    int getRows() { return rows; }
+
+    @Override
+    boolean isEmpty(int col, int row) {
+        return paletteIndex(col, row) == SpecialTextPalette.EMPTY_INDEX;
+    }
+
+    @Override
+    char getChar(int col, int row) { return SpecialTextPalette.get(paletteIndex(col, row)).getCharacter(); }
+
+    @Override
+    int getFgArgb(int col, int row) { return SpecialTextPalette.get(paletteIndex(col, row)).getFgArgb(); }
+
+    @Override
+    int getBkgArgb(int col, int row) { return SpecialTextPalette.get(paletteIndex(col, row)).getBkgArgb(); }
+
+    @Override
+    SpecialText get(int col, int row) {
+        return SpecialTextPalette.get(paletteIndex(col, row));
+    }
+
+    @Override
+    boolean set(int col, int row, char c, int fgArgb, int bkgArgb) {
+        int index = SpecialTextPalette.indexOf(c, fgArgb, bkgArgb);
+        if (index < 0) return false;
+        setIndex(col, row, index);
+        return true;
+    }
+
+    @Override
+    boolean set(int col, int row, SpecialText text) {
+        int index = SpecialTextPalette.indexOf(text);
+        if (index < 0) return false;
+        setIndex(col, row, index);
+        return true;
+    }
+
+    @Override
+    void clear(int col, int row) {
+        setIndex(col, row, SpecialTextPalette.EMPTY_INDEX);
+    }
+
+    @Override
+    synchronized void clearAll() {
+        table = new ChunkTable(INITIAL_TABLE_SIZE);
+        pending = null;
+    }
+
+    @Override
+    boolean fill(SpecialText text) {
+        int index = SpecialTextPalette.indexOf(text);
+        if (index < 0) return false;
+        clearAll();
+        if (index == SpecialTextPalette.EMPTY_INDEX) return true;
+        for (int row = 0; row < rows; row++){
+            for (int col = 0; col < cols; col++){
+                setIndex(col, row, index);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    boolean matches(int col, int row, SpecialText text) {
+        return paletteIndex(col, row) == SpecialTextPalette.find(text);
+    }
+
+    @Override
+    Layer.CellMatcher matcherFor(SpecialText text) {
+        int target = SpecialTextPalette.find(text);
+        if (target < 0) return (col, row) -> false; //Not in the palette, so no cell can possibly hold it
+        return (col, row) -> paletteIndex(col, row) == target;
+    }
+
+    @Override
+    synchronized CellStorage copy() {
+        ChunkedCellStorage copy = new ChunkedCellStorage(cols, rows);
+        PendingChunks current = pending;
+        if (current != null)
+            copy.pending = current.copy(); //Pending chunks are cheap to share; the copy decodes them itself if it ever needs them
+        copy.originX = originX;
+        copy.originY = originY;
+        ChunkTable source = table;
+        ChunkTable copied = new ChunkTable(source.keys.length);
+        System.arraycopy(source.keys, 0, copied.keys, 0, source.keys.length);
+        for (int i = 0; i < source.chunks.length; i++)
+            if (source.chunks[i] != null) copied.chunks[i] = source.chunks[i].copy();
+        copied.used = source.used;
+        copy.table = copied;
+        return copy;
+    }
+
+    @Override
+    CellStorage createEmpty(int cols, int rows) {
+        return new ChunkedCellStorage(cols, rows);
+    }
+
+    @Override
+    CellStorage resize(int cols, int rows, int offsetX, int offsetY) {
+        //Cell (col, row) moves to (col + offsetX, row + offsetY), which is the same world position once the origin shifts back by the offset.
+        originX -= offsetX;
+        originY -= offsetY;
+        boolean shrunk = offsetX < 0 || offsetY < 0 || this.cols + offsetX > cols || this.rows + offsetY > rows;
+        this.cols = cols;
+        this.rows = rows;
+        if (shrunk)
+            clearOutside();
+        return this;
+    }
+
+    //Empties every cell that fell outside of the layer's bounds.
+    private synchronized void clearOutside(){
+        PendingChunks loading = pending;
+        if (loading != null){
+            for (int slot = 0; slot < loading.keys.length && pending == loading; slot++){
+                if (loading.states.get(slot) == PendingChunks.SETTLED) continue;
+                int chunkLeft = (chunkXOf(loading.keys[slot]) << CHUNK_SHIFT) - originX;
+                int chunkTop = (chunkYOf(loading.keys[slot]) << CHUNK_SHIFT) - originY;
+                if (chunkLeft >= 0 && chunkTop >= 0 && chunkLeft + CHUNK_SIZE <= cols && chunkTop + CHUNK_SIZE <= rows) continue; //Entirely inside, so it can stay pending
+                if (chunkLeft >= cols || chunkLeft + CHUNK_SIZE <= 0 || chunkTop >= rows || chunkTop + CHUNK_SIZE <= 0)
+                    settle(loading, slot); //Entirely outside, so it would be cleared anyway
+                else
+                    decode(loading, slot);
+            }
+        }
+        ChunkTable current = table;
+        for (int i = 0; i < current.keys.length; i++){
+            Chunk chunk = current.chunks[i];
+            if (chunk == null) continue;
+            int chunkLeft = (chunkXOf(current.keys[i]) << CHUNK_SHIFT) - originX;
+            int chunkTop = (chunkYOf(current.keys[i]) << CHUNK_SHIFT) - originY;
+            if (chunkLeft >= 0 && chunkTop >= 0 && chunkLeft + CHUNK_SIZE <= cols && chunkTop + CHUNK_SIZE <= rows) continue; //Entirely inside
+            for (int y = 0; y < CHUNK_SIZE; y++){
+                for (int x = 0; x < CHUNK_SIZE; x++){
+                    int col = chunkLeft + x;
+                    int row = chunkTop + y;
+                    int cell = (y << CHUNK_SHIFT) | x;
+                    if ((col < 0 || col >= cols || row < 0 || row >= rows) && chunk.cells[cell] != SpecialTextPalette.EMPTY_INDEX){
+                        chunk.cells[cell] = SpecialTextPalette.EMPTY_INDEX;
+                        chunk.filled--;
+                    }
+                }
+            }
+            if (chunk.filled == 0) current.chunks[i] = null;
+        }
+    }
+
+    @Override
+    boolean copyFrom(CellStorage other, int offsetX, int offsetY) {
+        if (!(other instanceof ChunkedCellStorage))
+            return super.copyFrom(other, offsetX, offsetY);
+        //Only the chunks on either side hold anything, so walk those instead of every cell.
+        ChunkedCellStorage chunked = (ChunkedCellStorage)other;
+        chunked.loadAll();
+        clearArea(offsetX, offsetY, chunked.cols, chunked.rows);
+        ChunkTable source = chunked.table;
+        for (int i = 0; i < source.keys.length; i++){
+            Chunk chunk = source.chunks[i];
+            if (chunk == null) continue;
+            int chunkLeft = (chunkXOf(source.keys[i]) << CHUNK_SHIFT) - chunked.originX;
+            int chunkTop = (chunkYOf(source.keys[i]) << CHUNK_SHIFT) - chunked.originY;
+            for (int cell = 0; cell < chunk.cells.length; cell++){
+                if (chunk.cells[cell] == SpecialTextPalette.EMPTY_INDEX) continue;
+                int col = chunkLeft + (cell & CHUNK_MASK) + offsetX;
+                int row = chunkTop + (cell >>> CHUNK_SHIFT) + offsetY;
+                if (col >= 0 && col < cols && row >= 0 && row < rows)
+                    setIndex(col, row, chunk.cells[cell] & 0xFFFF);
+            }
+        }
+        return true;
+    }
+
+    //Empties the cells of a rectangle, by walking the chunks that hold anything.
+    private synchronized void clearArea(int left, int top, int width, int height){
+        settlePendingIn(left, top, width, height);
+        ChunkTable current = table;
+        for (int i = 0; i < current.keys.length; i++){
+            Chunk chunk = current.chunks[i];
+            if (chunk == null) continue;
+            int chunkLeft = (chunkXOf(current.keys[i]) << CHUNK_SHIFT) - originX;
+            int chunkTop = (chunkYOf(current.keys[i]) << CHUNK_SHIFT) - originY;
+            for (int cell = 0; cell < chunk.cells.length; cell++){
+                int col = chunkLeft + (cell & CHUNK_MASK);
+                int row = chunkTop + (cell >>> CHUNK_SHIFT);
+                if (col >= left && col < left + width && row >= top && row < top + height && chunk.cells[cell] != SpecialTextPalette.EMPTY_INDEX){
+                    chunk.cells[cell] = SpecialTextPalette.EMPTY_INDEX;
+                    chunk.filled--;
+                }
+            }
+            if (chunk.filled == 0) current.chunks[i] = null;
+        }
+    }
+
+    @Override
+    boolean isAreaEmpty(int col, int row, int width, int height) {
+        int left = Math.max(col, 0);
+        int top = Math.max(row, 0);
+        int right = Math.min(col + width, cols);
+        int bottom = Math.min(row + height, rows);
+        PendingChunks loading = pending;
+        ChunkTable current = table;
+        //Goes a chunk at a time, so that the empty ones (the vast majority, usually) are skipped without looking at their cells.
+        for (int chunkTop = top; chunkTop < bottom; chunkTop = ((chunkTop + originY) | CHUNK_MASK) + 1 - originY){
+            for (int chunkLeft = left; chunkLeft < right; chunkLeft = ((chunkLeft + originX) | CHUNK_MASK) + 1 - originX){
+                long key = key((chunkLeft + originX) >> CHUNK_SHIFT, (chunkTop + originY) >> CHUNK_SHIFT);
+                if (loading != null && loading.slotOf(key) >= 0) return false; //Sources only hold chunks with something in them
+                Chunk chunk = current.get(key);
+                if (chunk == null) continue;
+                int chunkRight = Math.min(right, ((chunkLeft + originX) | CHUNK_MASK) + 1 - originX);
+                int chunkBottom = Math.min(bottom, ((chunkTop + originY) | CHUNK_MASK) + 1 - originY);
+                for (int y = chunkTop; y < chunkBottom; y++)
+                    for (int x = chunkLeft; x < chunkRight; x++)
+                        if (chunk.cells[cellIndex(x + originX, y + originY)] != SpecialTextPalette.EMPTY_INDEX) return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+package com.discordvtt.Engine;
+
+public class DamageRegion {
+
+    /**
+     * DamageRegion:
+     *
+     * A small set of rectangles marking which cells have changed and need to be drawn again.
+     *
+     * Rectangles that sit close together are merged as they come in, and once there are too many of them the whole region collapses into its bounding box.
+     * That keeps adding a cell cheap and keeps the region small, at the cost of sometimes redrawing a few cells that did not change.
+     *
+     * Rectangles are stored as [left, top, right, bottom), so right and bottom are exclusive.
+     */
+
+    private static final int MAX_RECTS = 32;
+
+    private final int[] lefts = new int[MAX_RECTS];
+    private final int[] tops = new int[MAX_RECTS];
+    private final int[] rights = new int[MAX_RECTS];
+    private final int[] bottoms = new int[MAX_RECTS];
+    private int count = 0;
+
+    /**
+     * Marks a rectangle as damaged.
+     *
+     * @param x The left edge
+     * @param y The top edge
+     * @param width The width of the rectangle
+     * @param height The height of the rectangle
+     */
+    public void add(int x, int y, int width, int height){
+        if (width <= 0 || height <= 0) return;
+        int right = x + width;
+        int bottom = y + height;
+        long newArea = (long)width * height;
+        for (int i = count - 1; i >= 0; i--){ //Most recent first, since strokes tend to damage cells next to each other
+            int unionLeft = Math.min(lefts[i], x);
+            int unionTop = Math.min(tops[i], y);
+            int unionRight = Math.max(rights[i], right);
+            int unionBottom = Math.max(bottoms[i], bottom);
+            long unionArea = (long)(unionRight - unionLeft) * (unionBottom - unionTop);
+            long existingArea = (long)(rights[i] - lefts[i]) * (bottoms[i] - tops[i]);
+            if (unionArea <= 2 * (existingArea + newArea)){ //Close enough that merging does not waste much
+                lefts[i] = unionLeft;
+                tops[i] = unionTop;
+                rights[i] = unionRight;
+                bottoms[i] = unionBottom;
+                return;
+            }
+        }
+        if (count == MAX_RECTS){
+            collapse();
+            lefts[0] = Math.min(lefts[0], x);
+            tops[0] = Math.min(tops[0], y);
+            rights[0] = Math.max(rights[0], right);
+            bottoms[0] = Math.max(bottoms[0], bottom);
+            return;
+        }
+        lefts[count] = x;
+        tops[count] = y;
+        rights[count] = right;
+        bottoms[count] = bottom;
+        count++;
+    }
+
+    /**
+     * Adds every rectangle of another region onto this one, shifted over by an offset.
+     */
+    public void addAll(DamageRegion other, int offsetX, int offsetY){
+        for (int i = 0; i < other.count; i++){
+            add(other.lefts[i] + offsetX, other.tops[i] + offsetY, other.rights[i] - other.lefts[i], other.bottoms[i] - other.tops[i]);
+        }
+    }
+
+    //Merges every rectangle into one bounding box
+    private void collapse(){
+        for (int i = 1; i < count; i++){
+            lefts[0] = Math.min(lefts[0], lefts[i]);
+            tops[0] = Math.min(tops[0], tops[i]);
+            rights[0] = Math.max(rights[0], rights[i]);
+            bottoms[0] = Math.max(bottoms[0], bottoms[i]);
+        }
+        count = Math.min(count, 1);
+    }
+
+    /**
+     * Trims every rectangle down to fit within the bounds [0, width) x [0, height), dropping the ones that fall entirely outside.
+     */
+    public void clip(int width, int height){
+        int kept = 0;
+        for (int i = 0; i < count; i++){
+            int left = Math.max(lefts[i], 0);
+            int top = Math.max(tops[i], 0);
+            int right = Math.min(rights[i], width);
+            int bottom = Math.min(bottoms[i], height);
+            if (left < right && top < bottom){
+                lefts[kept] = left;
+                tops[kept] = top;
+                rights[kept] = right;
+                bottoms[kept] = bottom;
+                kept++;
+            }
+        }
+        count = kept;
+    }
+
+    public boolean isEmpty() { return count == 0; }
+
+    public void clear() { count = 0; }
+
+    public int getRectCount() { return count; }
+
+    public int getLeft(int rect) { return lefts[rect]; }
+
+    public int getTop(int rect) { return tops[rect]; }
+
+    public int getRight(int rect) { return rights[rect]; }
+
+    public int getBottom(int rect) { return bottoms[rect]; }
+}
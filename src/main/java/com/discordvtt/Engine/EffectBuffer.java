@@ -0,0 +1,107 @@
+package com.discordvtt.Engine;
+
+public class EffectBuffer {
+
+    /**
+     * EffectBuffer:
+     *
+     * A rectangle of composed cells that a LayerEffect reads from or writes to. It's laid out like a FrameBuffer, but placed somewhere on the screen
+     * instead of starting at its corner, and its cells are addressed by screen coordinates. The rectangle may reach past the edges of the screen.
+     *
+     * The LayerManager keeps its EffectBuffers between frames and only grows them, so applying effects doesn't create any objects once they're big enough.
+     */
+
+    private int left;
+    private int top;
+    private int cols;
+    private int rows;
+
+    private char[] glyphs = new char[0];
+    private int[] fgColors = new int[0];
+    private int[] bkgColors = new int[0];
+
+    /**
+     * Moves and resizes the buffer. The contents are left as they were, and should be considered garbage.
+     */
+    void reset(int left, int top, int cols, int rows){
+        this.left = left;
+        this.top = top;
+        this.cols = Math.max(0, cols);
+        this.rows = Math.max(0, rows);
+        int size = this.cols * this.rows;
+        if (glyphs.length < size){
+            glyphs = new char[size];
+            fgColors = new int[size];
+            bkgColors = new int[size];
+        }
+    }
+
+    public int getLeft() { return left; }
+
+    public int getTop() { return top; }
+
+    public int getRight() { return left + cols; }
+
+    public int getBottom() { return top + rows; }
+
+    public boolean contains(int screenX, int screenY){
+        return screenX >= left && screenY >= top && screenX < left + cols && screenY < top + rows;
+    }
+
+    public char getChar(int screenX, int screenY) { return glyphs[index(screenX, screenY)]; }
+
+    public int getFgArgb(int screenX, int screenY) { return fgColors[index(screenX, screenY)]; }
+
+    public int getBkgArgb(int screenX, int screenY) { return bkgColors[index(screenX, screenY)]; }
+
+    public void set(int screenX, int screenY, char c, int fgArgb, int bkgArgb){
+        int index = index(screenX, screenY);
+        glyphs[index] = c;
+        fgColors[index] = fgArgb;
+        bkgColors[index] = bkgArgb;
+    }
+
+    /**
+     * Copies a run of cells along a row, from one buffer into another (or the same one).
+     *
+     * @param from The buffer to copy from
+     * @param fromX The screen x of the first cell to copy
+     * @param fromY The screen y of the row to copy from
+     * @param toX The screen x of where the first cell goes in this buffer
+     * @param toY The screen y of the row to copy into
+     * @param count How many cells to copy
+     */
+    public void copyRow(EffectBuffer from, int fromX, int fromY, int toX, int toY, int count){
+        if (count <= 0) return;
+        int fromIndex = from.index(fromX, fromY);
+        int toIndex = index(toX, toY);
+        System.arraycopy(from.glyphs, fromIndex, glyphs, toIndex, count);
+        System.arraycopy(from.fgColors, fromIndex, fgColors, toIndex, count);
+        System.arraycopy(from.bkgColors, fromIndex, bkgColors, toIndex, count);
+    }
+
+    /**
+     * Flips the RGB channels of every cell's colors in a rectangle, leaving their alpha alone.
+     */
+    public void invertColors(int screenX, int screenY, int width, int height){
+        for (int row = screenY; row < screenY + height; row++){
+            int start = index(screenX, row);
+            for (int index = start; index < start + width; index++){
+                fgColors[index] ^= 0xFFFFFF;
+                bkgColors[index] ^= 0xFFFFFF;
+            }
+        }
+    }
+
+    /**
+     * Copies a rectangle of cells from another buffer into the same screen position in this one.
+     */
+    public void copyArea(EffectBuffer from, int screenX, int screenY, int width, int height){
+        for (int row = screenY; row < screenY + height; row++)
+            copyRow(from, screenX, row, screenX, row, width);
+    }
+
+    private int index(int screenX, int screenY){
+        return (screenY - top) * cols + (screenX - left);
+    }
+}
@@ -0,0 +1,72 @@
+package com.discordvtt.Engine;
+
+public class FrameBuffer {
+
+    /**
+     * FrameBuffer:
+     *
+     * A fully composed screen, stored as flat primitive arrays so that composing a frame doesn't create any objects.
+     *
+     * It contains:
+     *  > glyphs    : The character shown in each cell
+     *  > fgColors  : The font color of each cell, packed as opaque ARGB
+     *  > bkgColors : The background color of each cell, packed as opaque ARGB
+     *
+     * Cells are laid out row by row (index = row * cols + col), the same as PackedCellStorage.
+     * Every cell always holds something, since a composed screen has no empty cells.
+     */
+
+    private final int cols;
+    private final int rows;
+
+    private final char[] glyphs;
+    private final int[] fgColors;
+    private final int[] bkgColors;
+
+    public FrameBuffer(int cols, int rows){
+        this.cols = cols;
+        this.rows = rows;
+        glyphs = new char[cols * rows];
+        fgColors = new int[cols * rows];
+        bkgColors = new int[cols * rows];
+    }
+
+    public int getCols() { return cols; }
+
+    public int getRows() { return rows; }
+
+    public char getChar(int col, int row) { return glyphs[row * cols + col]; }
+
+    public int getFgArgb(int col, int row) { return fgColors[row * cols + col]; }
+
+    public int getBkgArgb(int col, int row) { return bkgColors[row * cols + col]; }
+
+    /**
+     * @return The cell as a SpecialText. Composed cells are blends that are rarely drawn anywhere, so they aren't added to the SpecialTextPalette; the palette's copy is only handed out if it already has one.
+     */
+    public SpecialText getSpecialText(int col, int row) {
+        int index = row * cols + col;
+        SpecialText shared = SpecialTextPalette.lookup(glyphs[index], fgColors[index], bkgColors[index]);
+        return (shared != null) ? shared : new SpecialText(glyphs[index], fgColors[index], bkgColors[index]);
+    }
+
+    void set(int col, int row, char c, int fgArgb, int bkgArgb){
+        int index = row * cols + col;
+        glyphs[index] = c;
+        fgColors[index] = fgArgb;
+        bkgColors[index] = bkgArgb;
+    }
+
+    /**
+     * Copies every cell of another FrameBuffer of the same size into this one.
+     */
+    void copyFrom(FrameBuffer other){
+        System.arraycopy(other.glyphs, 0, glyphs, 0, glyphs.length);
+        System.arraycopy(other.fgColors, 0, fgColors, 0, fgColors.length);
+        System.arraycopy(other.bkgColors, 0, bkgColors, 0, bkgColors.length);
+    }
+
+    boolean isSize(int cols, int rows){
+        return this.cols == cols && this.rows == rows;
+    }
+}
@@ -0,0 +1,209 @@
+package com.discordvtt.Engine;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class FrameListenerDispatcher {
+
+    /**
+     * FrameListenerDispatcher:
+     *
+     * Tells a LayerManager's FrameUpdateListeners that a frame is starting or has ended, off of the render thread, so that a slow listener can't stall drawing.
+     *
+     * Every listener is called as its own task on a shared executor: one virtual thread per call where the JVM has them (Java 21 and up), and otherwise a pool of threads
+     * that are kept around between frames. Either way, no thread is started per frame, and nothing is allocated per frame either.
+     *
+     * At the start of a frame, the render thread waits for every listener to finish, but only up to a deadline.
+     * A listener still running by then has overrun: the frame goes ahead without it, and it's reported and counted in the RenderMetrics.
+     * Until it finishes, it isn't called again, so a stuck listener never piles up calls.
+     *
+     * The end of a frame isn't waited for. Every onFrameDrawStart() is followed by exactly one onFrameDrawEnd(), even if it overran; the end is then queued up
+     * until the start returns. Likewise, a listener's next onFrameDrawStart() is queued up until its onFrameDrawEnd() has returned.
+     * So each listener sees its calls one at a time, in order, always in pairs.
+     */
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+    private final RenderMetrics metrics;
+
+    //The listeners started this frame. Only the render thread touches these.
+    private Entry[] started = new Entry[0];
+    private int startedCount = 0;
+
+    private final Object startsFinished = new Object(); //Notified whenever a listener's onFrameDrawStart() returns
+
+    private class Entry {
+        private final FrameUpdateListener listener;
+        private final AtomicInteger overruns = new AtomicInteger();
+
+        //Made once, rather than a new lambda per call
+        private final Runnable startTask = this::runStart;
+        private final Runnable endTask = this::runEnd;
+
+        //Guarded by the Entry. startRunning is also read by the render thread while it waits.
+        private volatile boolean startRunning = false; //onFrameDrawStart() is running, or queued up behind onFrameDrawEnd()
+        private boolean endRunning = false;
+        private boolean startQueued = false;
+        private boolean endQueued = false;
+
+        private Entry(FrameUpdateListener listener){
+            this.listener = listener;
+        }
+
+        //Returns false if the previous onFrameDrawStart() hasn't finished yet
+        private synchronized boolean start(){
+            if (startRunning) return false;
+            startRunning = true;
+            if (endRunning)
+                startQueued = true;
+            else
+                EXECUTOR.execute(startTask);
+            return true;
+        }
+
+        private synchronized void end(){
+            if (startRunning)
+                endQueued = true;
+            else {
+                endRunning = true;
+                EXECUTOR.execute(endTask);
+            }
+        }
+
+        private void runStart(){
+            try {
+                listener.onFrameDrawStart();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    startRunning = false;
+                    if (endQueued) {
+                        endQueued = false;
+                        endRunning = true;
+                        EXECUTOR.execute(endTask);
+                    }
+                }
+                synchronized (startsFinished) {
+                    startsFinished.notifyAll();
+                }
+            }
+        }
+
+        private void runEnd(){
+            try {
+                listener.onFrameDrawEnd();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    endRunning = false;
+                    if (startQueued) {
+                        startQueued = false;
+                        EXECUTOR.execute(startTask);
+                    }
+                }
+            }
+        }
+    }
+
+    FrameListenerDispatcher(RenderMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    private static ExecutorService createExecutor(){
+        try { //Looked up by reflection, so that this still builds and runs on Java 8
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "Frame Listener " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    void add(FrameUpdateListener listener){
+        entries.add(new Entry(listener));
+    }
+
+    void remove(FrameUpdateListener listener){
+        entries.removeIf(entry -> entry.listener == listener);
+    }
+
+    boolean isEmpty(){
+        return entries.isEmpty();
+    }
+
+    /**
+     * Calls onFrameDrawStart() on every listener, and waits until they have all returned or the deadline passes.
+     * Must be followed by frameEnd() once the frame is drawn.
+     *
+     * @param deadlineNanos How long to wait at most
+     * @return Whether every listener finished in time
+     */
+    boolean frameStart(long deadlineNanos){
+        long deadline = System.nanoTime() + deadlineNanos;
+        startedCount = 0;
+        for (Entry entry : entries){
+            if (entry.start()){
+                if (startedCount == started.length)
+                    started = Arrays.copyOf(started, Math.max(4, startedCount * 2));
+                started[startedCount++] = entry;
+            } else
+                reportOverrun(entry, "is still running from an earlier frame");
+        }
+        synchronized (startsFinished) {
+            while (true){
+                if (!anyStillStarting()) return true;
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                try {
+                    startsFinished.wait(remaining / 1000000, (int)(remaining % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < startedCount; i++)
+            if (started[i].startRunning)
+                reportOverrun(started[i], String.format("took longer than %1$.1fms", deadlineNanos / 1e6));
+        return false;
+    }
+
+    private boolean anyStillStarting(){
+        for (int i = 0; i < startedCount; i++)
+            if (started[i].startRunning) return true;
+        return false;
+    }
+
+    /**
+     * Calls onFrameDrawEnd() on every listener started by the last frameStart(), without waiting for them.
+     * Listeners whose onFrameDrawStart() is still running get theirs once it returns.
+     */
+    void frameEnd(){
+        for (int i = 0; i < startedCount; i++){
+            started[i].end();
+            started[i] = null; //So that a removed listener isn't held onto
+        }
+        startedCount = 0;
+    }
+
+    //A listener that keeps overrunning would flood the console, so only its 1st, 10th, 100th, ... overruns are printed
+    private void reportOverrun(Entry entry, String problem){
+        metrics.recordListenerOverrun();
+        int overruns = entry.overruns.incrementAndGet();
+        for (int printAt = 1; printAt <= overruns && printAt > 0; printAt *= 10){
+            if (printAt == overruns){
+                System.out.printf("[FrameListenerDispatcher] FrameUpdateListener %1$s %2$s (overrun #%3$d)\n", entry.listener, problem, overruns);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.discordvtt.Engine;
+
+import java.awt.*;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+class FramePainter {
+
+    /**
+     * FramePainter:
+     *
+     * Paints a composed FrameBuffer onto a Graphics, one cell per (cellWidth x cellHeight) pixels, offset by a margin.
+     * Used by the ViewWindow, and by the ImageRenderTarget to paint frames offscreen.
+     *
+     * The area being painted on is expected to already be filled in black.
+     */
+
+    private static final int OPAQUE_BLACK = 0xFF000000;
+    private static final int MIN_GLYPH_RUN = 4; //Laying out a GlyphVector costs more than copying a few glyphs out of the GlyphAtlas
+
+    private Font font;
+    private int cellWidth;
+    private int cellHeight;
+    private int marginX;
+    private int marginY;
+    private GlyphAtlas glyphAtlas;
+
+    //The run of characters being drawn, and the column of each
+    private char[] runChars = new char[16];
+    private int[] runCols = new int[16];
+    private final Point2D.Float glyphPosition = new Point2D.Float(); //setGlyphPosition() copies it, so one does for every glyph
+
+    private Color lastColor = Color.BLACK;
+
+    /**
+     * Sets how cells are laid out. The GlyphAtlas is only rebuilt if the font or cell size actually changed.
+     */
+    void setLayout(Font font, int cellWidth, int cellHeight, int marginX, int marginY){
+        this.font = font;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.marginX = marginX;
+        this.marginY = marginY;
+        if (glyphAtlas == null || !glyphAtlas.fits(font, cellWidth, cellHeight))
+            glyphAtlas = new GlyphAtlas(font, cellWidth, cellHeight); //Every glyph needs re-rendering at the new size
+    }
+
+    /**
+     * Paints the top left (cols x rows) cells of a frame.
+     */
+    void paint(Graphics g, FrameBuffer frame, int cols, int rows){
+        g.setFont(font);
+        for (int row = 0; row < rows; row++)
+            paintBackgroundRow(g, frame, row, cols);
+        //Text goes on after every background, since glyphs can poke out into the rows above and below them
+        FontMetrics metrics = g.getFontMetrics();
+        for (int row = 0; row < rows; row++)
+            paintTextRow(g, metrics, frame, row, cols);
+    }
+
+    /**
+     * Fills in the backgrounds of a row, merging each run of same-colored cells into a single rectangle.
+     * Black runs are skipped altogether, since the whole area was already filled black.
+     */
+    private void paintBackgroundRow(Graphics g, FrameBuffer frame, int row, int cols){
+        int y = row * cellHeight + marginY + 1;
+        int start = 0;
+        while (start < cols) {
+            int bkgArgb = frame.getBkgArgb(start, row);
+            int end = start + 1;
+            while (end < cols && frame.getBkgArgb(end, row) == bkgArgb) end++;
+            if (bkgArgb != OPAQUE_BLACK) {
+                g.setColor(colorOf(bkgArgb));
+                g.fillRect(start * cellWidth + marginX, y, (end - start) * cellWidth, cellHeight);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Draws the text of a row.
+     *
+     * The characters of a row that share one color (skipping over spaces, which draw nothing) are drawn together as a single GlyphVector,
+     * with every glyph moved onto its own cell. Fonts are a bit larger than the cells, so their own advance never lines up with the cells; placing each glyph
+     * is what lets a whole run go out in one call instead of one per cell. Glyphs sit centered in their cells, exactly where the GlyphAtlas puts them.
+     * Runs shorter than MIN_GLYPH_RUN are copied out of the GlyphAtlas a cell at a time instead, since that's cheaper than laying out a GlyphVector for them.
+     */
+    private void paintTextRow(Graphics g, FontMetrics metrics, FrameBuffer frame, int row, int cols){
+        int cellY = row * cellHeight + marginY;
+        int baseline = cellY + (int) (cellHeight * 0.75);
+        int col = 0;
+        while (col < cols) {
+            char c = frame.getChar(col, row);
+            if (c == ' ') {
+                col++;
+                continue;
+            }
+            int fgArgb = frame.getFgArgb(col, row);
+            int length = 0;
+            int end = col;
+            while (end < cols) {
+                char next = frame.getChar(end, row);
+                if (next != ' ') {
+                    if (frame.getFgArgb(end, row) != fgArgb) break;
+                    if (length == runChars.length) {
+                        runChars = Arrays.copyOf(runChars, length * 2);
+                        runCols = Arrays.copyOf(runCols, length * 2);
+                    }
+                    runChars[length] = next;
+                    runCols[length++] = end;
+                }
+                end++;
+            }
+            if (length < MIN_GLYPH_RUN) {
+                for (int i = 0; i < length; i++) {
+                    GlyphAtlas.Glyph glyph = glyphAtlas.get(runChars[i], fgArgb);
+                    if (glyph != null)
+                        g.drawImage(glyph.image, runCols[i] * cellWidth + marginX + glyph.offsetX, cellY + glyph.offsetY, null);
+                }
+            } else {
+                Graphics2D g2 = (Graphics2D) g;
+                GlyphVector glyphs = font.createGlyphVector(g2.getFontRenderContext(), Arrays.copyOf(runChars, length));
+                for (int i = 0; i < length; i++) {
+                    glyphPosition.setLocation((runCols[i] - col) * cellWidth + (cellWidth - metrics.charWidth(runChars[i])) / 2, 0);
+                    glyphs.setGlyphPosition(i, glyphPosition);
+                }
+                g2.setColor(colorOf(fgArgb));
+                g2.drawGlyphVector(glyphs, col * cellWidth + marginX, baseline);
+            }
+            col = end;
+        }
+    }
+
+    //Neighboring cells are usually the same color, so reusing the last Color saves creating one per cell.
+    private Color colorOf(int argb){
+        if (lastColor.getRGB() != argb)
+            lastColor = new Color(argb, true);
+        return lastColor;
+    }
+}
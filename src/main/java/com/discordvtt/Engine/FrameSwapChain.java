@@ -0,0 +1,67 @@
+package com.discordvtt.Engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class FrameSwapChain {
+
+    /**
+     * FrameSwapChain:
+     *
+     * Three FrameBuffers passed between the thread composing frames and the thread painting them, so that neither ever waits on the other
+     * and the painter never sees a half-composed frame.
+     *
+     * At any moment, one buffer belongs to the composer (the back buffer), one to the painter (the front buffer), and one sits in between holding the newest finished frame.
+     * Publishing a frame swaps the back buffer with the one in between, and acquiring a frame swaps the front buffer with it, both in a single atomic step.
+     *
+     * Only one thread may compose and only one thread may paint.
+     */
+
+    private static final int INDEX_MASK = 0b011;
+    private static final int FRESH = 0b100; //Set when the buffer in between holds a frame the painter hasn't acquired yet
+
+    private final FrameBuffer[] buffers = new FrameBuffer[3];
+    private final AtomicInteger middle = new AtomicInteger(1); //Index of the buffer in between, plus the FRESH bit
+    private int back = 0;
+    private int front = 2;
+    private int latest = -1; //Index of the last published frame, so the composer can start its next frame from it. -1 before the first frame.
+
+    /**
+     * Gets the back buffer, ready to compose a new frame into. Composer only.
+     *
+     * Its contents start out as a copy of the last published frame (if it is the same size), so only the cells that changed since then need to be composed again.
+     *
+     * @return The back buffer, or null if it had to be created anew and so holds nothing from the previous frame.
+     */
+    FrameBuffer prepareBack(int cols, int rows){
+        FrameBuffer previous = (latest >= 0) ? buffers[latest] : null;
+        if (buffers[back] == null || !buffers[back].isSize(cols, rows))
+            buffers[back] = new FrameBuffer(cols, rows); //Only happens when the resolution changes
+        if (previous == null || !previous.isSize(cols, rows))
+            return null;
+        buffers[back].copyFrom(previous); //The previous frame is never written to once published, so reading it here is safe even while it is painted
+        return buffers[back];
+    }
+
+    FrameBuffer getBack(){
+        return buffers[back];
+    }
+
+    /**
+     * Publishes the back buffer as the newest frame. Composer only.
+     */
+    void publish(){
+        latest = back;
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Takes the newest published frame, if there is one the painter hasn't seen yet. Painter only.
+     *
+     * @return The frame to paint. Remains valid until the next call to acquire(). Null if no frame was ever published.
+     */
+    FrameBuffer acquire(){
+        if ((middle.get() & FRESH) != 0)
+            front = middle.getAndSet(front) & INDEX_MASK;
+        return buffers[front];
+    }
+}
@@ -2,6 +2,19 @@ package com.discordvtt.Engine;
 
 public interface FrameUpdateListener {
 
+    /**
+     * FrameUpdateListener:
+     *
+     * Gets told when a LayerManager starts and finishes drawing a frame.
+     *
+     * Listeners are called off of the render thread, and all at the same time rather than one after another in the order they were added,
+     * so two listeners may run concurrently and must not rely on each other's calls having happened first.
+     * A single listener is never called concurrently with itself: it sees onFrameDrawStart() and onFrameDrawEnd() one at a time, in order, always in pairs.
+     *
+     * The frame waits for onFrameDrawStart() only up to a deadline (see LayerManager.setFrameListenerDeadline()); a listener that takes longer
+     * is skipped for the frames that start while it's still running. onFrameDrawEnd() isn't waited for at all.
+     */
+
     void onFrameDrawStart();
 
     void onFrameDrawEnd();
@@ -0,0 +1,163 @@
+package com.discordvtt.Engine;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class GlyphAtlas {
+
+    /**
+     * GlyphAtlas:
+     *
+     * A cache of pre-rendered characters, so that frames can be painted a cell by copying a small image instead of laying out text.
+     *
+     * Each character is rendered once into an alpha mask: white, with its coverage in the alpha channel, cropped down to just the pixels it touches.
+     * Each (character, color) pair is then tinted from that mask once and kept, so painting a cell is a single drawImage().
+     *
+     * Glyphs are placed exactly where ViewWindow used to drawString() them: centered horizontally in the cell, with the baseline 3/4 of the way down.
+     * An atlas only fits one font and cell size, so the FramePainter builds a new one whenever those change.
+     */
+
+    private static final int MAX_TINTED = 4096; //Once this many tinted glyphs are cached, the cache is emptied and starts over
+    private static final int TABLE_SIZE = MAX_TINTED * 2; //Power of two, and kept at most half full
+
+    private final Font font;
+    private final int cellWidth;
+    private final int cellHeight;
+
+    private final Map<Character, Glyph> masks = new HashMap<>();
+
+    //Open-addressed table from (character, color) to tinted Glyph. A null glyph marks an empty slot.
+    private final long[] tintedKeys = new long[TABLE_SIZE];
+    private final Glyph[] tintedGlyphs = new Glyph[TABLE_SIZE];
+    private int tintedCount = 0;
+
+    private final FontMetrics metrics;
+    private final Map<?, ?> renderingHints;
+
+    GlyphAtlas(Font font, int cellWidth, int cellHeight){
+        this.font = font;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        renderingHints = (Map<?, ?>)Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints"); //Same text antialiasing as drawing text onto the component
+        Graphics2D scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        applyHints(scratch);
+        metrics = scratch.getFontMetrics(font);
+        scratch.dispose();
+    }
+
+    /**
+     * @return Whether this atlas was built for the given font and cell size.
+     */
+    boolean fits(Font font, int cellWidth, int cellHeight){
+        return this.font.equals(font) && this.cellWidth == cellWidth && this.cellHeight == cellHeight;
+    }
+
+    /**
+     * @param c The character to draw
+     * @param argb The color to draw it in
+     * @return The tinted glyph, or null if the character doesn't draw anything (like a space).
+     */
+    Glyph get(char c, int argb){
+        long key = ((long)c << 32) | (argb & 0xFFFFFFFFL);
+        int mask = TABLE_SIZE - 1;
+        int slot = SpecialTextPalette.hash(c, argb, 0) & mask;
+        while (tintedGlyphs[slot] != null){
+            if (tintedKeys[slot] == key) return tintedGlyphs[slot].image != null ? tintedGlyphs[slot] : null;
+            slot = (slot + 1) & mask;
+        }
+        if (tintedCount >= MAX_TINTED){
+            Arrays.fill(tintedGlyphs, null);
+            tintedCount = 0;
+            return get(c, argb);
+        }
+        Glyph tinted = tint(getMask(c), argb);
+        tintedKeys[slot] = key;
+        tintedGlyphs[slot] = tinted;
+        tintedCount++;
+        return tinted.image != null ? tinted : null;
+    }
+
+    private Glyph getMask(char c){
+        Glyph mask = masks.get(c);
+        if (mask == null){
+            mask = rasterize(c);
+            masks.put(c, mask);
+        }
+        return mask;
+    }
+
+    //Renders a character in white and crops it down to the pixels it actually covers.
+    private Glyph rasterize(char c){
+        String str = String.valueOf(c);
+        int padding = font.getSize(); //Glyphs can reach well past their cell, since the font is a bit larger than the cell
+        BufferedImage canvas = new BufferedImage(cellWidth + 2 * padding, cellHeight + 2 * padding, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = canvas.createGraphics();
+        applyHints(g);
+        g.setFont(font);
+        g.setColor(Color.WHITE);
+        g.drawString(str, padding + (cellWidth - metrics.stringWidth(str)) / 2, padding + (int)(cellHeight * 0.75));
+        g.dispose();
+
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        int[] pixels = canvas.getRGB(0, 0, width, height, null, 0, width);
+        int left = width, top = height, right = -1, bottom = -1;
+        for (int y = 0; y < height; y++){
+            for (int x = 0; x < width; x++){
+                if ((pixels[y * width + x] >>> 24) != 0){
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                    top = Math.min(top, y);
+                    bottom = Math.max(bottom, y);
+                }
+            }
+        }
+        if (right < 0)
+            return new Glyph(null, 0, 0); //Nothing to draw
+
+        int croppedWidth = right - left + 1;
+        int croppedHeight = bottom - top + 1;
+        BufferedImage cropped = new BufferedImage(croppedWidth, croppedHeight, BufferedImage.TYPE_INT_ARGB);
+        cropped.setRGB(0, 0, croppedWidth, croppedHeight, pixels, top * width + left, width);
+        return new Glyph(cropped, left - padding, top - padding);
+    }
+
+    //Copies a mask, swapping its white for a color while keeping its coverage.
+    private Glyph tint(Glyph mask, int argb){
+        if (mask.image == null) return mask;
+        int width = mask.image.getWidth();
+        int height = mask.image.getHeight();
+        int[] pixels = mask.image.getRGB(0, 0, width, height, null, 0, width);
+        int colorAlpha = argb >>> 24;
+        int rgb = argb & 0xFFFFFF;
+        for (int i = 0; i < pixels.length; i++){
+            int alpha = (pixels[i] >>> 24) * colorAlpha / 255;
+            pixels[i] = (alpha << 24) | rgb;
+        }
+        BufferedImage tinted = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        tinted.setRGB(0, 0, width, height, pixels, 0, width);
+        return new Glyph(tinted, mask.offsetX, mask.offsetY);
+    }
+
+    private void applyHints(Graphics2D g){
+        if (renderingHints != null) g.addRenderingHints(renderingHints);
+    }
+
+    /**
+     * A rendered character. Draw the image at (cell x + offsetX, cell y + offsetY), where (cell x, cell y) is the top-left corner of the cell.
+     */
+    static class Glyph {
+        final BufferedImage image;
+        final int offsetX;
+        final int offsetY;
+
+        private Glyph(BufferedImage image, int offsetX, int offsetY){
+            this.image = image;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+    }
+}
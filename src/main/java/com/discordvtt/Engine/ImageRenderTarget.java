@@ -0,0 +1,67 @@
+package com.discordvtt.Engine;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+public class ImageRenderTarget implements RenderTarget {
+
+    /**
+     * ImageRenderTarget:
+     *
+     * Paints each composed frame into an offscreen BufferedImage, the same way the ViewWindow paints it onto the screen.
+     * It needs no display, so it works headlessly too.
+     *
+     * The image is sized to fit the frame exactly (cellWidth x cellHeight pixels per cell), and is remade if the frame changes size.
+     */
+
+    private final FramePainter painter = new FramePainter();
+    private final int cellWidth;
+    private final int cellHeight;
+    private BufferedImage image;
+
+    /**
+     * @param font The font to draw characters in
+     * @param cellWidth The width of each cell, in pixels
+     * @param cellHeight The height of each cell, in pixels
+     */
+    public ImageRenderTarget(Font font, int cellWidth, int cellHeight){
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        painter.setLayout(font, cellWidth, cellHeight, 0, 0);
+    }
+
+    /**
+     * Draws in a monospaced font sized to the cells, like the ViewWindow does when it can't find its own font.
+     */
+    public ImageRenderTarget(int cellWidth, int cellHeight){
+        this(new Font(Font.MONOSPACED, Font.PLAIN, Math.min(cellWidth, cellHeight) + 4), cellWidth, cellHeight);
+    }
+
+    @Override
+    public synchronized void frameComposed(FrameBuffer frame) {
+        int width = frame.getCols() * cellWidth;
+        int height = frame.getRows() * cellHeight;
+        if (image == null || image.getWidth() != width || image.getHeight() != height)
+            image = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Map<?, ?> hints = (Map<?, ?>)Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints"); //Same text antialiasing as the ViewWindow, where there is a desktop to ask
+        if (hints != null) g.addRenderingHints(hints);
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+        painter.paint(g, frame, frame.getCols(), frame.getRows());
+        g.dispose();
+    }
+
+    /**
+     * @return A copy of the latest frame's image, or null if no frame was composed yet.
+     */
+    public synchronized BufferedImage copyImage(){
+        if (image == null) return null;
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+}
@@ -0,0 +1,89 @@
+package com.discordvtt.Engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+    /**
+     * LatencyHistogram:
+     *
+     * Counts recorded values (usually nanoseconds, but anything non-negative works) in the manner of an HDR histogram:
+     * every power of two gets SUB_BUCKETS equally sized buckets, so any value is known to within about 3% of itself, from 0 all the way up to Long.MAX_VALUE,
+     * in a fixed amount of memory. Percentiles can then be read back without keeping every value around.
+     *
+     * Recording is a few atomic increments and never allocates, so it's cheap enough to do for every frame.
+     * Any thread may record or read at any time, though a read taken while values are being recorded can be off by those values.
+     */
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value The value to count. Negative values count as 0.
+     */
+    public void record(long value){
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long previousMax;
+        while (value > (previousMax = max.get()) && !max.compareAndSet(previousMax, value));
+    }
+
+    public long getCount() { return count.get(); }
+
+    public long getMax() { return max.get(); }
+
+    public double getMean(){
+        long n = count.get();
+        return (n == 0) ? 0 : (double)sum.get() / n;
+    }
+
+    /**
+     * @param percentile From 0 to 100
+     * @return The value that the given percent of recorded values are at or below, to within about 3%. 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile){
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++){
+            seen += counts.get(bucket);
+            if (seen >= rank) return Math.min(middleOf(bucket), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset(){
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+            counts.set(bucket, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /*
+     * Values below SUB_BUCKETS each get a bucket of their own.
+     * Above that, a value whose highest bit is bit (SUB_BUCKET_BITS + shift) lands in one of the SUB_BUCKETS buckets of width 2^shift, picked by the bits below its highest.
+     */
+    private static int bucketOf(long value){
+        if (value < SUB_BUCKETS) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long middleOf(int bucket){
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) - 1) / 2;
+    }
+}
@@ -4,7 +4,12 @@ import com.discordvtt.Data.SerializationVersion;
 import com.discordvtt.Data.Coordinate;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -19,18 +24,47 @@ public class Layer implements Serializable{
      * If the SpecialText is a 'pixel', then the Layer is an 'image'
      *
      * It contains:
-     *  > textMatrix     : A 2D array of SpecialTexts that are the contents of this layer
+     *  > storage        : The CellStorage holding the contents of this layer. Cells are packed into primitive arrays (or palette indices) rather than kept as SpecialText objects.
      *  > xpos           : The x position of the layer. World-coordinates if not fixedScreenPos, and Screen-coordinates if it is fixedScreenPos //This could be a Coordinate. *sigh* old code...
      *  > ypos           : The y position of the layer. World-coordinates if not fixedScreenPos, and Screen-coordinates if it is fixedScreenPos
      *  > name           : The name of the layer. Useful when trying to compare this layer to other ones. Layers of the same name are considered to be the same layer.
      *  > importance     : An integer that indicates the 'priority' of the layer. Layers of higher priority will display on top of those with lower priorities.
      *  > fixedScreenPos : A boolean that indicates whether the Layer should obey the LayerManager's camera position. Set to true for creating HUD and menus and whatnot.
      *  > visible        : A boolean that indicates whether the Layer should be displayed. Very useful if the layer needs to pop in and out of existence, and you don't want to add and remove this layer a bunch from the LayerManager
+     *  > damage         : The cells edited since the LayerManager last drew this layer, so it only has to redraw those parts of the screen.
+     *                     Moving, resizing, or showing / hiding the layer counts as damage to the whole layer, both where it was and where it is now.
+     *  > listeners      : LayerListeners told about every change, so that the LayerManagers drawing this layer know to draw a new frame.
+     *  > changeRecorder : An optional LayerChangeRecorder told about every change to the contents before it happens, like an undo history.
      */
 
     private static final long serialVersionUID = SerializationVersion.SERIALIZATION_VERSION;
 
-    private SpecialText[][] textMatrix; //In form textMatrix[col][row]
+    //The serialized form still stores a SpecialText[][] textMatrix, so .vttmap files from before the packed storage still open.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("textMatrix", SpecialText[][].class),
+            new ObjectStreamField("xpos", int.class),
+            new ObjectStreamField("ypos", int.class),
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("importance", int.class),
+            new ObjectStreamField("fixedScreenPos", boolean.class),
+            new ObjectStreamField("visible", boolean.class),
+            new ObjectStreamField("storageMode", int.class)
+    };
+
+    /*
+     * Storage modes:
+     *
+     * STORAGE_PACKED  : Every cell holds its own character and colors. Works for any content, so it is the default.
+     * STORAGE_PALETTE : Every cell holds a 2-byte index into the SpecialTextPalette. Much smaller, and best for layers drawn with only a few SpecialTexts, like maps.
+     *                   If the palette ever fills up, the layer quietly falls back to STORAGE_PACKED.
+     * STORAGE_CHUNKED : Palette indices grouped into 32x32 chunks, which only exist where something is drawn. Best for big, mostly empty layers,
+     *                   and resizing one is nearly free. Falls back to STORAGE_PACKED the same way STORAGE_PALETTE does.
+     */
+    public static final int STORAGE_PACKED = 0;
+    public static final int STORAGE_PALETTE = 1;
+    public static final int STORAGE_CHUNKED = 2;
+
+    private transient CellStorage storage;
     private int xpos = 0;
     private int ypos = 0;
     private String name;
@@ -40,15 +74,22 @@ public class Layer implements Serializable{
     public boolean fixedScreenPos = false;
     boolean visible = true;
 
+    private transient DamageRegion damage = new DamageRegion(); //In layer coordinates. Also used as the lock for itself and geometryChanged
+    private transient boolean geometryChanged = true;
+
+    private static final LayerListener[] NO_LISTENERS = new LayerListener[0];
+    private transient volatile LayerListener[] listeners = NO_LISTENERS; //Copied on write, since it is read on every edit but rarely changes
+    private transient LayerChangeRecorder changeRecorder;
+
     public Layer (SpecialText[][] layerData, String layerName, int x, int y){
-        textMatrix = layerData;
+        storage = PackedCellStorage.fromMatrix(layerData);
         name = layerName;
         xpos = x;
         ypos = y;
     }
 
     public Layer (SpecialText[][] layerData, String layerName, int x, int y, int priority){
-        textMatrix = layerData;
+        storage = PackedCellStorage.fromMatrix(layerData);
         name = layerName;
         xpos = x;
         ypos = y;
@@ -57,7 +98,11 @@ public class Layer implements Serializable{
 
     // Harder to read than the other constructors (because there are two pairs of integers), but is written more concisely. Pick your poison, I guess.
     public Layer (int w, int h, String layerName, int x, int y, int priority){
-        textMatrix = new SpecialText[w][h];
+        this(w, h, layerName, x, y, priority, STORAGE_PACKED);
+    }
+
+    public Layer (int w, int h, String layerName, int x, int y, int priority, int storageMode){
+        storage = createStorage(storageMode, w, h);
         name = layerName;
         xpos = x;
         ypos = y;
@@ -65,10 +110,10 @@ public class Layer implements Serializable{
     }
 
     public Layer (String[][] layerData, String layerName, int x, int y){
-        textMatrix = new SpecialText[layerData.length][layerData[0].length];
+        storage = new PackedCellStorage(layerData.length, layerData[0].length);
         for (int col = 0; col < layerData.length; col ++){
             for (int row = 0; row < layerData[0].length; row++){
-                textMatrix[col][row] = new SpecialText(layerData[col][row].charAt(0));
+                editLayer(col, row, layerData[col][row].charAt(0));
             }
         }
         name = layerName;
@@ -82,62 +127,145 @@ public class Layer implements Serializable{
      * @return A copy of this layer
      */
     public Layer copy(){
-        Layer copy = new Layer(new SpecialText[getCols()][getRows()], name, xpos, ypos);
-        for (int col = 0; col < textMatrix.length; col++){
-            for (int row = 0; row < textMatrix[0].length; row++){
-                copy.editLayer(col, row, textMatrix[col][row]);
-            }
-        }
+        Layer copy = new Layer(0, 0, name, xpos, ypos, importance);
+        copy.storage = storage.copy();
         copy.setVisible(true);
         copy.fixedScreenPos = fixedScreenPos;
         return copy;
     }
 
     /**
-     * Copies the SpecialText matrix of another layer onto this layer's text matrix.
+     * Copies the contents of another layer onto this layer, taking on its dimensions as well.
      * @param layer The other layer to transpose from.
      */
     public void transpose(Layer layer){
-        SpecialText[][] tempMatrix = new SpecialText[layer.getCols()][layer.getRows()];
-        for (int col = 0; col < tempMatrix.length; col++){
-            for (int row = 0; row < tempMatrix[0].length; row++){
-                tempMatrix[col][row] = layer.getSpecialText(col, row);
-            }
-        }
-        textMatrix = tempMatrix;
+        storage = layer.storage.copy();
+        markGeometryChanged();
+        if (changeRecorder != null) changeRecorder.layerReplaced(this);
     }
 
     /**
      * Fills layer with info.txt opaque characters in replacement of null SpecialTexts
      */
     public void convertNullToOpaque(){
-        for (int col = 0; col < textMatrix.length; col++){
-            for (int row = 0; row < textMatrix[0].length; row++){
-                if (textMatrix[col][row] == null) textMatrix[col][row] = new SpecialText(' ', Color.WHITE, Color.BLACK);
+        int fg = Color.WHITE.getRGB();
+        int bg = Color.BLACK.getRGB();
+        for (int row = 0; row < getRows(); row++){
+            for (int col = 0; col < getCols(); col++){
+                if (storage.isEmpty(col, row)) setCell(col, row, ' ', fg, bg);
             }
         }
     }
 
     /**
-     * Fills layer with null SpecialTexts
+     * Marks a rectangle of this layer as needing to be drawn again.
+     *
+     * @param col The left edge, in layer coordinates
+     * @param row The top edge, in layer coordinates
+     * @param width The width of the rectangle
+     * @param height The height of the rectangle
      */
-    public void clearLayer(){
-        for (int col = 0; col < textMatrix.length; col++){
-            for (int row = 0; row < textMatrix[0].length; row++){
-                textMatrix[col][row] = null;
+    public void markDamaged(int col, int row, int width, int height){
+        synchronized (damage) {
+            damage.add(col, row, width, height);
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Marks the whole layer as needing to be drawn again.
+     */
+    public void markAllDamaged(){
+        markDamaged(0, 0, getCols(), getRows());
+    }
+
+    //Position, size, or visibility changed, so the screen needs redrawing both where the layer was and where it is now.
+    private void markGeometryChanged(){
+        synchronized (damage) {
+            geometryChanged = true;
+        }
+        notifyListeners();
+    }
+
+    private void notifyListeners(){
+        for (LayerListener listener : listeners)
+            listener.onLayerDamaged(this);
+    }
+
+    public synchronized void addLayerListener(LayerListener listener){
+        for (LayerListener existing : listeners)
+            if (existing == listener) return;
+        LayerListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    public synchronized void removeLayerListener(LayerListener listener){
+        for (int i = 0; i < listeners.length; i++){
+            if (listeners[i] == listener){
+                LayerListener[] shrunk = new LayerListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, shrunk, 0, i);
+                System.arraycopy(listeners, i + 1, shrunk, i, listeners.length - i - 1);
+                listeners = shrunk;
+                return;
             }
         }
     }
 
+    /**
+     * Hands the damage accumulated since the last call over to the LayerManager and resets it.
+     *
+     * @param into The region to add this layer's damaged rectangles onto, in layer coordinates
+     * @return True if the layer moved, resized, or changed visibility since the last call.
+     */
+    boolean drainDamage(DamageRegion into){
+        synchronized (damage) {
+            into.addAll(damage, 0, 0);
+            damage.clear();
+            boolean changed = geometryChanged;
+            geometryChanged = false;
+            return changed;
+        }
+    }
+
+    /**
+     * Layers whose display changes every frame on its own, like ShakingLayer, return true so that their whole area is redrawn every frame.
+     *
+     * @return Whether this layer needs redrawing every frame.
+     */
+    public boolean isAnimated(){
+        return false;
+    }
+
+    /**
+     * Called once by the LayerManager at the start of every frame this layer is visible in, before any of it is composed.
+     *
+     * Frames may be composed by several threads at once, so provideTextForDisplay() must not change the layer.
+     * Anything that needs to change per frame, like an animation's current frame, should be updated here instead.
+     */
+    public void prepareFrame(){}
+
+    /**
+     * Fills layer with null SpecialTexts
+     */
+    public void clearLayer(){
+        if (changeRecorder != null)
+            handOverContents(null);
+        else
+            storage.clearAll();
+        markAllDamaged();
+    }
+
     /**
      * Fills layer with an input SpecialText
      */
     public void fillLayer(SpecialText text){
-        for (int col = 0; col < textMatrix.length; col++){
-            for (int row = 0; row < textMatrix[0].length; row++){
-                textMatrix[col][row] = text;
-            }
+        if (changeRecorder != null) handOverContents(text);
+        if (!storage.fill(text)){
+            storage = toPacked(storage);
+            storage.fill(text);
         }
+        markAllDamaged();
     }
 
     /**
@@ -164,11 +292,9 @@ public class Layer implements Serializable{
     }
 
     public void insert(Layer other, Coordinate start, Coordinate sampleOffset){
-        System.out.printf("[Layer.insert] Start: %1$s ; SampleOffset: %2$s\n", start, sampleOffset);
         for (int col = 0; col < other.getCols(); col++){
             for (int row = 0; row < other.getRows(); row++){
                 int x = col + start.getX();
-                if (x == 0) System.out.println("zero x");
                 int y = row + start.getY();
                 editLayer(x, y, other.getSpecialText(col + sampleOffset.getX(), row + sampleOffset.getY()));
             }
@@ -181,14 +307,11 @@ public class Layer implements Serializable{
      * @param replace What to replace with
      */
     public void findAndReplace(SpecialText find, SpecialText replace){
-        for (int col = 0; col < textMatrix.length; col++){
-            for (int row = 0; row < textMatrix[0].length; row++){
-                SpecialText get = getSpecialText(col, row);
-                if (get != null && get.equals(find))
-                    editLayer(col, row, replace);
-                else if (get == null && find == null){
-                    editLayer(col, row, replace);
-                }
+        CellMatcher matcher = matcherFor(find);
+        for (int row = 0; row < getRows(); row++){
+            for (int col = 0; col < getCols(); col++){
+                if (matcher.matches(col, row))
+                    setCell(col, row, replace);
             }
         }
     }
@@ -209,12 +332,12 @@ public class Layer implements Serializable{
         Random random = new Random();
         int maxFailures = (int)(150f / chance);
         int numFailures = 0;
-        for (int col = 0; col < textMatrix.length; col++){
-            for (int row = 0; row < textMatrix[0].length; row++){
-                SpecialText get = getSpecialText(col, row);
-                if ((get != null && get.equals(find)) || (get == null && find == null)) {
+        CellMatcher matcher = matcherFor(find);
+        for (int col = 0; col < getCols(); col++){
+            for (int row = 0; row < getRows(); row++){
+                if (matcher.matches(col, row)) {
                     if ((int) (random.nextDouble() * 100) < chance || numFailures == maxFailures) {
-                        editLayer(col, row, replace);
+                        setCell(col, row, replace);
                         numFailures = 0;
                     } else {
                         numFailures++;
@@ -225,29 +348,227 @@ public class Layer implements Serializable{
     }
 
     public void resizeLayer(int width, int height, int startX, int startY){
-        SpecialText[][] newMatrix = new SpecialText[width][height];
-        for (int col = 0; col < textMatrix.length; col++){
-            for (int row = 0; row < textMatrix[0].length; row++){
-                int x = col + startX;
-                int y = row + startY;
-                if (x >= 0 && x < newMatrix.length && y >= 0 && y < newMatrix[0].length){
-                    newMatrix[x][y] = textMatrix[col][row];
-                }
-            }
+        if (changeRecorder != null) changeRecorder.layerResizing(this, width, height, startX, startY);
+        CellStorage newStorage = storage.resize(width, height, startX, startY);
+        if (newStorage == null){
+            newStorage = new PackedCellStorage(width, height);
+            newStorage.copyFrom(storage, startX, startY);
         }
-        textMatrix = newMatrix;
+        storage = newStorage;
+        markGeometryChanged();
     }
 
     public SpecialText getSpecialText (int col, int row){
-        //System.out.println(String.format("Layer getSpecialText: [%1$d,%2$d] of [%3$dx%4$d]", col, row, textMatrix.length, textMatrix[0].length));
-        if (isLayerLocInvalid(col, row) || textMatrix[col][row] == null)
+        if (isLayerLocInvalid(col, row))
             return null;
-        return textMatrix[col][row];
+        return storage.get(col, row);
+    }
+
+    /*
+     * Primitive accessors.
+     *
+     * These read straight out of the packed storage, so the compositor and the tools can look at a cell without building a SpecialText (and its two Colors) for it.
+     * A location outside of the layer reads as an empty cell.
+     */
+
+    public boolean isCellEmpty(int col, int row){
+        return isLayerLocInvalid(col, row) || storage.isEmpty(col, row);
+    }
+
+    public char getCharAt(int col, int row){
+        if (isCellEmpty(col, row)) return ' ';
+        return storage.getChar(col, row);
+    }
+
+    public int getFgArgbAt(int col, int row){
+        if (isCellEmpty(col, row)) return 0;
+        return storage.getFgArgb(col, row);
+    }
+
+    public int getBkgArgbAt(int col, int row){
+        if (isCellEmpty(col, row)) return 0;
+        return storage.getBkgArgb(col, row);
+    }
+
+    /**
+     * @return Whether the cell at the location matches the SpecialText. A null SpecialText matches an empty cell, including ones outside of the layer.
+     */
+    public boolean cellMatches(int col, int row, SpecialText text){
+        if (isLayerLocInvalid(col, row)) return text == null;
+        return storage.matches(col, row, text);
+    }
+
+    /**
+     * Compares cells against a single SpecialText over and over again.
+     * In palette mode, each comparison is a single integer compare.
+     *
+     * The matcher does not bounds-check, and is only good until the layer is resized or its storage mode changes.
+     */
+    public interface CellMatcher {
+        boolean matches(int col, int row);
+    }
+
+    /**
+     * @param text The SpecialText to compare against. A null SpecialText matches empty cells.
+     * @return A CellMatcher for the SpecialText
+     */
+    public CellMatcher matcherFor(SpecialText text){
+        return storage.matcherFor(text);
+    }
+
+    /**
+     * @return Whether every cell of a rectangle is empty. Parts of the rectangle outside of the layer count as empty.
+     */
+    public boolean isAreaEmpty(int col, int row, int width, int height){
+        return storage.isAreaEmpty(col, row, width, height);
+    }
+
+    /**
+     * Fills this layer from a LayerChunkSource. Layers in STORAGE_CHUNKED mode only decode each chunk once something looks at it; the rest are filled in right away.
+     *
+     * @param source The source, whose chunk (0, 0) lines up with this layer's top-left corner.
+     */
+    public void attachChunkSource(LayerChunkSource source){
+        if (!(storage instanceof ChunkedCellStorage) || !((ChunkedCellStorage)storage).attach(source)){
+            storage.clearAll();
+            SpecialText[] palette = source.getPalette();
+            int[] refs = new int[LayerChunkSource.CHUNK_SIZE * LayerChunkSource.CHUNK_SIZE];
+            for (int chunk = 0; chunk < source.getChunkCount(); chunk++){
+                if (!source.readChunk(chunk, refs)) continue;
+                for (int cell = 0; cell < refs.length; cell++){
+                    int col = source.getChunkX(chunk) * LayerChunkSource.CHUNK_SIZE + cell % LayerChunkSource.CHUNK_SIZE;
+                    int row = source.getChunkY(chunk) * LayerChunkSource.CHUNK_SIZE + cell / LayerChunkSource.CHUNK_SIZE;
+                    if (refs[cell] != 0 && !isLayerLocInvalid(col, row))
+                        setCell(col, row, palette[refs[cell] - 1]);
+                }
+            }
+        }
+        markAllDamaged();
+    }
+
+    /**
+     * @return The LayerChunkSource this layer is still loading chunks from, or null if it has everything loaded.
+     */
+    public LayerChunkSource getChunkSource(){
+        return storage.getChunkSource();
+    }
+
+    /**
+     * Lets a map file be saved without decoding the chunks nobody has looked at: they can be copied over from getChunkSource() as they are.
+     *
+     * @param chunkCol The column of the chunk, in chunks (so it covers cells chunkCol * CHUNK_SIZE onwards)
+     * @param chunkRow The row of the chunk, in chunks
+     * @return The index in getChunkSource() of the undecoded chunk covering these cells, or -1 if they're already decoded.
+     */
+    public int getPendingChunk(int chunkCol, int chunkRow){
+        return storage.getPendingChunk(chunkCol, chunkRow);
+    }
+
+    /**
+     * Called by the LayerManager each frame with the part of the layer that's on screen, so lazily loaded chunks are ready before they're composed.
+     */
+    void prefetch(int col, int row, int width, int height){
+        storage.prefetch(col, row, width, height);
+    }
+
+    public int getStorageMode(){
+        if (storage instanceof ChunkedCellStorage) return STORAGE_CHUNKED;
+        return (storage instanceof PaletteCellStorage) ? STORAGE_PALETTE : STORAGE_PACKED;
+    }
+
+    /**
+     * Switches how this layer stores its cells, keeping its contents.
+     *
+     * @param mode STORAGE_PACKED, STORAGE_PALETTE, or STORAGE_CHUNKED
+     */
+    public void setStorageMode(int mode){
+        if (mode == getStorageMode()) return;
+        CellStorage newStorage = createStorage(mode, getCols(), getRows());
+        if (newStorage.copyFrom(storage, 0, 0))
+            storage = newStorage;
+        else
+            System.out.printf("[Layer.setStorageMode] Palette is full; layer \'%1$s\' stays packed\n", name);
+    }
+
+    private static CellStorage createStorage(int mode, int cols, int rows){
+        switch (mode){
+            case STORAGE_PALETTE:
+                return new PaletteCellStorage(cols, rows);
+            case STORAGE_CHUNKED:
+                return new ChunkedCellStorage(cols, rows);
+            default:
+                return new PackedCellStorage(cols, rows);
+        }
+    }
+
+    private static CellStorage toPacked(CellStorage storage){
+        PackedCellStorage packed = new PackedCellStorage(storage.getCols(), storage.getRows());
+        packed.copyFrom(storage, 0, 0);
+        return packed;
+    }
+
+    /**
+     * Has a LayerChangeRecorder told about every change to this layer's contents, or stops telling anyone if null.
+     */
+    public void setChangeRecorder(LayerChangeRecorder recorder){
+        changeRecorder = recorder;
+    }
+
+    //Gives the LayerChangeRecorder the old contents as they are, and then carries on with a new, empty storage of the same kind
+    private void handOverContents(SpecialText fill){
+        Layer before = new Layer(0, 0, name, xpos, ypos, importance);
+        before.storage = storage;
+        changeRecorder.layerFilling(this, before, fill); //While the layer still reads the same as before, too
+        storage = storage.createEmpty(getCols(), getRows());
+    }
+
+    private void recordChange(int col, int row, int width, int height){
+        if (changeRecorder != null) changeRecorder.cellsChanging(this, col, row, width, height);
+    }
+
+    //Every write to the storage goes through these, so that running out of palette room falls back to packed storage instead of losing the edit.
+    private void setCell(int col, int row, char c, int fgArgb, int bkgArgb){
+        recordChange(col, row, 1, 1);
+        if (!storage.set(col, row, c, fgArgb, bkgArgb)){
+            storage = toPacked(storage);
+            storage.set(col, row, c, fgArgb, bkgArgb);
+        }
+        markDamaged(col, row, 1, 1);
+    }
+
+    private void setCell(int col, int row, SpecialText text){
+        recordChange(col, row, 1, 1);
+        if (!storage.set(col, row, text)){
+            storage = toPacked(storage);
+            storage.set(col, row, text);
+        }
+        markDamaged(col, row, 1, 1);
+    }
+
+    //Whether each kind of Layer overrides provideTextForDisplay(). Looked up once per class, since it never changes.
+    private static final ClassValue<Boolean> CUSTOM_DISPLAY = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("provideTextForDisplay", LayerManager.class, Coordinate.class, Coordinate.class, int.class).getDeclaringClass() != Layer.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * @return True if this layer overrides provideTextForDisplay(), and so has to be asked for each cell instead of having its cells read directly.
+     */
+    boolean hasCustomDisplay(){
+        return CUSTOM_DISPLAY.get(getClass());
     }
 
     /**
      * A very special version of getSpecialText() concerned only with rendering.
      *
+     * Layers that only change how the stack beneath them looks should implement LayerEffect instead, which costs far less than calling projectSpecialTextToScreen() from here for every cell.
+     *
      * @param lm The LayerManager drawing the frame
      * @param layerPos The position relative to this layer
      * @param screenPos The position relative to the screen being drawn to
@@ -263,13 +584,24 @@ public class Layer implements Serializable{
     }
 
     public void editLayer (int col, int row, char text){
+        editLayer(col, row, text, Color.WHITE.getRGB(), 0);
+    }
+
+    public void editLayer (int col, int row, char text, int fgArgb, int bkgArgb){
         if (isLayerLocInvalid(col, row)) return;
-        textMatrix[col][row] = new SpecialText(text);
+        setCell(col, row, text, fgArgb, bkgArgb);
     }
 
     public void editLayer (int col, int row, SpecialText text) {
         if (isLayerLocInvalid(col, row)) return;
-        textMatrix[col][row] = text;
+        setCell(col, row, text);
+    }
+
+    public void clearCell (int col, int row){
+        if (isLayerLocInvalid(col, row)) return;
+        recordChange(col, row, 1, 1);
+        storage.clear(col, row);
+        markDamaged(col, row, 1, 1);
     }
 
     public void editLayer (Coordinate loc, SpecialText text){
@@ -277,26 +609,29 @@ public class Layer implements Serializable{
     }
 
     public boolean isLayerLocInvalid(int col, int row){
-        return (col < 0 || col >= textMatrix.length || row < 0 || row >= textMatrix[0].length);
+        return (col < 0 || col >= storage.getCols() || row < 0 || row >= storage.getRows());
     }
 
     public boolean isLayerLocInvalid(Coordinate pos){
-        return (pos.getX() < 0 || pos.getX() >= textMatrix.length || pos.getY() < 0 || pos.getY() >= textMatrix[0].length);
+        return isLayerLocInvalid(pos.getX(), pos.getY());
     }
 
-    public int getCols(){ return textMatrix.length; }
-    public int getRows(){ return textMatrix[0].length; }
+    public int getCols(){ return storage.getCols(); }
+    public int getRows(){ return storage.getRows(); }
 
     public int getX() { return xpos; }
     public int getY() { return ypos; }
     public Coordinate getPos() { return new Coordinate(xpos, ypos); }
 
-    public void setPos(int x, int y) { xpos = x; ypos = y; }
-    public void movePos(int x, int y) { xpos += x; ypos += y; }
+    public void setPos(int x, int y) { xpos = x; ypos = y; markGeometryChanged(); }
+    public void movePos(int x, int y) { xpos += x; ypos += y; markGeometryChanged(); }
 
-    public void setPos(Coordinate loc) {xpos = loc.getX(); ypos = loc.getY(); }
+    public void setPos(Coordinate loc) { setPos(loc.getX(), loc.getY()); }
 
-    public void setVisible(boolean visible) { this.visible = visible; }
+    public void setVisible(boolean visible) {
+        if (this.visible != visible) markGeometryChanged();
+        this.visible = visible;
+    }
 
     public boolean getVisible(){ return visible; }
 
@@ -304,20 +639,29 @@ public class Layer implements Serializable{
 
     public void setImportance(int importance) { this.importance = importance; }
 
+    /**
+     * Unpacks the contents of this layer into a SpecialText matrix, in the form matrix[col][row]
+     */
     private SpecialText[][] getTextMatrix() {
-        return textMatrix;
+        SpecialText[][] matrix = new SpecialText[getCols()][getRows()];
+        for (int col = 0; col < getCols(); col++){
+            for (int row = 0; row < getRows(); row++){
+                matrix[col][row] = storage.get(col, row);
+            }
+        }
+        return matrix;
     }
 
     public void printLayer(){
-        String output = "";
-        for (int row = 0; row < textMatrix[0].length; row++){
-            for (int col = 0; col < textMatrix.length; col++){
-                if (textMatrix[col][row] == null)
-                    output += "Ɵ";
+        StringBuilder output = new StringBuilder();
+        for (int row = 0; row < getRows(); row++){
+            for (int col = 0; col < getCols(); col++){
+                if (storage.isEmpty(col, row))
+                    output.append('Ɵ');
                 else
-                    output += textMatrix[col][row].getStr();
+                    output.append(storage.getChar(col, row));
             }
-            output += "|\n";
+            output.append("|\n");
         }
         System.out.println("LAYER: " + name + ":\n" + output + "-~-~-~-~-~-~");
     }
@@ -364,4 +708,38 @@ public class Layer implements Serializable{
         }
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        return (name == null) ? 0 : name.hashCode(); //Matches equals(), which only compares names
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("textMatrix", getTextMatrix());
+        fields.put("xpos", xpos);
+        fields.put("ypos", ypos);
+        fields.put("name", name);
+        fields.put("importance", importance);
+        fields.put("fixedScreenPos", fixedScreenPos);
+        fields.put("visible", visible);
+        fields.put("storageMode", getStorageMode());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        damage = new DamageRegion();
+        geometryChanged = true;
+        listeners = NO_LISTENERS;
+        SpecialText[][] matrix = (SpecialText[][])fields.get("textMatrix", null);
+        storage = (matrix != null) ? PackedCellStorage.fromMatrix(matrix) : new PackedCellStorage(0, 0);
+        xpos = fields.get("xpos", 0);
+        ypos = fields.get("ypos", 0);
+        name = (String)fields.get("name", null);
+        importance = fields.get("importance", 0);
+        fixedScreenPos = fields.get("fixedScreenPos", false);
+        visible = fields.get("visible", true);
+        setStorageMode(fields.get("storageMode", STORAGE_PACKED));
+    }
 }
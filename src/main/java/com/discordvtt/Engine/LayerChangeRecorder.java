@@ -0,0 +1,34 @@
+package com.discordvtt.Engine;
+
+public interface LayerChangeRecorder {
+
+    /**
+     * LayerChangeRecorder:
+     *
+     * Told about changes to a Layer's contents just before they happen, while the old contents can still be read. Used to build up undo history.
+     */
+
+    /**
+     * Some cells are about to change. The rectangle is always within the layer.
+     */
+    void cellsChanging(Layer layer, int col, int row, int width, int height);
+
+    /**
+     * The whole layer is about to be cleared, or filled with one SpecialText.
+     * Rather than the recorder reading every cell beforehand (which would decode every chunk of a map that hasn't been looked at yet), it's handed the old contents as they are.
+     *
+     * @param before A detached Layer holding the old contents. The layer carries on with new storage, so these are never changed afterwards.
+     * @param fill What every cell is about to hold, or null if the layer is being cleared
+     */
+    void layerFilling(Layer layer, Layer before, SpecialText fill);
+
+    /**
+     * The layer is about to be resized. The arguments are those of Layer.resizeLayer().
+     */
+    void layerResizing(Layer layer, int width, int height, int offsetX, int offsetY);
+
+    /**
+     * The layer's contents were just replaced wholesale, like when a map is opened.
+     */
+    void layerReplaced(Layer layer);
+}
@@ -0,0 +1,35 @@
+package com.discordvtt.Engine;
+
+public interface LayerChunkSource {
+
+    /**
+     * LayerChunkSource:
+     *
+     * Where a Layer can pull the contents of its 32x32 chunks from, one chunk at a time, instead of being filled in all at once.
+     * Used to open big maps lazily: a chunk is only decoded once something looks at it.
+     *
+     * Chunk (x, y) covers the layer's cells from (x * CHUNK_SIZE, y * CHUNK_SIZE) to just before ((x + 1) * CHUNK_SIZE, (y + 1) * CHUNK_SIZE).
+     * Cells are referred to by their place in the source's palette: 0 is an empty cell, and n is getPalette()[n - 1].
+     *
+     * Chunks may be read from several threads at once.
+     */
+
+    int CHUNK_SIZE = 32;
+
+    SpecialText[] getPalette();
+
+    int getChunkCount();
+
+    int getChunkX(int chunk);
+
+    int getChunkY(int chunk);
+
+    /**
+     * Decodes a chunk.
+     *
+     * @param chunk The chunk's index, from 0 to getChunkCount() - 1
+     * @param refs Filled with the palette reference of every cell of the chunk, row by row. It is CHUNK_SIZE * CHUNK_SIZE long.
+     * @return False if the chunk couldn't be read, in which case it should be treated as empty.
+     */
+    boolean readChunk(int chunk, int[] refs);
+}
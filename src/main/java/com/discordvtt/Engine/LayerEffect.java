@@ -0,0 +1,29 @@
+package com.discordvtt.Engine;
+
+public interface LayerEffect {
+
+    /**
+     * LayerEffect:
+     *
+     * Implemented by Layers that don't draw cells of their own, but change how everything beneath them looks, like NegatingLayer and ShakingLayer.
+     *
+     * The LayerManager composes the stack beneath such a Layer into an EffectBuffer once, hands it to apply(), and then composes the Layers above
+     * as if the result were an opaque Layer filling the effect Layer's rectangle. Every cell of the stack is therefore composed once per frame, however many effects are stacked up,
+     * instead of each effect composing everything beneath it again for every one of its cells.
+     *
+     * Like provideTextForDisplay(), apply() must not change the Layer, since frames may be composed by several threads; see Layer.prepareFrame().
+     */
+
+    /**
+     * @return How many columns to either side of a cell the effect may read from. The stack beneath is composed that much wider than the area the effect is applied to.
+     */
+    int getHorizontalReach();
+
+    /**
+     * Applies the effect to an area of the screen.
+     *
+     * @param beneath The composed stack beneath the effect Layer. It covers the area of out, widened by getHorizontalReach() columns on each side.
+     * @param out Where to write the effect's result. Every one of its cells must be written. It lies within the effect Layer's rectangle on the screen.
+     */
+    void apply(EffectBuffer beneath, EffectBuffer out);
+}
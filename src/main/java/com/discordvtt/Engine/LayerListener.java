@@ -0,0 +1,13 @@
+package com.discordvtt.Engine;
+
+public interface LayerListener {
+
+    /**
+     * Called whenever part of a Layer is marked as needing to be drawn again: a cell was edited, or the Layer moved, resized, or was shown / hidden.
+     *
+     * This runs on whichever thread made the change, once per change, so it should be quick.
+     *
+     * @param layer The Layer that changed
+     */
+    void onLayerDamaged(Layer layer);
+}
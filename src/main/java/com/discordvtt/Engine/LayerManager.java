@@ -2,11 +2,14 @@ package com.discordvtt.Engine;
 
 import com.discordvtt.Data.Coordinate;
 
-import java.awt.*;
-import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Jared on 2/18/2018.
@@ -23,70 +26,238 @@ public class LayerManager {
      * This array of Layers is called a stack.
      *
      * The LayerManager also has a 'camera', which compounds on top of a Layer's position to get a final position during rendering.
+     *
+     * The compiled frame is kept between frames. Each frame, only the screen cells damaged since the previous one are composed again:
+     * cells edited in a Layer, plus everywhere a Layer moved, resized, or changed visibility.
+     * Moving the camera, changing the resolution, or changing the Layer stack redraws the whole screen.
+     *
+     * Before composing, the stack is culled down to the visible Layers that overlap the screen, along with where on the screen each one is.
+     * Composing a cell then only walks those Layers, skipping any whose rectangle doesn't contain the cell, so Layers placed off in some other part of the world cost nothing.
+     *
+     * Layers that are LayerEffects (like NegatingLayer and ShakingLayer) are run as a stage of their own: before a damaged area is composed, the stack beneath each effect
+     * is composed into a scratch EffectBuffer, bottom to top, and the effect turns it into its output in one go. Composing then reads that output like any other Layer,
+     * so stacked effects cost one pass each instead of composing everything beneath them again for every cell.
+     *
+     * Frames are only drawn when something changes. Layers in the stack, camera movement, and changes to the stack all ask the RenderScheduler for a frame,
+     * and the scheduler draws at most one frame per display refresh no matter how many changes came in.
+     *
+     * How long each stage of a frame takes is tracked by its RenderMetrics, which can also be watched over JMX.
+     *
+     * Each composed frame is handed to every RenderTarget of the LayerManager, so one compose pass can feed a window, an offscreen image, and a buffer of cells alike.
+     * A LayerManager made with a ViewWindow draws frames on its own, through a RenderScheduler. One made with just a resolution has no window and no render thread,
+     * and only composes a frame when composeNow() is called, which makes it usable without Swing (like for rendering on a server, or in benchmarks).
+     *
+     * In COMPOSE_PARALLEL mode, large damaged areas (and the stack beneath large LayerEffects) are split into bands of rows and composed on the common ForkJoinPool.
+     * Layers must therefore not change themselves in provideTextForDisplay(); see Layer.prepareFrame().
      */
 
-    private ArrayList<Layer> layerStack = new ArrayList<>();
+    /*
+     * Compositor modes:
+     *
+     * COMPOSE_SERIAL   : Every cell is composed on the render thread.
+     * COMPOSE_PARALLEL : Damaged areas larger than PARALLEL_THRESHOLD cells are split into row bands and composed in parallel, and so are the EffectBuffers
+     *                    the effect stage composes. Smaller ones stay serial, since handing them out to other threads costs more than it saves.
+     */
+    public static final int COMPOSE_SERIAL = 0;
+    public static final int COMPOSE_PARALLEL = 1;
 
-    private ArrayList<LayerOperation> operationBufferOne = new ArrayList<>(); //Double buffering to prevent concurrent modification errors
-    private ArrayList<LayerOperation> operationBufferTwo = new ArrayList<>();
+    private static final int PARALLEL_THRESHOLD = 4096; //The number of cells below which a damaged area is composed serially
+    private static final int BAND_CELLS = 1024; //Roughly how many cells each band composes. Several bands per thread keeps the work balanced.
 
-    private ArrayList<FrameUpdateListener> frameUpdateListeners = new ArrayList<>();
+    private final LayerStack layerStack = new LayerStack();
+    private Layer[] frameStack = new Layer[0]; //The stack as it was when the current frame started
 
-    private boolean bufferOneOpen = true;
+    private final LayerOperationQueue layerOperations = new LayerOperationQueue(); //Changes to the stack from any thread, made at the start of the next frame
 
     private int camX;
     private int camY;
+    private int frameCamX; //The camera position for the frame being drawn, so that moving the camera mid-frame doesn't tear it
+    private int frameCamY;
 
-    private Timer drawTimer;
+    private volatile int compositorMode = COMPOSE_PARALLEL;
+
+    private RenderScheduler scheduler; //Null for LayerManagers without a window
+    private final RenderMetrics metrics = new RenderMetrics();
+    private final FrameListenerDispatcher frameUpdateListeners = new FrameListenerDispatcher(metrics);
+    private volatile long frameListenerDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FRAME_LISTENER_DEADLINE);
     private ViewWindow window;
+    private final CopyOnWriteArrayList<RenderTarget> renderTargets = new CopyOnWriteArrayList<>();
+    private volatile boolean targetsChanged = false; //A new target needs a whole frame, even if nothing on the screen changed
+    private volatile int resolutionWidth;
+    private volatile int resolutionHeight;
+    private final LayerListener frameRequester = layer -> requestFrame();
 
     private long previousCompileTime;
     private boolean isDrawingFrame;
 
     private int arbitraryNumber = 0;
 
-    private long previousDrawTimestamp;
+    private final FrameSwapChain frames = new FrameSwapChain(); //Composed frames, handed over to the ViewWindow. Each frame starts from a copy of the previous one, so undamaged cells don't need to be composed again
+    private FrameBuffer composingFrame; //The frame being composed right now
+    private int composedCamX;
+    private int composedCamY;
+    private boolean stackChanged = true;
+    private DamageRegion frameDamage = new DamageRegion(); //In screen coordinates
+    private DamageRegion layerDamage = new DamageRegion(); //Scratch space for draining each Layer's damage
+    private IdentityHashMap<Layer, int[]> layerFootprints = new IdentityHashMap<>(); //The screen rectangle {x, y, width, height} each visible Layer covered last frame
+
+    //The Layers that can be seen this frame, bottom to top, as found by cullLayers(). Only the render thread writes these, before composing starts.
+    private Layer[] culledLayers = new Layer[0];
+    private int[] culledPositions = new int[0]; //Where each Layer is in the stack
+    private int[] culledBounds = new int[0]; //The screen rectangle {left, top, right, bottom} of each Layer, four ints per Layer
+    private int culledCount = 0;
+
+    //The effect stage, for the culled Layers that are LayerEffects
+    private LayerEffect[] culledEffects = new LayerEffect[0]; //Null for plain Layers
+    private EffectBuffer[] effectOutputs = new EffectBuffer[0]; //What each effect made of the area being composed
+    private int culledEffectCount = 0;
+    private final EffectBuffer effectInput = new EffectBuffer(); //The stack beneath the effect being applied
+
+    private static final int DEFAULT_FRAME_LISTENER_DEADLINE = 5; //The most time (in ms) FrameUpdateListeners get to do their frame start operations before the frame goes ahead without them.
 
-    private static final int FRAMEUPDATE_INTERVAL = 50; //The period of time (in ms) expected to be in between each frame drawing.
-    private static final int FRAMEUPDATE_LISTENER_PERIOD = 5; //The "Grace Period" (in ms) to all FrameUpdateListeners to do their frame start operations.
+    /**
+     * Makes a LayerManager that draws onto a ViewWindow, on its own render thread, at the window's resolution.
+     */
+    public LayerManager(ViewWindow viewWindow){
+        this(viewWindow.RESOLUTION_WIDTH, viewWindow.RESOLUTION_HEIGHT);
+        window = viewWindow;
+        window.manager = this;
+        renderTargets.add(viewWindow);
+        scheduler = new RenderScheduler(this::drawFrame, "LayerManager Render");
+        metrics.setScheduler(scheduler);
+        requestFrame();
+    }
 
-    private class DrawUpdateTask extends TimerTask {
-        @Override
-        public void run() {
-            if (detectCatchUpFrame()) {
-                previousDrawTimestamp = System.nanoTime();
-                return;
-            }
-            window.drawImage(compileLayers(new Dimension(window.RESOLUTION_WIDTH, window.RESOLUTION_HEIGHT)));
-            arbitraryNumber++;
+    /**
+     * Makes a LayerManager with no window and no render thread. It only composes frames when composeNow() is called.
+     *
+     * @param width The screen width to compose, in cells
+     * @param height The screen height to compose, in cells
+     */
+    public LayerManager(int width, int height){
+        resolutionWidth = width;
+        resolutionHeight = height;
+        metrics.register("LayerManager");
+    }
+
+    /**
+     * Stops drawing, and unregisters the RenderMetrics MBean. Call this once the LayerManager is no longer needed; it can't be started back up.
+     */
+    public void dispose(){
+        if (scheduler != null) scheduler.stop();
+        metrics.unregister();
+    }
+
+    /**
+     * Draws a frame for the RenderTargets. Only ever run by the RenderScheduler.
+     */
+    private void drawFrame(){
+        composeNow();
+        if (hasVisibleAnimatedLayer())
+            requestFrame(); //Animated layers change without being edited, so they keep asking for frames for as long as they are shown
+    }
+
+    private boolean hasVisibleAnimatedLayer(){
+        for (Layer layer : layerStack.snapshot()){
+            if (layer.getVisible() && layer.isAnimated()) return true;
         }
+        return false;
     }
 
-    public LayerManager(ViewWindow viewWindow){
-        window = viewWindow;
-        window.manager = this;
-        drawTimer = new Timer();
-        drawTimer.scheduleAtFixedRate(new DrawUpdateTask(), 10, FRAMEUPDATE_INTERVAL);
-        previousDrawTimestamp = System.nanoTime();
+    /**
+     * Takes the newest composed frame. Only the ViewWindow's paint should ever call this, since only one thread may hold a frame at a time.
+     *
+     * @return The frame to paint, which stays untouched until the next call. Null if no frame has been composed yet.
+     */
+    FrameBuffer acquireFrame(){
+        return frames.acquire();
     }
 
+    /**
+     * Asks for a new frame to be drawn soon.
+     *
+     * Changes to Layers in the stack, the camera, and the stack itself already do this on their own.
+     * Call this after changing anything else that affects the screen, like a Layer's fixedScreenPos.
+     * LayerManagers without a window ignore this, since they only draw when composeNow() is called.
+     */
+    public void requestFrame(){
+        if (scheduler != null) scheduler.requestFrame();
+    }
+
+    /**
+     * Composes a frame right away, on the calling thread, and hands it to every RenderTarget.
+     *
+     * This is how LayerManagers without a window draw. Ones with a window may also call it to get a frame out without waiting on the RenderScheduler;
+     * the two never compose at the same time.
+     *
+     * @return Whether anything on the screen changed since the previous frame. If not, the RenderTargets aren't bothered.
+     */
+    public boolean composeNow(){
+        boolean changed = compileLayers(resolutionWidth, resolutionHeight);
+        arbitraryNumber++;
+        return changed;
+    }
+
+    /**
+     * Sets how many cells wide and tall the composed screen is. The ViewWindow keeps this in sync with its own resolution.
+     */
+    public void setResolution(int width, int height){
+        resolutionWidth = width;
+        resolutionHeight = height;
+        requestFrame();
+    }
+
+    public int getResolutionWidth() { return resolutionWidth; }
+
+    public int getResolutionHeight() { return resolutionHeight; }
+
+    /**
+     * Starts handing composed frames to a RenderTarget. It gets a whole frame with the next compose, even if nothing on the screen changed.
+     */
+    public void addRenderTarget(RenderTarget target){
+        renderTargets.add(target);
+        targetsChanged = true;
+        requestFrame();
+    }
+
+    public void removeRenderTarget(RenderTarget target){
+        renderTargets.remove(target);
+    }
+
+    /**
+     * @return The RenderScheduler drawing this LayerManager's frames, or null if it has no window and so only draws through composeNow().
+     */
+    public RenderScheduler getScheduler() { return scheduler; }
+
+    public RenderMetrics getMetrics() { return metrics; }
+
+    public int getCompositorMode() { return compositorMode; }
+
+    /**
+     * @param mode Either COMPOSE_SERIAL or COMPOSE_PARALLEL
+     */
+    public void setCompositorMode(int mode) {
+        compositorMode = mode;
+    }
+
+    /**
+     * @return The ViewWindow this LayerManager was made with, or null if it has none.
+     */
     public ViewWindow getWindow() {
         return window;
     }
 
     /**
      * Adds a Layer to the stack of Layers.
-     * In avoidance of potential synchronization issues, expect a 0-50ms delay before the layer is finally displayed on the screen.
+     * In avoidance of potential synchronization issues, the layer is displayed starting from the next frame (or once flush() is called).
      *
      * @param toAdd The Layer to add
      */
     public void addLayer (Layer toAdd){
         if (toAdd == null)
             return;
-        if (bufferOneOpen)
-            operationBufferOne.add(() -> addLayerOperation(toAdd));
-        else
-            operationBufferTwo.add(() -> addLayerOperation(toAdd));
+        layerOperations.add(() -> addLayerOperation(toAdd));
+        requestFrame();
     }
 
     /**
@@ -95,15 +266,9 @@ public class LayerManager {
      * @param toAdd The Layer to add
      */
     private void addLayerOperation (Layer toAdd){
-        for (int ii = layerStack.size()-1; ii >= 0; ii--){
-            if (layerStack.get(ii).getImportance() <= toAdd.getImportance()){
-                layerStack.add(ii+1, toAdd);
-                System.out.printf("[LayerManager] Added layer \'%1$s\' at position %2$d\n", toAdd.getName(), ii+1);
-                return;
-            }
-        }
-        layerStack.add(0, toAdd);
-        System.out.printf("[LayerManager] Added layer \'%1$s\' at position 0\n", toAdd.getName());
+        toAdd.addLayerListener(frameRequester);
+        layerStack.add(toAdd);
+        System.out.printf("[LayerManager] Added layer \'%1$s\' with importance %2$d\n", toAdd.getName(), toAdd.getImportance());
     }
 
     /**
@@ -111,7 +276,7 @@ public class LayerManager {
      * Comparing every SpecialText in each layer is computationally expensive, so just doing a simple String comparison is much more efficient.
      * If your code is written properly, this should not be a problem.
      *
-     * In avoidance of potential synchronization issues, expect a 0-50ms delay before the layer is finally removed.
+     * In avoidance of potential synchronization issues, the layer is removed starting from the next frame (or once flush() is called).
      *
      * This function should only really be used when a Layer will not be in use in the future.
      * It is recommended to instead call Layer.setVisible(), due to it being more reliable and easier to manage on the client-end as well.
@@ -119,10 +284,8 @@ public class LayerManager {
      * @param toRemove The Layer to remove
      */
     public void removeLayer(String toRemove){
-        if (bufferOneOpen)
-            operationBufferOne.add(() -> removeLayerOperation(toRemove));
-        else
-            operationBufferTwo.add(() -> removeLayerOperation(toRemove));
+        layerOperations.add(() -> removeLayerOperation(toRemove));
+        requestFrame();
     }
 
     /**
@@ -131,10 +294,7 @@ public class LayerManager {
      * @return The matching Layer in the Layer stack.
      */
     public Layer getLayer(String name){
-        for (Layer layer : layerStack){
-            if (layer.getName().equals(name)) return layer;
-        }
-        return null;
+        return layerStack.getFirst(name);
     }
 
     /**
@@ -143,14 +303,9 @@ public class LayerManager {
      * @param toRemove The name of the layer that needs to removed.
      */
     private void removeLayerOperation(String toRemove){
-        for (int i = 0; i < layerStack.size();){
-            Layer layer = layerStack.get(i);
-            if (layer.getName().equals(toRemove)) {
-                layerStack.remove(layer);
-                System.out.printf("[LayerManager] Successful removal of layer \"%1$s\"\n", toRemove);
-            } else {
-                i++;
-            }
+        for (Layer layer : layerStack.removeNamed(toRemove)){
+            layer.removeLayerListener(frameRequester);
+            System.out.printf("[LayerManager] Successful removal of layer \"%1$s\"\n", toRemove);
         }
     }
 
@@ -158,26 +313,20 @@ public class LayerManager {
      * Removes every Layer in the stack.
      */
     private void clearLayersOperation(){
-        for (int i = 0; i < layerStack.size();) {
-            layerStack.remove(i);
-        }
+        for (Layer layer : layerStack.clear())
+            layer.removeLayerListener(frameRequester);
     }
 
     /**
      * Clears the entire stack of Layers.
-     * In avoidance of potential synchronization issues, expect a 0-50ms delay before this operation is ran.
+     * In avoidance of potential synchronization issues, this operation is ran at the start of the next frame (or once flush() is called).
      */
     public void clearLayers(){
-        if (bufferOneOpen)
-            operationBufferOne.add(() -> {
-                clearLayersOperation();
-                System.out.println("[LayerManager] Cleared Layer stack");
-            });
-        else
-            operationBufferTwo.add(() -> {
-                clearLayersOperation();
-                System.out.println("[LayerManager] Cleared Layer stack");
-            });
+        layerOperations.add(() -> {
+            clearLayersOperation();
+            System.out.println("[LayerManager] Cleared Layer stack");
+        });
+        requestFrame();
     }
 
     /**
@@ -201,6 +350,7 @@ public class LayerManager {
     public void setCameraPos(int x, int y){
         camX = x;
         camY = y;
+        requestFrame();
     }
 
     /**
@@ -212,11 +362,15 @@ public class LayerManager {
     public void moveCameraPos(int relativeX, int relativeY){
         camX += relativeX;
         camY += relativeY;
+        requestFrame();
     }
 
     public Coordinate getCameraPos() {return new Coordinate(camX, camY); }
 
-    public ArrayList<Layer> getLayerStack() { return layerStack; }
+    /**
+     * @return The Layers in the stack, bottom to top, as of when this was called
+     */
+    public List<Layer> getLayerStack() { return Collections.unmodifiableList(Arrays.asList(layerStack.snapshot())); }
 
     public long getPreviousCompileTime() {
         return previousCompileTime;
@@ -235,178 +389,467 @@ public class LayerManager {
     }
 
     /**
-     * Updates all FrameUpdateListeners prior to drawing a frame.
+     * Sets how long a frame waits at most for FrameUpdateListeners to finish onFrameDrawStart(). Listeners that take longer are reported as overrunning.
+     *
+     * @param millis The deadline, in milliseconds. 5 by default.
+     */
+    public void setFrameListenerDeadline(long millis){
+        frameListenerDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Makes every change to the Layer stack asked for so far (adding, removing, and clearing Layers) right away, on the calling thread,
+     * instead of waiting for the next frame. getLayer() and getLayerStack() reflect the changes once this returns.
+     *
+     * The changes still show on screen with the next frame, which this asks for.
+     */
+    public void flush(){
+        synchronized (this) { //The same lock compileLayers() holds, so the stack never changes in the middle of a frame
+            processLayerOperations();
+        }
+        requestFrame();
+    }
+
+    /**
+     * Adding a Layer, removing a Layer, and clearing the Layer stack is placed onto a queue before operating.
+     *
+     * At the start of every frame, the whole queue is operated upon.
+     */
+    private void processLayerOperations(){
+        if (layerOperations.isEmpty()) return;
+        if (layerOperations.runAll() > 0)
+            stackChanged = true;
+    }
+
+    /**
+     * Takes all the Layers in the Layer stack and 'compresses' them into one FrameBuffer, which represents a fully rendered screen.
+     *
+     * Only the damaged parts of the screen are composed again; the rest is carried over from the previous frame.
+     * Composing doesn't create any objects, unless a Layer overrides provideTextForDisplay().
+     * Synchronized, since both the RenderScheduler and composeNow() may get here.
      *
-     * This process is handled on a separate thread to provide protection against possible interruptions in the drawing process.
-     * The full drawing process waits 5ms before drawing to allow for some, hopefully all, of the processes to finish.
+     * @param width The screen width to draw to.
+     * @param height The screen height to draw to.
+     * @return Whether a new frame was published. False if nothing on the screen changed since the previous frame.
+     */
+    private synchronized boolean compileLayers(int width, int height){
+        isDrawingFrame = true;
+        long frameStartTime = System.nanoTime();
+        long allocatedAtStart = RenderMetrics.currentThreadAllocatedBytes();
+        boolean listenersStarted = !frameUpdateListeners.isEmpty(); //Without listeners, there's nothing to wait for
+        if (listenersStarted) {
+            frameUpdateListeners.frameStart(frameListenerDeadlineNanos);
+            metrics.recordStage(RenderMetrics.STAGE_LISTENER_START, System.nanoTime() - frameStartTime);
+        }
+        long startTime = System.nanoTime();
+        processLayerOperations();
+        long composeStartTime = System.nanoTime();
+        metrics.recordStage(RenderMetrics.STAGE_OPERATIONS, composeStartTime - startTime);
+        frameCamX = camX; //The camera can be moved from other threads mid-frame, so the whole frame uses one position.
+        frameCamY = camY;
+        frameStack = layerStack.snapshot();
+        for (Layer layer : frameStack) {
+            if (!layer.getVisible()) continue;
+            layer.prepareFrame();
+            layer.prefetch(((layer.fixedScreenPos) ? 0 : frameCamX) - layer.getX(), ((layer.fixedScreenPos) ? 0 : frameCamY) - layer.getY(), width, height);
+        }
+        FrameBuffer previous = frames.prepareBack(width, height);
+        composingFrame = frames.getBack();
+        boolean newTargets = targetsChanged;
+        targetsChanged = false;
+        boolean fullRedraw = stackChanged || newTargets || previous == null || frameCamX != composedCamX || frameCamY != composedCamY;
+        frameDamage.clear();
+        collectLayerDamage();
+        if (fullRedraw)
+            frameDamage.add(0, 0, width, height);
+        frameDamage.clip(width, height);
+        if (!frameDamage.isEmpty())
+            cullLayers(width, height);
+        for (int rect = 0; rect < frameDamage.getRectCount(); rect++){
+            int left = frameDamage.getLeft(rect);
+            int top = frameDamage.getTop(rect);
+            int right = frameDamage.getRight(rect);
+            int bottom = frameDamage.getBottom(rect);
+            applyEffects(left, top, right, bottom);
+            if (composesInParallel((right - left) * (bottom - top)))
+                ForkJoinPool.commonPool().invoke(new ComposeBandTask(null, culledCount - 1, left, top, right, bottom));
+            else
+                composeArea(left, top, right, bottom);
+        }
+        stackChanged = false;
+        composedCamX = frameCamX;
+        composedCamY = frameCamY;
+        boolean changed = !frameDamage.isEmpty();
+        if (changed)
+            frames.publish();
+        long composeEndTime = System.nanoTime();
+        previousCompileTime = composeEndTime - startTime;
+        metrics.recordStage(RenderMetrics.STAGE_COMPOSE, composeEndTime - composeStartTime);
+        if (changed) {
+            //The published frame isn't written to again until it has come back around as the back buffer, which takes at least one more compose
+            for (RenderTarget target : renderTargets)
+                target.frameComposed(composingFrame);
+        }
+        isDrawingFrame = false;
+        if (listenersStarted) { //Even if they were all removed since, the ones that started still get their end of frame
+            frameUpdateListeners.frameEnd();
+            metrics.recordStage(RenderMetrics.STAGE_LISTENER_END, System.nanoTime() - composeEndTime);
+        }
+        long allocatedAtEnd = (allocatedAtStart < 0) ? -1 : RenderMetrics.currentThreadAllocatedBytes();
+        metrics.recordFrame(System.nanoTime() - frameStartTime, (allocatedAtStart < 0) ? -1 : allocatedAtEnd - allocatedAtStart);
+        return changed;
+    }
+
+    /**
+     * Finds which Layers of the stack are visible and overlap the screen, and where on the screen each of them is.
      */
-    private void frameStartUpdate(){
-        Thread thread = new Thread(() -> {
-            for (int i = 0; i < frameUpdateListeners.size();) {
-                frameUpdateListeners.get(i).onFrameDrawStart();
-                i++;
+    private void cullLayers(int width, int height){
+        int stackSize = frameStack.length;
+        if (culledLayers.length < stackSize){
+            culledLayers = new Layer[stackSize];
+            culledPositions = new int[stackSize];
+            culledBounds = new int[stackSize * 4];
+            culledEffects = new LayerEffect[stackSize];
+            effectOutputs = Arrays.copyOf(effectOutputs, stackSize);
+        }
+        culledCount = 0;
+        culledEffectCount = 0;
+        for (int i = 0; i < stackSize; i++){
+            Layer layer = frameStack[i];
+            if (!layer.getVisible()) continue;
+            int left = layer.getX() - ((layer.fixedScreenPos) ? 0 : frameCamX);
+            int top = layer.getY() - ((layer.fixedScreenPos) ? 0 : frameCamY);
+            int right = left + layer.getCols();
+            int bottom = top + layer.getRows();
+            if (right <= 0 || bottom <= 0 || left >= width || top >= height) continue;
+            culledLayers[culledCount] = layer;
+            culledPositions[culledCount] = i;
+            //Not clipped to the screen, since Layers like the ShakingLayer look at cells just off of it
+            culledBounds[culledCount * 4] = left;
+            culledBounds[culledCount * 4 + 1] = top;
+            culledBounds[culledCount * 4 + 2] = right;
+            culledBounds[culledCount * 4 + 3] = bottom;
+            if (layer instanceof LayerEffect){
+                culledEffects[culledCount] = (LayerEffect) layer;
+                if (effectOutputs[culledCount] == null) effectOutputs[culledCount] = new EffectBuffer();
+                culledEffectCount++;
+            } else {
+                culledEffects[culledCount] = null;
             }
-        });
-        thread.start();
+            culledCount++;
+        }
+        for (int i = culledCount; i < culledLayers.length && culledLayers[i] != null; i++){
+            culledLayers[i] = null; //Don't hold onto Layers that were removed
+            culledEffects[i] = null;
+        }
+        metrics.recordLayerCounts(stackSize, culledCount);
+    }
+
+    private boolean composesInParallel(int cells){
+        return compositorMode == COMPOSE_PARALLEL && cells > PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
     }
 
     /**
-     * Updates all FrameUpdateListeners at the end of drawing a frame.
+     * Composes a rectangle of the screen into the frame being composed.
+     */
+    private void composeArea(int left, int top, int right, int bottom){
+        int startIndex = culledCount - 1;
+        FrameBuffer frame = composingFrame;
+        for (int row = top; row < bottom; row++){
+            for (int col = left; col < right; col++){
+                long cell = composeCell(col, row, startIndex);
+                frame.set(col, row, cellChar(cell), cellFgArgb(cell), cellBkgArgb(cell));
+            }
+        }
+    }
+
+    /**
+     * Runs the effect stage for a rectangle of the screen that is about to be composed.
      *
-     * This process is handled on a separate thread to provide protection against possible interruptions in the drawing process.
+     * Effects are applied bottom to top, so the stack beneath each one already has the output of every effect below it.
+     * An effect's output is needed over more than the rectangle itself: the effects above it read up to their horizontal reach to either side,
+     * so each output is widened by the reach of every effect above it, and each input by the reach of its own effect on top of that.
      */
-    private void frameEndUpdate(){
-        Thread thread = new Thread(() -> {
-            for (int i = 0; i < frameUpdateListeners.size();) {
-                frameUpdateListeners.get(i).onFrameDrawEnd();
-                i++;
+    private void applyEffects(int left, int top, int right, int bottom){
+        if (culledEffectCount == 0) return;
+        int reachAbove = 0;
+        for (int ii = 0; ii < culledCount; ii++)
+            if (culledEffects[ii] != null) reachAbove += Math.max(0, culledEffects[ii].getHorizontalReach());
+        int[] bounds = culledBounds;
+        for (int ii = 0; ii < culledCount; ii++){
+            LayerEffect effect = culledEffects[ii];
+            if (effect == null) continue;
+            int reach = Math.max(0, effect.getHorizontalReach());
+            reachAbove -= reach;
+            int outLeft = Math.max(left - reachAbove, bounds[ii * 4]);
+            int outTop = Math.max(top, bounds[ii * 4 + 1]);
+            int outRight = Math.min(right + reachAbove, bounds[ii * 4 + 2]);
+            int outBottom = Math.min(bottom, bounds[ii * 4 + 3]);
+            EffectBuffer output = effectOutputs[ii];
+            if (outLeft >= outRight || outTop >= outBottom){
+                output.reset(0, 0, 0, 0); //Nothing above looks at this effect
+                continue;
             }
-        });
-        thread.start();
+            output.reset(outLeft, outTop, outRight - outLeft, outBottom - outTop);
+            effectInput.reset(outLeft - reach, outTop, outRight - outLeft + reach * 2, outBottom - outTop);
+            composeInto(effectInput, ii - 1);
+            effect.apply(effectInput, output);
+        }
     }
 
     /**
-     * Adding a Layer, removing a Layer, and clearing the Layer stack is placed onto a buffer before operating.
+     * Applies a single effect to a single cell, for cells outside of the area the effect stage was run for.
+     * That only happens when a Layer's provideTextForDisplay() looks further afield than any effect's reach, so it isn't worth keeping buffers around for.
      *
-     * Every 50ms, the buffer is operated upon.
+     * @return A new EffectBuffer holding the cell
      */
-    private void processLayerOperationBuffer(){
-        try {
-            bufferOneOpen = !bufferOneOpen;
-            if (bufferOneOpen) {//Why it's you might ask? Well, don't we want to operate from the closed buffer?
-                for (int i = 0; i < operationBufferTwo.size(); i++) {
-                    LayerOperation operation = operationBufferTwo.get(i);
-                    operation.doOperation();
-                }
-                operationBufferTwo.clear();
-            } else {
-                for (int i = 0; i < operationBufferOne.size(); i++) {
-                    LayerOperation operation = operationBufferOne.get(i);
-                    operation.doOperation();
-                }
-                operationBufferOne.clear();
+    private EffectBuffer applyEffectAt(int index, int screenX, int screenY){
+        LayerEffect effect = culledEffects[index];
+        int reach = Math.max(0, effect.getHorizontalReach());
+        EffectBuffer input = new EffectBuffer();
+        input.reset(screenX - reach, screenY, reach * 2 + 1, 1);
+        composeInto(input, index - 1);
+        EffectBuffer output = new EffectBuffer();
+        output.reset(screenX, screenY, 1, 1);
+        effect.apply(input, output);
+        return output;
+    }
+
+    /**
+     * Composes every cell of an EffectBuffer, from a position in the culled stack downwards.
+     * Large buffers are composed in row bands, like large damaged areas are, since an effect covering the screen needs the whole stack beneath it composed first.
+     */
+    private void composeInto(EffectBuffer buffer, int startIndex){
+        if (composesInParallel((buffer.getRight() - buffer.getLeft()) * (buffer.getBottom() - buffer.getTop())))
+            ForkJoinPool.commonPool().invoke(new ComposeBandTask(buffer, startIndex, buffer.getLeft(), buffer.getTop(), buffer.getRight(), buffer.getBottom()));
+        else
+            composeRows(buffer, startIndex, buffer.getTop(), buffer.getBottom());
+    }
+
+    /**
+     * Composes rows of an EffectBuffer, across its whole width.
+     */
+    private void composeRows(EffectBuffer buffer, int startIndex, int top, int bottom){
+        for (int row = top; row < bottom; row++){
+            for (int col = buffer.getLeft(); col < buffer.getRight(); col++){
+                long cell = composeCell(col, row, startIndex);
+                buffer.set(col, row, cellChar(cell), cellFgArgb(cell), cellBkgArgb(cell));
             }
-        } catch (ConcurrentModificationException e){
-            e.printStackTrace();
         }
     }
 
-    private boolean detectCatchUpFrame(){
-        double timeSinceDrawEnd = ((System.nanoTime() - previousDrawTimestamp) / 1000000f);
-        return (timeSinceDrawEnd < FRAMEUPDATE_LISTENER_PERIOD);
+    /**
+     * Composes a rectangle of the screen, splitting it in half by rows until each band is small enough to compose by itself.
+     * It goes into the frame being composed, or into an EffectBuffer for the effect stage, which spans the same columns as the rectangle.
+     *
+     * Every band writes to its own cells of the frame and only reads the Layer stack, which doesn't change while a frame is being drawn.
+     * That only holds because a FrameBuffer (like an EffectBuffer) keeps every cell in plain arrays of its own. Bands must never write into a Layer,
+     * whose storages pack neighbouring cells together (like PackedCellStorage's occupancy bits), so that two bands would overwrite each other's cells.
+     */
+    private class ComposeBandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final EffectBuffer buffer; //Null to compose into the frame
+        private final int startIndex;
+        private final int left;
+        private final int top;
+        private final int right;
+        private final int bottom;
+
+        private ComposeBandTask(EffectBuffer buffer, int startIndex, int left, int top, int right, int bottom){
+            this.buffer = buffer;
+            this.startIndex = startIndex;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = bottom - top;
+            if (rows <= 1 || rows * (right - left) <= BAND_CELLS) {
+                if (buffer == null)
+                    composeArea(left, top, right, bottom);
+                else
+                    composeRows(buffer, startIndex, top, bottom);
+                return;
+            }
+            int middle = top + rows / 2;
+            invokeAll(new ComposeBandTask(buffer, startIndex, left, top, right, middle), new ComposeBandTask(buffer, startIndex, left, middle, right, bottom));
+        }
     }
 
     /**
-     * Takes all the Layers in the Layer stack and 'compresses' them into ont Layer, which represents a fully rendered screen.
+     * Drains the damage of every Layer in the stack and translates it onto the screen.
      *
-     * @param targetResolution The screen resolution to draw to.
-     * @return The Layer that represents a screen.
+     * A Layer that moved, resized, or changed visibility damages both the screen area it used to cover and the area it covers now.
+     * Animated Layers damage their whole area every frame.
      */
-    private Layer compileLayers(Dimension targetResolution){
-        isDrawingFrame = true;
-        frameStartUpdate();
-        sleep(FRAMEUPDATE_LISTENER_PERIOD);
-        long startTime = System.nanoTime();
-        processLayerOperationBuffer();
-        Layer finalResult = new Layer(new SpecialText[(int)targetResolution.getWidth()][(int)targetResolution.getHeight()], "final", 0, 0);
-        for (int col = 0; col < finalResult.getCols(); col++){
-            for (int row = 0; row < finalResult.getRows(); row++){
-                SpecialText text = projectSpecialTextToScreen(col, row, layerStack.size()-1);
-                finalResult.editLayer(col, row, text);
+    private void collectLayerDamage(){
+        if (stackChanged)
+            layerFootprints.clear(); //The whole screen gets redrawn anyways, and this drops Layers that left the stack.
+        for (Layer layer : frameStack){
+            layerDamage.clear();
+            boolean geometryChanged = layer.drainDamage(layerDamage);
+            int screenX = layer.getX() - ((layer.fixedScreenPos) ? 0 : frameCamX);
+            int screenY = layer.getY() - ((layer.fixedScreenPos) ? 0 : frameCamY);
+            int[] footprint = layerFootprints.get(layer);
+            if (footprint == null || geometryChanged || layer.isAnimated()){
+                if (footprint != null)
+                    frameDamage.add(footprint[0], footprint[1], footprint[2], footprint[3]);
+                if (layer.getVisible())
+                    frameDamage.add(screenX, screenY, layer.getCols(), layer.getRows());
+            } else if (layer.getVisible()) {
+                frameDamage.addAll(layerDamage, screenX, screenY);
+            }
+            if (layer.getVisible()){
+                if (footprint == null){
+                    footprint = new int[4];
+                    layerFootprints.put(layer, footprint);
+                }
+                footprint[0] = screenX;
+                footprint[1] = screenY;
+                footprint[2] = layer.getCols();
+                footprint[3] = layer.getRows();
+            } else if (footprint != null) {
+                layerFootprints.remove(layer);
             }
         }
-        finalResult.convertNullToOpaque();
-        previousCompileTime = System.nanoTime() - startTime;
-        isDrawingFrame = false;
-        frameEndUpdate();
-        previousDrawTimestamp = System.nanoTime();
-        return finalResult;
     }
 
     /**
      * Iterates through the Layer stack and returns a SpecialText for a specific screen coordinate.
-     *
-     * Some notable features:
-     *   * (Foreground + Text) and Background run on separate channels within the same for loop
+     * Only Layers found on screen when the current (or latest) frame started are looked at.
      *
      * @param screenX The x coordinate of the screen to project to
      * @param screenY The y coordinate of the screen to project to.
-     * @return The array of colors.
+     * @param startPos The position in the Layer stack to start from. Layers above it are ignored.
+     * @return The composed SpecialText
      */
     public SpecialText projectSpecialTextToScreen(int screenX, int screenY, int startPos){
+        int startIndex = culledCount - 1;
+        while (startIndex >= 0 && culledPositions[startIndex] > startPos) //Layers calling this are themselves culled, and the one beneath is almost always next
+            startIndex--;
+        long cell = composeCell(screenX, screenY, startIndex);
+        return new SpecialText(cellChar(cell), cellFgArgb(cell), cellBkgArgb(cell));
+    }
+
+    /*
+     * A composed cell, packed into a long so that composing can return it without creating anything:
+     *
+     * bits 48-63 : The character
+     * bits 24-47 : The font color, as RGB
+     * bits 0-23  : The background color, as RGB
+     *
+     * Composed colors are always opaque, so there is no need to store their alpha.
+     */
+    private static char cellChar(long cell) { return (char)(cell >>> 48); }
+
+    private static int cellFgArgb(long cell) { return 0xFF000000 | (int)(cell >>> 24) & 0xFFFFFF; }
+
+    private static int cellBkgArgb(long cell) { return 0xFF000000 | (int)cell & 0xFFFFFF; }
+
+    /**
+     * Iterates through the culled Layer stack and composes a specific screen coordinate.
+     *
+     * Some notable features:
+     *   * (Foreground + Text) and Background run on separate channels within the same for loop
+     *   * Layers whose screen rectangle doesn't contain the cell are skipped with four integer compares
+     *   * Plain Layers are read straight out of their storage. Only Layers overriding provideTextForDisplay() go through SpecialTexts.
+     *   * LayerEffects are read out of the output of the effect stage
+     *
+     * @param startIndex The index into the culled Layers to start from. Layers above it are ignored.
+     * @return The composed cell, packed as described above
+     */
+    private long composeCell(int screenX, int screenY, int startIndex){
         char text = ' ';
         boolean textFound = false;
-        int[] fgColor = new int[3];
-        int[] bgColor = new int[3];
-        double alphaSum = 0; //Alpha sum is on a 0-1 scale for easier math, and therefore cannot be incorporated into the bgColor array
+        int fgRed = 0, fgGreen = 0, fgBlue = 0;
+        int bgRed = 0, bgGreen = 0, bgBlue = 0;
+        double alphaSum = 0; //Alpha sum is on a 0-1 scale for easier math, and therefore cannot be incorporated into the background color
         double remainingAlpha = 1;
-        for (int ii = startPos; ii >= 0; ii--) { //Iteration runs backwards because the topmost layers must get processed first
-            Layer layer = layerStack.get(ii);
-            if (layer.getVisible()) { //Invisible layers are just skipped
-                SpecialText specTxt = getSpecialTextAtScreenCoord(screenX, screenY, layer, ii);
-                if (specTxt != null) {
-                    if (isSpecialTextOpaque(specTxt) && !textFound) { //The text "channel" of the display
-                        //An opaque character also counts if the char is ' ' but the background is a = 255. The text channel will stop here but luckily that's the behavior we want anyways.
-                        if (specTxt.getCharacter() != ' ') { //Don't do unnecessary calculations. If we stop at a blank character, font color is totally meaningless.
-                            fgColor[0] = Math.min(bgColor[0] + (int) (remainingAlpha * specTxt.getFgColor().getRed()), 255); //The translucent stuff above text should influence font color
-                            fgColor[1] = Math.min(bgColor[1] + (int) (remainingAlpha * specTxt.getFgColor().getGreen()), 255);
-                            fgColor[2] = Math.min(bgColor[2] + (int) (remainingAlpha * specTxt.getFgColor().getBlue()), 255);
-                        }
-                        text = specTxt.getCharacter();
-                        textFound = true;
-                    }
-                    if (specTxt.getBkgColor().getAlpha() > 0) { //The Background "channel"
-                        double percentAlpha = (double) specTxt.getBkgColor().getAlpha() / 255; //Alpha being reduced from range 0-255 to 0-1
-                        alphaSum += percentAlpha * remainingAlpha;
-                        bgColor[0] += (double) specTxt.getBkgColor().getRed() * percentAlpha * remainingAlpha;
-                        bgColor[1] += (double) specTxt.getBkgColor().getGreen() * percentAlpha * remainingAlpha;
-                        bgColor[2] += (double) specTxt.getBkgColor().getBlue() * percentAlpha * remainingAlpha;
-                        remainingAlpha *= (1 - percentAlpha);
+        Layer[] layers = culledLayers;
+        int[] bounds = culledBounds;
+        LayerEffect[] effects = culledEffects;
+        for (int ii = startIndex; ii >= 0; ii--) { //Iteration runs backwards because the topmost layers must get processed first
+            int left = bounds[ii * 4];
+            int top = bounds[ii * 4 + 1];
+            if (screenX >= left && screenY >= top && screenX < bounds[ii * 4 + 2] && screenY < bounds[ii * 4 + 3]) {
+                Layer layer = layers[ii];
+                int layerX = screenX - left;
+                int layerY = screenY - top;
+                char c;
+                int fgArgb;
+                int bkgArgb;
+                if (effects[ii] != null) {
+                    EffectBuffer output = effectOutputs[ii];
+                    if (!output.contains(screenX, screenY))
+                        output = applyEffectAt(ii, screenX, screenY);
+                    c = output.getChar(screenX, screenY);
+                    fgArgb = output.getFgArgb(screenX, screenY);
+                    bkgArgb = output.getBkgArgb(screenX, screenY);
+                } else if (layer.hasCustomDisplay()) {
+                    SpecialText specTxt = getSpecialTextAtScreenCoord(screenX, screenY, layerX, layerY, layer, culledPositions[ii]);
+                    if (specTxt == null) continue;
+                    c = specTxt.getCharacter();
+                    fgArgb = specTxt.getFgArgb();
+                    bkgArgb = specTxt.getBkgArgb();
+                } else {
+                    if (layer.isCellEmpty(layerX, layerY)) continue;
+                    c = layer.getCharAt(layerX, layerY);
+                    fgArgb = layer.getFgArgbAt(layerX, layerY);
+                    bkgArgb = layer.getBkgArgbAt(layerX, layerY);
+                }
+                int bkgAlpha = bkgArgb >>> 24;
+                if (bkgAlpha == 255 && !textFound && remainingAlpha == 1) //Nothing above shows through an opaque cell, so there's nothing to blend. Effect outputs always land here.
+                    return ((long)c << 48) | ((long)((c != ' ') ? fgArgb & 0xFFFFFF : 0) << 24) | (bkgArgb & 0xFFFFFF);
+                if (!textFound && !(c == ' ' && bkgAlpha != 255)) { //The text "channel" of the display
+                    //An opaque character also counts if the char is ' ' but the background is a = 255. The text channel will stop here but luckily that's the behavior we want anyways.
+                    if (c != ' ') { //Don't do unnecessary calculations. If we stop at a blank character, font color is totally meaningless.
+                        fgRed = Math.min(bgRed + (int) (remainingAlpha * ((fgArgb >> 16) & 0xFF)), 255); //The translucent stuff above text should influence font color
+                        fgGreen = Math.min(bgGreen + (int) (remainingAlpha * ((fgArgb >> 8) & 0xFF)), 255);
+                        fgBlue = Math.min(bgBlue + (int) (remainingAlpha * (fgArgb & 0xFF)), 255);
                     }
+                    text = c;
+                    textFound = true;
+                }
+                if (bkgAlpha > 0) { //The Background "channel"
+                    double percentAlpha = (double) bkgAlpha / 255; //Alpha being reduced from range 0-255 to 0-1
+                    alphaSum += percentAlpha * remainingAlpha;
+                    bgRed += (double) ((bkgArgb >> 16) & 0xFF) * percentAlpha * remainingAlpha;
+                    bgGreen += (double) ((bkgArgb >> 8) & 0xFF) * percentAlpha * remainingAlpha;
+                    bgBlue += (double) (bkgArgb & 0xFF) * percentAlpha * remainingAlpha;
+                    remainingAlpha *= (1 - percentAlpha);
                 }
                 if (alphaSum >= 1)
                     break;
             }
         }
-        return new SpecialText(text, new Color(fgColor[0], fgColor[1], fgColor[2]), new Color(bgColor[0], bgColor[1], bgColor[2]));
+        return ((long)text << 48) | ((long)((fgRed << 16) | (fgGreen << 8) | fgBlue) << 24) | ((bgRed << 16) | (bgGreen << 8) | bgBlue);
     }
 
     /**
-     * Gets the SpecialText of a Layer corresponding to a screen coordinate.
+     * Gets the SpecialText of a Layer corresponding to a screen coordinate, for Layers that override provideTextForDisplay().
      *
      * @param screenX The screen x coordinate to target
      * @param screenY The screen y coordinate to target
+     * @param layerX The x coordinate within the layer, accounting Layer location, camera location, and layer being fixed onto the screen.
+     * @param layerY The y coordinate within the layer
      * @param layer The layer to draw from
-     * @return The SpecialText from the layer, accounting Layer location, camera location, and layer being fixed onto the screen.
+     * @return The SpecialText from the layer, or null if there is none.
      */
-    private SpecialText getSpecialTextAtScreenCoord(int screenX, int screenY, Layer layer, int pos){
-        Coordinate layerPos = new Coordinate(screenX - layer.getX(), screenY - layer.getY());
-        if (!layer.fixedScreenPos) layerPos = layerPos.add(new Coordinate(camX, camY));
-        if (layer.isLayerLocInvalid(layerPos))
+    private SpecialText getSpecialTextAtScreenCoord(int screenX, int screenY, int layerX, int layerY, Layer layer, int pos){
+        if (layer.isLayerLocInvalid(layerX, layerY))
             return null;
-        return layer.provideTextForDisplay(this, layerPos, new Coordinate(screenX, screenY), pos);
-    }
-
-    private boolean isSpecialTextOpaque(SpecialText text) {
-        return text != null && !(text.getCharacter() == ' ' && (text.getBkgColor() == null || text.getBkgColor().getAlpha() != 255));
+        return layer.provideTextForDisplay(this, new Coordinate(layerX, layerY), new Coordinate(screenX, screenY), pos);
     }
 
     public void printLayerStack(){
         System.out.println("LAYERS: \n");
-        for (Layer layer : layerStack){
+        for (Layer layer : layerStack.snapshot()){
             System.out.println(layer.getName());
         }
     }
-
-    private void sleep(long millis){
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private interface LayerOperation{
-        void doOperation();
-    }
 }
@@ -0,0 +1,68 @@
+package com.discordvtt.Engine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+class LayerOperationQueue {
+
+    /**
+     * LayerOperationQueue:
+     *
+     * Changes to a LayerManager's Layer stack, waiting to be made. Any number of threads may add operations, while one thread at a time runs them.
+     *
+     * The queue is a linked list pushed onto with compareAndSet, so adding never blocks or locks, no matter how many threads are adding at once.
+     * Running takes the whole list in a single getAndSet, then runs it oldest first. Operations added meanwhile wait for the next run.
+     *
+     * Adding an operation happens-before running it, so whatever a thread did before adding (like filling in a new Layer) is seen by the operation.
+     */
+
+    private static final class Node {
+        private final Runnable operation;
+        private Node next; //The operation added before this one
+
+        private Node(Runnable operation){
+            this.operation = operation;
+        }
+    }
+
+    private final AtomicReference<Node> newest = new AtomicReference<>();
+
+    void add(Runnable operation){
+        Node node = new Node(operation);
+        Node previous;
+        do {
+            previous = newest.get();
+            node.next = previous;
+        } while (!newest.compareAndSet(previous, node));
+    }
+
+    boolean isEmpty(){
+        return newest.get() == null;
+    }
+
+    /**
+     * Runs every operation added so far, in the order they were added. An operation that throws is reported and skipped, and the rest still run.
+     * Must not be called by two threads at once.
+     *
+     * @return How many operations were run
+     */
+    int runAll(){
+        Node node = newest.getAndSet(null);
+        Node oldest = null;
+        while (node != null){ //The list runs newest to oldest, so it's reversed first
+            Node next = node.next;
+            node.next = oldest;
+            oldest = node;
+            node = next;
+        }
+        int count = 0;
+        for (node = oldest; node != null; node = node.next){
+            try {
+                node.operation.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            count++;
+        }
+        return count;
+    }
+}
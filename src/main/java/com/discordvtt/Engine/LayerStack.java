@@ -0,0 +1,115 @@
+package com.discordvtt.Engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.TreeMap;
+
+class LayerStack {
+
+    /**
+     * LayerStack:
+     *
+     * The LayerManager's Layers, kept in the order they're drawn in: by importance, and among Layers of equal importance, by when they were added (newer ones on top).
+     *
+     * Every Layer gets a key of its importance in the upper 32 bits and an ever-increasing insertion count in the lower 32, and the Layers are kept sorted by key.
+     * On top of that, Layers are indexed by name (several Layers may share one) and by identity. Adding and removing are O(log n), and finding by name is O(1).
+     *
+     * Reading the whole stack, as the compositor does every frame, goes through an array snapshot that is only rebuilt after the stack changes.
+     *
+     * A Layer's importance is read once, when it's added. Changing it afterwards has no effect until the Layer is added again.
+     *
+     * Any thread may read the stack. Changes are made by the LayerManager's render thread, between frames.
+     */
+
+    private static final Layer[] EMPTY = new Layer[0];
+
+    private final TreeMap<Long, Layer> ordered = new TreeMap<>();
+    private final HashMap<String, ArrayList<Long>> keysByName = new HashMap<>();
+    private final IdentityHashMap<Layer, Long> keysByLayer = new IdentityHashMap<>();
+    private int insertionCount = 0;
+
+    private volatile Layer[] snapshot = EMPTY; //Null when the stack changed since the last snapshot
+
+    /**
+     * Adds a Layer above every Layer of lesser or equal importance. A Layer that's already in the stack is moved to where it would be added now.
+     */
+    synchronized void add(Layer layer){
+        remove(layer);
+        long key = ((long)layer.getImportance() << 32) | (insertionCount++ & 0xFFFFFFFFL);
+        ordered.put(key, layer);
+        keysByName.computeIfAbsent(layer.getName(), name -> new ArrayList<>(1)).add(key);
+        keysByLayer.put(layer, key);
+        snapshot = null;
+    }
+
+    /**
+     * @return Whether the Layer was in the stack
+     */
+    synchronized boolean remove(Layer layer){
+        Long key = keysByLayer.remove(layer);
+        if (key == null) return false;
+        ordered.remove(key);
+        ArrayList<Long> named = keysByName.get(layer.getName());
+        named.remove(key);
+        if (named.isEmpty()) keysByName.remove(layer.getName());
+        snapshot = null;
+        return true;
+    }
+
+    /**
+     * @return Every Layer of that name that was in the stack, bottom to top
+     */
+    synchronized ArrayList<Layer> removeNamed(String name){
+        ArrayList<Long> keys = keysByName.remove(name);
+        ArrayList<Layer> removed = new ArrayList<>((keys == null) ? 0 : keys.size());
+        if (keys == null) return removed;
+        keys.sort(null);
+        for (Long key : keys){
+            Layer layer = ordered.remove(key);
+            keysByLayer.remove(layer);
+            removed.add(layer);
+        }
+        snapshot = null;
+        return removed;
+    }
+
+    /**
+     * @return The bottommost Layer with that name, or null if there is none
+     */
+    synchronized Layer getFirst(String name){
+        ArrayList<Long> keys = keysByName.get(name);
+        if (keys == null) return null;
+        long lowest = Long.MAX_VALUE;
+        for (Long key : keys)
+            lowest = Math.min(lowest, key);
+        return ordered.get(lowest);
+    }
+
+    /**
+     * @return Every Layer that was in the stack, bottom to top
+     */
+    synchronized Layer[] clear(){
+        Layer[] removed = snapshot();
+        ordered.clear();
+        keysByName.clear();
+        keysByLayer.clear();
+        insertionCount = 0;
+        snapshot = EMPTY;
+        return removed;
+    }
+
+    /**
+     * @return The Layers bottom to top. The array is shared, and must not be changed.
+     */
+    Layer[] snapshot(){
+        Layer[] layers = snapshot;
+        if (layers != null) return layers;
+        synchronized (this) {
+            if (snapshot == null) snapshot = ordered.values().toArray(EMPTY);
+            return snapshot;
+        }
+    }
+
+    int size() { return snapshot().length; }
+}
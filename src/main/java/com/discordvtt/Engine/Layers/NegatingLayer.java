@@ -1,14 +1,11 @@
 package com.discordvtt.Engine.Layers;
 
-import com.discordvtt.Data.Coordinate;
 import com.discordvtt.Data.SerializationVersion;
+import com.discordvtt.Engine.EffectBuffer;
 import com.discordvtt.Engine.Layer;
-import com.discordvtt.Engine.LayerManager;
-import com.discordvtt.Engine.SpecialText;
+import com.discordvtt.Engine.LayerEffect;
 
-import java.awt.*;
-
-public class NegatingLayer extends Layer {
+public class NegatingLayer extends Layer implements LayerEffect {
 
     private static final long serialVersionUID = SerializationVersion.SERIALIZATION_VERSION;
 
@@ -17,14 +14,15 @@ public class NegatingLayer extends Layer {
     }
 
     @Override
-    public SpecialText provideTextForDisplay(LayerManager lm, Coordinate layerPos, Coordinate screenPos, int position) {
-        SpecialText beneath = lm.projectSpecialTextToScreen(screenPos.getX(), screenPos.getY(), position - 1);
-        Color rawFg = beneath.getFgColor();
-        Color rawBg = beneath.getBkgColor();
-        return new SpecialText ( //This formatting is totally non-standard, but in this case I think it makes it easier to read.
-                beneath.getCharacter(),
-                new Color(255 - rawFg.getRed(), 255 - rawFg.getGreen(), 255 - rawFg.getBlue()),
-                new Color(255 - rawBg.getRed(), 255 - rawBg.getGreen(), 255 - rawBg.getBlue())
-        );
+    public int getHorizontalReach() {
+        return 0;
+    }
+
+    @Override
+    public void apply(EffectBuffer beneath, EffectBuffer out) {
+        int width = out.getRight() - out.getLeft();
+        int height = out.getBottom() - out.getTop();
+        out.copyArea(beneath, out.getLeft(), out.getTop(), width, height);
+        out.invertColors(out.getLeft(), out.getTop(), width, height); //Keeps the characters, and flips both the font and background colors
     }
 }
@@ -1,15 +1,16 @@
 package com.discordvtt.Engine.Layers;
 
-import com.discordvtt.Data.Coordinate;
 import com.discordvtt.Data.SerializationVersion;
+import com.discordvtt.Engine.EffectBuffer;
 import com.discordvtt.Engine.Layer;
-import com.discordvtt.Engine.LayerManager;
-import com.discordvtt.Engine.SpecialText;
+import com.discordvtt.Engine.LayerEffect;
 
-public class ShakingLayer extends Layer {
+public class ShakingLayer extends Layer implements LayerEffect {
 
     private static final long serialVersionUID = SerializationVersion.SERIALIZATION_VERSION;
 
+    private static final long SHAKE_FRAME_LENGTH = 50000000L; //How long (in ns) each frame of the shake animation lasts
+
     int[] shakeAnimation;
     float currentFrame = 0;
 
@@ -19,10 +20,30 @@ public class ShakingLayer extends Layer {
     }
 
     @Override
-    public SpecialText provideTextForDisplay(LayerManager lm, Coordinate layerPos, Coordinate screenPos, int position) {
-        currentFrame += 0.04;
-        if (currentFrame >= shakeAnimation.length) currentFrame = 0;
-        int multiplier = (screenPos.getY() % 2 == 0) ? -1 : 1; //The shaking should zig-zag between display rows.
-        return lm.projectSpecialTextToScreen(screenPos.getX() + (shakeAnimation[(int)currentFrame] * multiplier), screenPos.getY(), position - 1);
+    public boolean isAnimated() {
+        return true;
+    }
+
+    @Override
+    public void prepareFrame() {
+        currentFrame = (System.nanoTime() / SHAKE_FRAME_LENGTH) % shakeAnimation.length; //Tied to the clock, so it shakes at the same speed no matter the frame rate
+    }
+
+    @Override
+    public int getHorizontalReach() {
+        int reach = 0;
+        for (int offset : shakeAnimation)
+            reach = Math.max(reach, Math.abs(offset));
+        return reach;
+    }
+
+    @Override
+    public void apply(EffectBuffer beneath, EffectBuffer out) {
+        int offset = shakeAnimation[(int)currentFrame];
+        int width = out.getRight() - out.getLeft();
+        for (int row = out.getTop(); row < out.getBottom(); row++){
+            int multiplier = (row % 2 == 0) ? -1 : 1; //The shaking should zig-zag between display rows.
+            out.copyRow(beneath, out.getLeft() + (offset * multiplier), row, out.getLeft(), row, width);
+        }
     }
 }
@@ -0,0 +1,163 @@
+package com.discordvtt.Engine;
+
+import java.util.Arrays;
+
+class PackedCellStorage extends CellStorage {
+
+    /**
+     * PackedCellStorage:
+     *
+     * A CellStorage that keeps every cell in flat primitive arrays instead of one SpecialText (and two Colors) per cell.
+     *
+     * It contains:
+     *  > glyphs   : The character of each cell
+     *  > fgColors : The font color of each cell, packed as ARGB
+     *  > bkgColors: The background color of each cell, packed as ARGB
+     *  > occupied : A bitset marking which cells actually hold something. A cleared bit is what used to be a null SpecialText.
+     *
+     * Cells are laid out row by row (index = row * cols + col), so walking across a row of the screen walks straight through memory.
+     *
+     * The occupancy bits of 64 cells share a long, and the words don't line up with rows, so two threads must never write cells at the same time, even different ones.
+     */
+
+    private final int cols;
+    private final int rows;
+
+    private final char[] glyphs;
+    private final int[] fgColors;
+    private final int[] bkgColors;
+    private final long[] occupied;
+
+    PackedCellStorage(int cols, int rows){
+        this.cols = cols;
+        this.rows = rows;
+        int size = cols * rows;
+        glyphs = new char[size];
+        fgColors = new int[size];
+        bkgColors = new int[size];
+        occupied = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Packs a SpecialText matrix, in the form matrix[col][row], into a new storage.
+     */
+    static PackedCellStorage fromMatrix(SpecialText[][] matrix){
+        int cols = matrix.length;
+        int rows = (cols > 0) ? matrix[0].length : 0;
+        PackedCellStorage storage = new PackedCellStorage(cols, rows);
+        for (int col = 0; col < cols; col++){
+            for (int row = 0; row < rows; row++){
+                if (matrix[col][row] != null) storage.set(col, row, matrix[col][row]);
+            }
+        }
+        return storage;
+    }
+
+    private int index(int col, int row) { return row * cols + col; }
+
+    @Override
+    int getCols() { return cols; }
+
+    @Override
+    int getRows() { return rows; }
+
+    @Override
+    boolean isEmpty(int col, int row) {
+        int index = index(col, row);
+        return (occupied[index >>> 6] & (1L << index)) == 0;
+    }
+
+    @Override
+    char getChar(int col, int row) { return glyphs[index(col, row)]; }
+
+    @Override
+    int getFgArgb(int col, int row) { return fgColors[index(col, row)]; }
+
+    @Override
+    int getBkgArgb(int col, int row) { return bkgColors[index(col, row)]; }
+
+    @Override
+    boolean set(int col, int row, char c, int fgArgb, int bkgArgb) {
+        int index = index(col, row);
+        glyphs[index] = c;
+        fgColors[index] = fgArgb;
+        bkgColors[index] = bkgArgb;
+        occupied[index >>> 6] |= (1L << index);
+        return true;
+    }
+
+    @Override
+    void clear(int col, int row) {
+        int index = index(col, row);
+        glyphs[index] = 0;
+        fgColors[index] = 0;
+        bkgColors[index] = 0;
+        occupied[index >>> 6] &= ~(1L << index);
+    }
+
+    @Override
+    void clearAll() {
+        Arrays.fill(glyphs, (char)0);
+        Arrays.fill(fgColors, 0);
+        Arrays.fill(bkgColors, 0);
+        Arrays.fill(occupied, 0);
+    }
+
+    @Override
+    boolean fill(SpecialText text) {
+        if (text == null) {
+            clearAll();
+            return true;
+        }
+        Arrays.fill(glyphs, text.getCharacter());
+        Arrays.fill(fgColors, text.getFgArgb());
+        Arrays.fill(bkgColors, text.getBkgArgb());
+        Arrays.fill(occupied, -1L);
+        int extraBits = occupied.length * 64 - glyphs.length; //The last word of the bitset may reach past the last cell, and those bits must stay clear.
+        if (extraBits > 0) occupied[occupied.length - 1] >>>= extraBits;
+        return true;
+    }
+
+    @Override
+    CellStorage copy() {
+        PackedCellStorage copy = new PackedCellStorage(cols, rows);
+        System.arraycopy(glyphs, 0, copy.glyphs, 0, glyphs.length);
+        System.arraycopy(fgColors, 0, copy.fgColors, 0, fgColors.length);
+        System.arraycopy(bkgColors, 0, copy.bkgColors, 0, bkgColors.length);
+        System.arraycopy(occupied, 0, copy.occupied, 0, occupied.length);
+        return copy;
+    }
+
+    @Override
+    CellStorage createEmpty(int cols, int rows) {
+        return new PackedCellStorage(cols, rows);
+    }
+
+    @Override
+    boolean copyFrom(CellStorage other, int offsetX, int offsetY) {
+        if (!(other instanceof PackedCellStorage))
+            return super.copyFrom(other, offsetX, offsetY);
+        //Same layout on both ends, so whole row segments can be moved at once.
+        PackedCellStorage packed = (PackedCellStorage)other;
+        int startCol = Math.max(0, -offsetX);
+        int endCol = Math.min(packed.cols, cols - offsetX);
+        if (startCol >= endCol) return true;
+        for (int row = 0; row < packed.rows; row++){
+            int y = row + offsetY;
+            if (y < 0 || y >= rows) continue;
+            int from = packed.index(startCol, row);
+            int to = index(startCol + offsetX, y);
+            int length = endCol - startCol;
+            System.arraycopy(packed.glyphs, from, glyphs, to, length);
+            System.arraycopy(packed.fgColors, from, fgColors, to, length);
+            System.arraycopy(packed.bkgColors, from, bkgColors, to, length);
+            for (int i = 0; i < length; i++){
+                if ((packed.occupied[(from + i) >>> 6] & (1L << (from + i))) != 0)
+                    occupied[(to + i) >>> 6] |= (1L << (to + i));
+                else
+                    occupied[(to + i) >>> 6] &= ~(1L << (to + i));
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package com.discordvtt.Engine;
+
+import java.util.Arrays;
+
+class PaletteCellStorage extends CellStorage {
+
+    /**
+     * PaletteCellStorage:
+     *
+     * A CellStorage that keeps a single short per cell: the index of that cell's SpecialText in the SpecialTextPalette.
+     * An index of zero is an empty cell.
+     *
+     * This is the cheapest storage for maps, since they only ever use a handful of SpecialTexts over and over.
+     * Reading a cell hands out the palette's SpecialText directly, and comparing two cells is just comparing two indices.
+     *
+     * Cells are laid out row by row (index = row * cols + col).
+     */
+
+    private final int cols;
+    private final int rows;
+
+    private final short[] cells;
+
+    PaletteCellStorage(int cols, int rows){
+        this.cols = cols;
+        this.rows = rows;
+        cells = new short[cols * rows];
+    }
+
+    private int paletteIndex(int col, int row) { return cells[row * cols + col] & 0xFFFF; }
+
+    @Override
+    int getCols() { return cols; }
+
+    @Override
+    int getRows() { return rows; }
+
+    @Override
+    boolean isEmpty(int col, int row) {
+        return cells[row * cols + col] == SpecialTextPalette.EMPTY_INDEX;
+    }
+
+    @Override
+    char getChar(int col, int row) { return SpecialTextPalette.get(paletteIndex(col, row)).getCharacter(); }
+
+    @Override
+    int getFgArgb(int col, int row) { return SpecialTextPalette.get(paletteIndex(col, row)).getFgArgb(); }
+
+    @Override
+    int getBkgArgb(int col, int row) { return SpecialTextPalette.get(paletteIndex(col, row)).getBkgArgb(); }
+
+    @Override
+    SpecialText get(int col, int row) {
+        return SpecialTextPalette.get(paletteIndex(col, row));
+    }
+
+    @Override
+    boolean set(int col, int row, char c, int fgArgb, int bkgArgb) {
+        int index = SpecialTextPalette.indexOf(c, fgArgb, bkgArgb);
+        if (index < 0) return false;
+        cells[row * cols + col] = (short)index;
+        return true;
+    }
+
+    @Override
+    boolean set(int col, int row, SpecialText text) {
+        int index = SpecialTextPalette.indexOf(text);
+        if (index < 0) return false;
+        cells[row * cols + col] = (short)index;
+        return true;
+    }
+
+    @Override
+    void clear(int col, int row) {
+        cells[row * cols + col] = SpecialTextPalette.EMPTY_INDEX;
+    }
+
+    @Override
+    void clearAll() {
+        Arrays.fill(cells, (short)SpecialTextPalette.EMPTY_INDEX);
+    }
+
+    @Override
+    boolean fill(SpecialText text) {
+        int index = SpecialTextPalette.indexOf(text);
+        if (index < 0) return false;
+        Arrays.fill(cells, (short)index);
+        return true;
+    }
+
+    @Override
+    boolean matches(int col, int row, SpecialText text) {
+        return paletteIndex(col, row) == SpecialTextPalette.find(text);
+    }
+
+    @Override
+    Layer.CellMatcher matcherFor(SpecialText text) {
+        int target = SpecialTextPalette.find(text);
+        if (target < 0) return (col, row) -> false; //Not in the palette, so no cell can possibly hold it
+        short packedTarget = (short)target;
+        return (col, row) -> cells[row * cols + col] == packedTarget;
+    }
+
+    @Override
+    CellStorage copy() {
+        PaletteCellStorage copy = new PaletteCellStorage(cols, rows);
+        System.arraycopy(cells, 0, copy.cells, 0, cells.length);
+        return copy;
+    }
+
+    @Override
+    CellStorage createEmpty(int cols, int rows) {
+        return new PaletteCellStorage(cols, rows);
+    }
+
+    @Override
+    boolean copyFrom(CellStorage other, int offsetX, int offsetY) {
+        if (!(other instanceof PaletteCellStorage))
+            return super.copyFrom(other, offsetX, offsetY);
+        PaletteCellStorage palette = (PaletteCellStorage)other;
+        int startCol = Math.max(0, -offsetX);
+        int endCol = Math.min(palette.cols, cols - offsetX);
+        if (startCol >= endCol) return true;
+        for (int row = 0; row < palette.rows; row++){
+            int y = row + offsetY;
+            if (y < 0 || y >= rows) continue;
+            System.arraycopy(palette.cells, row * palette.cols + startCol, cells, y * cols + startCol + offsetX, endCol - startCol);
+        }
+        return true;
+    }
+}
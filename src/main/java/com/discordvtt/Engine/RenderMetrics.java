@@ -0,0 +1,229 @@
+package com.discordvtt.Engine;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RenderMetrics implements RenderMetricsMBean {
+
+    /**
+     * RenderMetrics:
+     *
+     * Keeps track of how long each stage of drawing a frame takes, in a LatencyHistogram per stage:
+     *  > listenerStart : Running the FrameUpdateListeners' frame start operations, up to the deadline the frame waits for them before going ahead
+     *  > operations    : Adding and removing Layers from the stack
+     *  > compose       : Composing the damaged parts of the screen
+     *  > paint         : The ViewWindow painting the composed frame (on the Event Dispatch Thread)
+     *  > listenerEnd   : Handing the FrameUpdateListeners' frame end operations off to their threads (they aren't waited for)
+     *
+     * On top of that, it counts frames drawn and frames dropped (frame intervals that went by while a late frame was still being drawn; see RenderScheduler),
+     * measures frames per second, and tracks how many bytes the render thread allocates per frame.
+     * Allocations made on other threads, like by parallel composition, aren't counted; they're rare, since composing allocates nothing by design.
+     *
+     * Each LayerManager has its own, which it registers as an MBean under "com.discordvtt:type=RenderMetrics".
+     */
+
+    public static final int STAGE_LISTENER_START = 0;
+    public static final int STAGE_OPERATIONS = 1;
+    public static final int STAGE_COMPOSE = 2;
+    public static final int STAGE_PAINT = 3;
+    public static final int STAGE_LISTENER_END = 4;
+
+    private static final String[] STAGE_NAMES = {"listenerStart", "operations", "compose", "paint", "listenerEnd"};
+    private static final long FPS_WINDOW_NANOS = 1000000000L;
+
+    private static final AtomicInteger registeredCount = new AtomicInteger();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram allocatedBytes = new LatencyHistogram();
+    private final AtomicLong framesDrawn = new AtomicLong();
+    private final AtomicLong listenerOverruns = new AtomicLong();
+    private volatile RenderScheduler scheduler;
+    private ObjectName registeredName; //Null while not registered
+
+    //Frames per second is measured over windows of about a second. Only the render thread writes these.
+    private long fpsWindowStart = System.nanoTime();
+    private int fpsWindowFrames = 0;
+    private volatile double framesPerSecond = 0;
+    private volatile long lastFrameTime = 0;
+
+    private volatile int layerCount = 0;
+    private volatile int layersInView = 0;
+
+    RenderMetrics(){
+        for (int i = 0; i < stages.length; i++)
+            stages[i] = new LatencyHistogram();
+    }
+
+    /**
+     * @param scheduler Where to count dropped frames from. LayerManagers without a window have none, and never drop frames.
+     */
+    void setScheduler(RenderScheduler scheduler){
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Registers these metrics with the platform's MBean server, so that they can be watched over JMX. A failure is only logged.
+     *
+     * @param owner A name telling these metrics apart from those of other LayerManagers
+     */
+    synchronized void register(String owner){
+        if (registeredName != null) return;
+        try {
+            ObjectName name = new ObjectName("com.discordvtt:type=RenderMetrics,name=" + ObjectName.quote(owner + " " + registeredCount.incrementAndGet()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException | SecurityException e) {
+            System.out.printf("[RenderMetrics.register] Could not register render metrics over JMX: %1$s\n", e);
+        }
+    }
+
+    /**
+     * Takes these metrics back off of the MBean server, if they were registered. Otherwise the server would keep them (and so their LayerManager's name) around forever.
+     */
+    synchronized void unregister(){
+        if (registeredName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException | SecurityException e) {
+            System.out.printf("[RenderMetrics.unregister] Could not unregister render metrics: %1$s\n", e);
+        }
+        registeredName = null;
+    }
+
+    /**
+     * @param stage One of the STAGE_ constants
+     */
+    public void recordStage(int stage, long nanos){
+        stages[stage].record(nanos);
+    }
+
+    /**
+     * Counts a frame drawn, whether by the render thread or through LayerManager.composeNow().
+     *
+     * @param nanos How long the whole frame took
+     * @param allocated How many bytes the render thread allocated while drawing it, or a negative number if that isn't known
+     */
+    void recordFrame(long nanos, long allocated){
+        framesDrawn.incrementAndGet();
+        frameTimes.record(nanos);
+        if (allocated >= 0) allocatedBytes.record(allocated);
+        long now = System.nanoTime();
+        lastFrameTime = now;
+        fpsWindowFrames++;
+        if (now - fpsWindowStart >= FPS_WINDOW_NANOS){
+            framesPerSecond = fpsWindowFrames * 1e9 / (now - fpsWindowStart);
+            fpsWindowStart = now;
+            fpsWindowFrames = 0;
+        }
+    }
+
+    /**
+     * @param total How many Layers were in the stack for the latest frame
+     * @param inView How many of them were visible and overlapped the screen, and so were composed
+     */
+    void recordLayerCounts(int total, int inView){
+        layerCount = total;
+        layersInView = inView;
+    }
+
+    /**
+     * Counts a FrameUpdateListener that missed its deadline.
+     */
+    void recordListenerOverrun(){
+        listenerOverruns.incrementAndGet();
+    }
+
+    public LatencyHistogram getStage(int stage) { return stages[stage]; }
+
+    public LatencyHistogram getFrameTimes() { return frameTimes; }
+
+    public LatencyHistogram getAllocatedBytes() { return allocatedBytes; }
+
+    @Override
+    public long getFramesDrawn() { return framesDrawn.get(); }
+
+    @Override
+    public long getDroppedFrames(){
+        RenderScheduler scheduler = this.scheduler;
+        return (scheduler == null) ? 0 : scheduler.getSkippedFrames();
+    }
+
+    @Override
+    public double getFramesPerSecond(){
+        //Frames are only drawn when something changes, so an idle screen reads as 0 rather than whatever the rate was when it went idle
+        return (System.nanoTime() - lastFrameTime > 2 * FPS_WINDOW_NANOS) ? 0 : framesPerSecond;
+    }
+
+    @Override
+    public double getMeanAllocatedBytesPerFrame() { return allocatedBytes.getMean(); }
+
+    @Override
+    public long getListenerOverruns() { return listenerOverruns.get(); }
+
+    @Override
+    public int getLayerCount() { return layerCount; }
+
+    @Override
+    public int getLayersInView() { return layersInView; }
+
+    @Override
+    public String[] getStageSummaries(){
+        String[] summaries = new String[stages.length + 1];
+        for (int i = 0; i < stages.length; i++)
+            summaries[i] = summarize(STAGE_NAMES[i], stages[i]);
+        summaries[stages.length] = summarize("wholeFrame", frameTimes);
+        return summaries;
+    }
+
+    @Override
+    public double getStagePercentileMicros(String stage, double percentile){
+        if ("wholeFrame".equals(stage)) return frameTimes.getValueAtPercentile(percentile) / 1000.0;
+        for (int i = 0; i < STAGE_NAMES.length; i++)
+            if (STAGE_NAMES[i].equals(stage)) return stages[i].getValueAtPercentile(percentile) / 1000.0;
+        return -1;
+    }
+
+    @Override
+    public String dump(){
+        StringBuilder builder = new StringBuilder("[RenderMetrics]\n");
+        builder.append(String.format("  frames drawn: %1$d, dropped: %2$d, fps: %3$.1f, allocated per frame: %4$.0f bytes (max %5$d)\n",
+                getFramesDrawn(), getDroppedFrames(), getFramesPerSecond(), allocatedBytes.getMean(), allocatedBytes.getMax()));
+        builder.append(String.format("  layers: %1$d, in view: %2$d, frame listener overruns: %3$d\n", getLayerCount(), getLayersInView(), getListenerOverruns()));
+        for (String summary : getStageSummaries())
+            builder.append("  ").append(summary).append('\n');
+        String dump = builder.toString();
+        System.out.print(dump);
+        return dump;
+    }
+
+    @Override
+    public void reset(){
+        for (LatencyHistogram stage : stages) stage.reset();
+        frameTimes.reset();
+        allocatedBytes.reset();
+    }
+
+    private static String summarize(String name, LatencyHistogram histogram){
+        return String.format("%1$-13s n=%2$-8d mean=%3$.1fus p50=%4$.1fus p90=%5$.1fus p99=%6$.1fus max=%7$.1fus", name, histogram.getCount(),
+                histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getMax() / 1000.0);
+    }
+
+    /**
+     * @return How many bytes the current thread has allocated so far, or -1 if the JVM can't tell.
+     */
+    static long currentThreadAllocatedBytes(){
+        if (threads instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled())
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,52 @@
+package com.discordvtt.Engine;
+
+public interface RenderMetricsMBean {
+
+    /**
+     * RenderMetricsMBean:
+     *
+     * What RenderMetrics shows over JMX (in JConsole or VisualVM, for instance). Times are in microseconds.
+     */
+
+    long getFramesDrawn();
+
+    long getDroppedFrames();
+
+    double getFramesPerSecond();
+
+    double getMeanAllocatedBytesPerFrame();
+
+    /**
+     * @return How many times a FrameUpdateListener missed the deadline for the start of a frame
+     */
+    long getListenerOverruns();
+
+    /**
+     * @return How many Layers were in the stack, and how many of them were on screen, the last time a frame was composed
+     */
+    int getLayerCount();
+
+    int getLayersInView();
+
+    /**
+     * @return One line per render stage, with its count, mean, median, 90th and 99th percentiles, and max.
+     */
+    String[] getStageSummaries();
+
+    /**
+     * @param stage One of the stage names, as listed in the stage summaries
+     * @param percentile From 0 to 100
+     * @return The stage's time at that percentile, or -1 if there is no such stage
+     */
+    double getStagePercentileMicros(String stage, double percentile);
+
+    /**
+     * Prints everything to the console, and returns the same text.
+     */
+    String dump();
+
+    /**
+     * Starts every histogram over. Frame counts are kept.
+     */
+    void reset();
+}
@@ -0,0 +1,157 @@
+package com.discordvtt.Engine;
+
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RenderScheduler {
+
+    /**
+     * RenderScheduler:
+     *
+     * Draws frames only when something asks for one, instead of drawing on a fixed timer.
+     *
+     * Anything that changes what is on screen (editing a Layer, moving the camera, adding or removing a Layer) calls requestFrame().
+     * Requests that arrive before the next frame starts are coalesced into that one frame, and frames are paced so that no more than one is drawn per frame interval.
+     * By default the frame interval matches the display's refresh rate.
+     *
+     * When nothing is requested, the render thread just waits, costing nothing.
+     *
+     * It keeps a few counts around for diagnostics:
+     *  > framesDrawn       : How many frames were actually drawn
+     *  > framesRequested   : How many times requestFrame() was called
+     *  > coalescedRequests : How many of those requests were folded into a frame that was already requested
+     *  > skippedFrames     : How many frame intervals went by without a frame while one was wanted, because drawing the previous frame ran long
+     */
+
+    private static final int DEFAULT_FRAME_RATE = 60;
+
+    private final Runnable drawFrame;
+    private final Object lock = new Object();
+    private final Thread renderThread;
+
+    private volatile boolean frameRequested = false; //Only set while holding the lock, but read without it so repeated requests stay cheap
+    private volatile boolean running = true;
+
+    private long frameIntervalNanos;
+    private long previousFrameStart;
+
+    private final AtomicLong framesDrawn = new AtomicLong();
+    private final AtomicLong framesRequested = new AtomicLong();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    /**
+     * @param drawFrame The task that draws one frame. It is always run on the scheduler's own render thread.
+     * @param threadName The name of the render thread
+     */
+    RenderScheduler(Runnable drawFrame, String threadName){
+        this.drawFrame = drawFrame;
+        setTargetFrameRate(detectRefreshRate());
+        previousFrameStart = System.nanoTime() - frameIntervalNanos;
+        renderThread = new Thread(this::runLoop, threadName);
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    /**
+     * Asks for a frame to be drawn. Returns immediately; the frame is drawn on the render thread once the frame interval allows it.
+     * Calling this several times before the frame starts still only draws one frame.
+     */
+    public void requestFrame(){
+        framesRequested.incrementAndGet();
+        if (frameRequested) { //Editing a stroke of cells requests a frame per cell, so this path needs to stay lock-free
+            coalescedRequests.incrementAndGet();
+            return;
+        }
+        synchronized (lock) {
+            if (frameRequested) {
+                coalescedRequests.incrementAndGet();
+                return;
+            }
+            frameRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Sets the maximum number of frames drawn per second.
+     *
+     * @param framesPerSecond The frame rate to pace to. Values below 1 are treated as 1.
+     */
+    public void setTargetFrameRate(int framesPerSecond){
+        synchronized (lock) {
+            frameIntervalNanos = 1000000000L / Math.max(1, framesPerSecond);
+            lock.notifyAll();
+        }
+    }
+
+    public int getTargetFrameRate(){
+        synchronized (lock) {
+            return (int)Math.round(1000000000.0 / frameIntervalNanos);
+        }
+    }
+
+    /**
+     * Stops the render thread. Frames requested afterwards are never drawn.
+     */
+    public void stop(){
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    public long getFramesDrawn() { return framesDrawn.get(); }
+
+    public long getFramesRequested() { return framesRequested.get(); }
+
+    public long getCoalescedRequests() { return coalescedRequests.get(); }
+
+    public long getSkippedFrames() { return skippedFrames.get(); }
+
+    private void runLoop(){
+        while (running) {
+            try {
+                waitForFrame();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!running) return;
+            long frameStart = System.nanoTime();
+            try {
+                drawFrame.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace(); //A bad frame shouldn't take the render thread down with it
+            }
+            framesDrawn.incrementAndGet();
+            synchronized (lock) {
+                long frameLength = System.nanoTime() - frameStart;
+                if (frameRequested && frameLength > frameIntervalNanos)
+                    skippedFrames.addAndGet(frameLength / frameIntervalNanos); //Intervals that went by while a frame was waiting on this one
+            }
+        }
+    }
+
+    //Blocks until a frame is requested and the frame interval since the previous frame has passed.
+    private void waitForFrame() throws InterruptedException {
+        synchronized (lock) {
+            while (running && !frameRequested)
+                lock.wait();
+            long remaining;
+            while (running && (remaining = previousFrameStart + frameIntervalNanos - System.nanoTime()) > 0)
+                lock.wait(remaining / 1000000, (int)(remaining % 1000000));
+            frameRequested = false; //Anything requested from here on needs another frame
+            previousFrameStart = System.nanoTime();
+        }
+    }
+
+    private static int detectRefreshRate(){
+        try {
+            if (!GraphicsEnvironment.isHeadless()) {
+                int refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+                if (refreshRate != DisplayMode.REFRESH_RATE_UNKNOWN && refreshRate > 0) return refreshRate;
+            }
+        } catch (UnsupportedOperationException ignored) {}
+        return DEFAULT_FRAME_RATE;
+    }
+}
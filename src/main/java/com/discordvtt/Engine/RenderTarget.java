@@ -0,0 +1,23 @@
+package com.discordvtt.Engine;
+
+public interface RenderTarget {
+
+    /**
+     * RenderTarget:
+     *
+     * Somewhere a LayerManager's composed frames go. A LayerManager composes each frame once, and hands it to every one of its targets,
+     * so a window, an image, and a plain buffer of cells can all show the same frame for the cost of composing it once.
+     *
+     * Implementations:
+     *  > ViewWindow             : Repaints the window on screen
+     *  > ImageRenderTarget      : Paints the frame into an offscreen image
+     *  > CellBufferRenderTarget : Keeps a copy of the frame's cells in memory, such as for turning into text
+     */
+
+    /**
+     * Called on the thread composing the frame, right after it's done.
+     *
+     * @param frame The composed frame. It may be read freely during the call, but must not be held onto afterwards, since it gets reused for later frames.
+     */
+    void frameComposed(FrameBuffer frame);
+}
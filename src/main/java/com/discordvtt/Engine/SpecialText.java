@@ -23,21 +23,27 @@ public class SpecialText implements Serializable {
      *
      * In most application, the basic unit is a pixel.
      * The SpecialText is very similar to that, although much bigger [citation needed].
+     *
+     * SpecialTexts are immutable, which lets them be shared freely. SpecialText.intern() hands out the shared copy kept in the SpecialTextPalette.
      */
 
     private static final long serialVersionUID = SerializationVersion.SERIALIZATION_VERSION;
 
-    private char character;
-    private Color fgColor =  new Color(255, 255, 255, 255);
-    private Color bkgColor = new Color(0,   0,   0,   0);
+    private static final Color DEFAULT_FG_COLOR  = new Color(255, 255, 255, 255);
+    private static final Color DEFAULT_BKG_COLOR = new Color(0,   0,   0,   0);
+
+    private final char character;
+    private final Color fgColor;
+    private final Color bkgColor;
+
+    transient int paletteIndex = SpecialTextPalette.EMPTY_INDEX; //Set once this SpecialText is the palette's copy
 
     public SpecialText (char text) {
-        character = text;
+        this(text, DEFAULT_FG_COLOR, DEFAULT_BKG_COLOR);
     }
 
     public SpecialText (char text, Color fg){
-        character = text;
-        fgColor = fg;
+        this(text, fg, DEFAULT_BKG_COLOR);
     }
 
     public SpecialText (char text, Color fg, Color bg){
@@ -46,6 +52,24 @@ public class SpecialText implements Serializable {
         bkgColor = bg;
     }
 
+    public SpecialText (char text, int fgArgb, int bkgArgb){
+        this(text, new Color(fgArgb, true), new Color(bkgArgb, true));
+    }
+
+    /**
+     * @return The shared, interned SpecialText for a character and pair of colors.
+     */
+    public static SpecialText intern(char text, int fgArgb, int bkgArgb){
+        return SpecialTextPalette.intern(text, fgArgb, bkgArgb);
+    }
+
+    /**
+     * @return The shared, interned copy of this SpecialText.
+     */
+    public SpecialText intern(){
+        return SpecialTextPalette.intern(this);
+    }
+
     public char getCharacter() {
         return character;
     }
@@ -60,16 +84,28 @@ public class SpecialText implements Serializable {
         return bkgColor;
     }
 
+    public int getFgArgb() { return fgColor.getRGB(); }
+
+    public int getBkgArgb() { return bkgColor.getRGB(); }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) return false;
+        if (obj == this) return true;
         if (obj instanceof SpecialText){
             SpecialText text = (SpecialText)obj;
+            if (paletteIndex != SpecialTextPalette.EMPTY_INDEX && text.paletteIndex != SpecialTextPalette.EMPTY_INDEX)
+                return false; //Two different palette entries are never equal
             return text.getCharacter() == character && text.getFgColor().equals(fgColor) && text.getBkgColor().equals(bkgColor);
         }
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return SpecialTextPalette.hash(character, getFgArgb(), getBkgArgb());
+    }
+
     /**
      * Can be treated like equals(), except the comparison does not care for color alpha.
      *
@@ -82,7 +118,7 @@ public class SpecialText implements Serializable {
     }
 
     public SpecialText copy(){
-        return new SpecialText(character, fgColor, bkgColor);
+        return this; //Immutable, so there is nothing to copy
     }
 
     @Override
@@ -90,12 +126,6 @@ public class SpecialText implements Serializable {
         return String.format("|%1$c|[%2$03d,%3$03d,%4$03d,%5$03d],[%6$03d,%7$03d,%8$03d,%9$03d]", getCharacter(), fgColor.getRed(), fgColor.getGreen(), fgColor.getBlue(), fgColor.getAlpha(), bkgColor.getRed(), bkgColor.getGreen(), bkgColor.getBlue(), bkgColor.getAlpha());
     }
 
-    public void transpose(SpecialText text){
-        character = text.getCharacter();
-        fgColor = text.getFgColor();
-        bkgColor = text.getBkgColor();
-    }
-
     /**
      * Generates a SpecialText from the output of SpecialText.toString()
      *
@@ -115,4 +145,9 @@ public class SpecialText implements Serializable {
         int adj = (values.length > 8) ? 1 : 0; //If the text component of the SpecialText is a number, we need to shift over what numbers to look at.
         return new SpecialText(c, new Color(values[adj], values[1+adj], values[2+adj], values[3+adj]), new Color(values[4+adj], values[5+adj], values[6+adj], values[7+adj]));
     }
+
+    //Deserialized SpecialTexts are folded back into the palette, so a loaded map shares them like a freshly drawn one.
+    private Object readResolve() {
+        return intern();
+    }
 }
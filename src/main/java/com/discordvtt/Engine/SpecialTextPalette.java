@@ -0,0 +1,181 @@
+package com.discordvtt.Engine;
+
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class SpecialTextPalette {
+
+    /**
+     * SpecialTextPalette:
+     *
+     * A global registry of interned, immutable SpecialTexts.
+     *
+     * A map only ever uses a few dozen different character / color combinations, so instead of every brush stroke making its own SpecialText,
+     * each distinct combination is stored here exactly once and handed out by index. Layers in palette mode store those indices instead of references.
+     *
+     * Index 0 is reserved to mean "no SpecialText", so an index fits into an unsigned short (read it back with & 0xFFFF).
+     *
+     * Reading an entry by index or looking up a combination never locks, which lets the compositor and the storages look entries up from any thread.
+     * Only adding entries is synchronized. An entry is written into entries before its index is written into the hash table,
+     * so a reader that finds an index in the table is sure to find its entry too.
+     *
+     * The palette only ever grows, and lives as long as the program, so only cells that are actually stored in a Layer belong in it.
+     * Things made just for a moment, like the cells of a composed frame or a file's palette while it's read in, should use lookup() and plain SpecialTexts instead.
+     */
+
+    public static final int EMPTY_INDEX = 0;
+    public static final int MAX_SIZE = 0xFFFF; //Largest index that still fits into a short
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static volatile SpecialText[] entries = new SpecialText[INITIAL_CAPACITY];
+    private static int size = 1; //Slot 0 is the empty index
+
+    //Open-addressed hash table from (character, fg, bg) to index. Read without locking, and only written while holding the lock.
+    //Growing it builds a whole new table before swapping it in, so readers never see one half-filled.
+    private static volatile AtomicIntegerArray tableIndices = new AtomicIntegerArray(INITIAL_CAPACITY * 2);
+
+    private SpecialTextPalette() {}
+
+    /**
+     * @param index A palette index
+     * @return The SpecialText at that index, or null for the empty index.
+     */
+    public static SpecialText get(int index){
+        return entries[index];
+    }
+
+    /**
+     * Interns a SpecialText.
+     *
+     * @return The palette's copy of the SpecialText, which may be the same object.
+     */
+    public static SpecialText intern(SpecialText text){
+        if (text == null) return null;
+        if (text.paletteIndex != EMPTY_INDEX) return entries[text.paletteIndex];
+        int index = indexOf(text);
+        return (index > EMPTY_INDEX) ? entries[index] : text;
+    }
+
+    /**
+     * Interns a character and colors, without building a SpecialText first unless the combination is brand new.
+     *
+     * @return The palette's SpecialText for that combination. If the palette is full, a non-interned SpecialText is returned instead.
+     */
+    public static SpecialText intern(char c, int fgArgb, int bkgArgb){
+        int index = find(c, fgArgb, bkgArgb);
+        if (index < 0) index = indexOf(c, fgArgb, bkgArgb, null);
+        return (index > EMPTY_INDEX) ? entries[index] : new SpecialText(c, new Color(fgArgb, true), new Color(bkgArgb, true));
+    }
+
+    /**
+     * @param text A SpecialText, or null
+     * @return The palette index of the SpecialText, adding it to the palette if needed. Returns EMPTY_INDEX for null and -1 if the palette is full.
+     */
+    public static int indexOf(SpecialText text){
+        if (text == null) return EMPTY_INDEX;
+        if (text.paletteIndex != EMPTY_INDEX) return text.paletteIndex;
+        int index = find(text.getCharacter(), text.getFgArgb(), text.getBkgArgb());
+        return (index >= 0) ? index : indexOf(text.getCharacter(), text.getFgArgb(), text.getBkgArgb(), text);
+    }
+
+    /**
+     * @return The palette index for the combination, adding it to the palette if needed. Returns -1 if the palette is full.
+     */
+    public static int indexOf(char c, int fgArgb, int bkgArgb){
+        int index = find(c, fgArgb, bkgArgb);
+        return (index >= 0) ? index : indexOf(c, fgArgb, bkgArgb, null);
+    }
+
+    /**
+     * Looks up a combination that might already be in the palette, without adding it.
+     *
+     * @return The palette's SpecialText for that combination, or null if it isn't in the palette.
+     */
+    public static SpecialText lookup(char c, int fgArgb, int bkgArgb){
+        int index = find(c, fgArgb, bkgArgb);
+        return (index > EMPTY_INDEX) ? entries[index] : null;
+    }
+
+    /**
+     * Looks up a SpecialText that might already be in the palette, without adding it.
+     *
+     * @return The palette index, EMPTY_INDEX for null, or -1 if it is not in the palette.
+     */
+    public static int find(SpecialText text){
+        if (text == null) return EMPTY_INDEX;
+        if (text.paletteIndex != EMPTY_INDEX) return text.paletteIndex;
+        return find(text.getCharacter(), text.getFgArgb(), text.getBkgArgb());
+    }
+
+    //Lock-free lookup. An entry added at the same time may or may not be found, just as if the lookup had happened a moment earlier.
+    private static int find(char c, int fgArgb, int bkgArgb){
+        AtomicIntegerArray table = tableIndices;
+        int index = table.get(probe(table, c, fgArgb, bkgArgb));
+        return (index == EMPTY_INDEX) ? -1 : index;
+    }
+
+    /**
+     * @return The number of entries in the palette, not counting the empty index.
+     */
+    public static synchronized int size(){
+        return size - 1;
+    }
+
+    private static synchronized int indexOf(char c, int fgArgb, int bkgArgb, SpecialText candidate){
+        AtomicIntegerArray table = tableIndices;
+        int slot = probe(table, c, fgArgb, bkgArgb);
+        if (table.get(slot) != EMPTY_INDEX)
+            return table.get(slot); //Added by another thread since it was looked for
+        if (size > MAX_SIZE)
+            return -1;
+        //Brand new combination, so it goes into the palette.
+        SpecialText entry = (candidate != null) ? candidate : new SpecialText(c, new Color(fgArgb, true), new Color(bkgArgb, true));
+        int index = size++;
+        entry.paletteIndex = index;
+        SpecialText[] current = entries;
+        if (index >= current.length){
+            SpecialText[] grown = new SpecialText[Math.min(current.length * 2, MAX_SIZE + 1)];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        current[index] = entry;
+        entries = current; //Volatile write publishes the entry to readers
+        table.set(slot, index); //Only after the entry, so whoever finds the index finds the entry
+        if (size * 2 > table.length()) rehash();
+        return index;
+    }
+
+    //Finds the slot holding the combination, or the empty slot where it should go.
+    private static int probe(AtomicIntegerArray table, char c, int fgArgb, int bkgArgb){
+        int mask = table.length() - 1;
+        int slot = hash(c, fgArgb, bkgArgb) & mask;
+        while (true){
+            int index = table.get(slot);
+            if (index == EMPTY_INDEX) return slot;
+            SpecialText entry = entries[index]; //Read after the index, so the entry is there
+            if (entry.getCharacter() == c && entry.getFgArgb() == fgArgb && entry.getBkgArgb() == bkgArgb) return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static void rehash(){
+        AtomicIntegerArray old = tableIndices;
+        AtomicIntegerArray grown = new AtomicIntegerArray(old.length() * 2);
+        for (int i = 0; i < old.length(); i++){
+            int index = old.get(i);
+            if (index != EMPTY_INDEX){
+                SpecialText entry = entries[index];
+                grown.set(probe(grown, entry.getCharacter(), entry.getFgArgb(), entry.getBkgArgb()), index);
+            }
+        }
+        tableIndices = grown;
+    }
+
+    static int hash(char c, int fgArgb, int bkgArgb){
+        int h = c;
+        h = h * 31 + fgArgb;
+        h = h * 31 + bkgArgb;
+        return h ^ (h >>> 16);
+    }
+}
@@ -15,7 +15,7 @@ import java.util.ArrayList;
 /**
  * Created by Jared on 2/18/2018.
  */
-public class ViewWindow extends JComponent implements ComponentListener, MouseInputListener, KeyListener, FocusListener{
+public class ViewWindow extends JComponent implements RenderTarget, ComponentListener, MouseInputListener, KeyListener, FocusListener{
 
     /**
      * ViewWindow:
@@ -24,9 +24,11 @@ public class ViewWindow extends JComponent implements ComponentListener, MouseIn
      *
      * It takes in a Layer as input and dumps out its contents onto the screen.
      * It is generally recommended to pair a ViewWindow with a LayerManager for a more organized approach to display.
+     *
+     * As a RenderTarget, it's told whenever its LayerManager composes a frame, and repaints; painting then takes the newest frame on the Event Dispatch Thread.
      */
 
-    private Layer drawnImage;
+    private FrameBuffer drawnImage;
 
     public int HOR_SEPARATION = 9;
     public int VER_SEPARATION = 16;
@@ -42,6 +44,7 @@ public class ViewWindow extends JComponent implements ComponentListener, MouseIn
     public LayerManager manager;
 
     private Font calculatedFont = new Font("Monospaced", Font.PLAIN, 15);
+    private FramePainter painter = new FramePainter();
 
     public ViewWindow() {
         recalculate();
@@ -49,11 +52,6 @@ public class ViewWindow extends JComponent implements ComponentListener, MouseIn
         setFocusable(true);
     }
 
-    void drawImage(Layer image){
-        drawnImage = image;
-        repaint();
-    }
-
     public void recalculate() {
         double MAX_VER_HOR_SEPARATION_RATIO = 0.6;
 
@@ -72,6 +70,15 @@ public class ViewWindow extends JComponent implements ComponentListener, MouseIn
         Font newFont = generateFont(CHAR_SIZE + fontSizeAdjustment);
         if (newFont != null)
             calculatedFont = newFont;
+        painter.setLayout(calculatedFont, HOR_SEPARATION, VER_SEPARATION, HOR_MARGIN, VER_MARGIN);
+
+        if (manager != null)
+            manager.setResolution(RESOLUTION_WIDTH, RESOLUTION_HEIGHT); //The resolution may have changed, which needs a new frame
+    }
+
+    @Override
+    public void frameComposed(FrameBuffer frame) {
+        repaint(); //Swing paints later, on its own thread, so the frame itself is picked up from the LayerManager then
     }
 
     private ArrayList<Font> generatedFonts = new ArrayList<>();
@@ -92,33 +99,20 @@ public class ViewWindow extends JComponent implements ComponentListener, MouseIn
 
     @Override
     public void paintComponent(Graphics g) {
+        long paintStartTime = System.nanoTime();
 
         g.setColor(Color.BLACK);
         g.fillRect(0, 0, getWidth(), getHeight()); //Create base background
 
         g.setFont(calculatedFont);
-        FontMetrics metrics = g.getFontMetrics();
+
+        if (manager != null)
+            drawnImage = manager.acquireFrame(); //Stays untouched by the LayerManager until the next acquire, so it can be read freely here
 
         if (drawnImage != null) {
-            for (int col = 0; col < RESOLUTION_WIDTH; col++) {
-                for (int row = 0; row < RESOLUTION_HEIGHT; row++) {
-                    SpecialText text = drawnImage.getSpecialText(col, row);
-                    if (text != null) {
-                        g.setColor(text.getBkgColor());
-                        g.fillRect(col * HOR_SEPARATION + HOR_MARGIN, row * VER_SEPARATION + VER_MARGIN + 1, HOR_SEPARATION, VER_SEPARATION); //Fill background
-                    }
-                }
-            }
-
-            for (int col = 0; col < RESOLUTION_WIDTH; col++) {
-                for (int row = 0; row < RESOLUTION_HEIGHT; row++) {
-                    SpecialText text = drawnImage.getSpecialText(col, row);
-                    if (text != null) {
-                        g.setColor(text.getFgColor());
-                        g.drawString(text.getStr(), col * HOR_SEPARATION + HOR_MARGIN + (HOR_SEPARATION - metrics.stringWidth(text.getStr())) / 2, VER_SEPARATION * row + VER_MARGIN + (int) (VER_SEPARATION * 0.75)); //Fill foreground (the text)
-                    }
-                }
-            }
+            int cols = Math.min(RESOLUTION_WIDTH, drawnImage.getCols()); //The resolution may have changed before a frame of the new size was composed
+            int rows = Math.min(RESOLUTION_HEIGHT, drawnImage.getRows());
+            painter.paint(g, drawnImage, cols, rows);
         }
 
         if (!isFocusOwner()) g.setColor(new Color(50, 50, 50)); //Draw margin borders
@@ -129,6 +123,9 @@ public class ViewWindow extends JComponent implements ComponentListener, MouseIn
         g.drawLine(0, getHeight() - VER_MARGIN, getWidth(), getHeight() - VER_MARGIN);
 
         for (SpecialGraphics specialGraphics : specialGraphicsList) specialGraphics.paint(g);
+
+        if (manager != null)
+            manager.getMetrics().recordStage(RenderMetrics.STAGE_PAINT, System.nanoTime() - paintStartTime);
     }
 
     public void addSpecialGraphics(SpecialGraphics graphics) { specialGraphicsList.add(graphics); }